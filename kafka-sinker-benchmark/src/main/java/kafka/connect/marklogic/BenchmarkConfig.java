@@ -0,0 +1,37 @@
+package kafka.connect.marklogic;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
+
+/**
+ * Connector config of the benchmarks. The MarkLogic client is created but never connects,
+ * Hive goes through the fake streaming factory.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public final class BenchmarkConfig {
+
+    private BenchmarkConfig() {
+    }
+
+    /**
+     * @return a new config map
+     */
+    public static Map<String, String> config() {
+        Map<String, String> config = new HashMap<>();
+        config.put("name", "marklogic-sink-benchmark");
+        config.put(MarkLogicSinkConfig.CONNECTION_HOST, "localhost");
+        config.put(MarkLogicSinkConfig.CONNECTION_PORT, "8000");
+        config.put(MarkLogicSinkConfig.CONNECTION_USER, "admin");
+        config.put(MarkLogicSinkConfig.CONNECTION_PASSWORD, "admin");
+        config.put(MarkLogicSinkConfig.CONNECTION_DB, "Documents");
+        config.put(MarkLogicSinkConfig.BATCH_SIZE, "1000");
+        config.put(MarkLogicSinkConfig.MAX_RETRIES, "1");
+        config.put(MarkLogicSinkConfig.RETRY_BACKOFF_MS, "1000");
+        config.put(MarkLogicSinkConfig.HIVE_THRIFT_URL, "thrift://localhost:9083");
+        config.put(MarkLogicSinkConfig.HIVE_STREAMING_FACTORY, FakeHiveStreamingFactory.class.getName());
+        return config;
+    }
+}
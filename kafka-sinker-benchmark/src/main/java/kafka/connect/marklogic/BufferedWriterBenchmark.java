@@ -0,0 +1,79 @@
+package kafka.connect.marklogic;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
+
+/**
+ * Put records into MarkLogicBufferedWriter, as the sink task does, with a fake write batcher
+ * and fake Hive transaction batches. A score of 1 op is 1 record.
+ * Like the sink task, the benchmark waits while the writer buffers too many records,
+ * so that the Hive writers draining in background are part of the measure.
+ * @author TCSCODER
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BufferedWriterBenchmark {
+
+    private static final int RECORDS_PER_PUT = 500;
+    private static final long MAX_BUFFERED_RECORDS = 100000;
+
+    @Param({"position", "instrument"})
+    public String type;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    @Param({"0", "0.5"})
+    public double hiveRatio;
+
+    private MarkLogicBufferedWriter writer;
+    private SinkRecordFixture fixture;
+
+    @Setup
+    public void setup() throws IOException {
+        Map<String, String> config = BenchmarkConfig.config();
+        config.put(MarkLogicSinkConfig.BATCH_SIZE, String.valueOf(batchSize));
+        config.put(MarkLogicSinkConfig.HIVE_MAX_BATCH_RECORDS, String.valueOf(batchSize));
+        writer = new MarkLogicBufferedWriter(config, FakeDataMovementManager.create());
+        fixture = new SinkRecordFixture(type, 0, 1000, hiveRatio, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_PUT)
+    public void write() {
+        Collection<SinkRecord> records = fixture.next(RECORDS_PER_PUT);
+        writer.write(records);
+        while (writer.bufferedRecords() > MAX_BUFFERED_RECORDS) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package kafka.connect.marklogic;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.Forest;
+import com.marklogic.client.datamovement.ForestConfiguration;
+import com.marklogic.client.datamovement.WriteBatch;
+import com.marklogic.client.datamovement.WriteBatchListener;
+import com.marklogic.client.datamovement.WriteBatcher;
+import com.marklogic.client.datamovement.WriteEvent;
+import com.marklogic.client.io.marker.AbstractWriteHandle;
+import com.marklogic.client.io.marker.DocumentMetadataWriteHandle;
+
+/**
+ * A data movement manager whose write batchers don't write anywhere: a batch is reported
+ * as written to the success listeners, on the calling thread, as soon as it is full or flushed.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class FakeDataMovementManager implements InvocationHandler {
+
+    private final AtomicLong written = new AtomicLong();
+    private final DatabaseClient client = Proxies.create(DatabaseClient.class, (p, m, a) ->
+            "getHost".equals(m.getName()) ? "localhost" : Proxies.defaultResult(p, m, a));
+    // A single forest on the client host
+    private final ForestConfiguration forestConfig = Proxies.create(ForestConfiguration.class, (p, m, a) ->
+            "listForests".equals(m.getName()) ? new Forest[] {Proxies.create(Forest.class, (fp, fm, fa) ->
+                    "getHost".equals(fm.getName()) ? "localhost" : Proxies.defaultResult(fp, fm, fa))}
+            : Proxies.defaultResult(p, m, a));
+
+    /**
+     * @return a new fake data movement manager
+     */
+    public static DataMovementManager create() {
+        return new FakeDataMovementManager().proxy();
+    }
+
+    private DataMovementManager proxy() {
+        return Proxies.create(DataMovementManager.class, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("newWriteBatcher".equals(method.getName())) {
+            return new Batcher().proxy;
+        }
+        if ("readForestConfig".equals(method.getName())) {
+            return forestConfig;
+        }
+        return Proxies.defaultResult(proxy, method, args);
+    }
+
+    private class Batcher implements InvocationHandler {
+
+        private final WriteBatcher proxy = Proxies.create(WriteBatcher.class, this);
+        private final List<WriteBatchListener> successListeners = new ArrayList<>();
+        private final List<WriteEvent> pending = new ArrayList<>();
+        private int batchSize = 100;
+        private long batchNumber = 0;
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "withBatchSize":
+                batchSize = (Integer) args[0];
+                return proxy;
+            case "getBatchSize":
+                return batchSize;
+            case "onBatchSuccess":
+                successListeners.add((WriteBatchListener) args[0]);
+                return proxy;
+            case "add":
+                if (args.length == 3) {
+                    pending.add(event((String) args[0], (DocumentMetadataWriteHandle) args[1],
+                            (AbstractWriteHandle) args[2]));
+                } else if (args.length == 2 && args[1] instanceof AbstractWriteHandle) {
+                    pending.add(event((String) args[0], null, (AbstractWriteHandle) args[1]));
+                }
+                if (pending.size() >= batchSize) {
+                    send();
+                }
+                return proxy;
+            case "flushAsync":
+            case "flushAndWait":
+                send();
+                return null;
+            case "awaitCompletion":
+                return true;
+            default:
+                return Proxies.defaultResult(proxy, method, args);
+            }
+        }
+
+        private void send() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            final WriteEvent[] items = pending.toArray(new WriteEvent[pending.size()]);
+            pending.clear();
+            final long jobBatchNumber = ++batchNumber;
+            final long jobWritesSoFar = written.addAndGet(items.length);
+            final Calendar timestamp = Calendar.getInstance();
+
+            WriteBatch batch = Proxies.create(WriteBatch.class, (p, m, a) -> {
+                switch (m.getName()) {
+                case "getItems":
+                    return items;
+                case "getBatcher":
+                    return proxy;
+                case "getClient":
+                    return client;
+                case "getJobBatchNumber":
+                    return jobBatchNumber;
+                case "getJobWritesSoFar":
+                    return jobWritesSoFar;
+                case "getTimestamp":
+                    return timestamp;
+                default:
+                    return Proxies.defaultResult(p, m, a);
+                }
+            });
+            for (WriteBatchListener listener : successListeners) {
+                listener.processEvent(batch);
+            }
+        }
+    }
+
+    private static WriteEvent event(String uri, DocumentMetadataWriteHandle metadata, AbstractWriteHandle content) {
+        return Proxies.create(WriteEvent.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getTargetUri":
+                return uri;
+            case "getMetadata":
+                return metadata;
+            case "getContent":
+                return content;
+            default:
+                return Proxies.defaultResult(p, m, a);
+            }
+        });
+    }
+}
@@ -0,0 +1,158 @@
+package kafka.connect.marklogic;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hive.hcatalog.streaming.StreamingConnection;
+import org.apache.hive.hcatalog.streaming.TransactionBatch;
+import org.apache.hive.hcatalog.streaming.TransactionError;
+
+/**
+ * Hive streaming factory whose transaction batches don't write anywhere, they only count
+ * the committed records. Set it as "hive.streaming.factory" to run the Hive writer without Hive.
+ * Commits can be slowed down and made to fail, the settings apply to all batches.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class FakeHiveStreamingFactory implements HiveStreamingFactory {
+
+    private static final AtomicLong committedRecords = new AtomicLong();
+    private static final AtomicLong committedBytes = new AtomicLong();
+    private static final AtomicLong commits = new AtomicLong();
+    private static final AtomicLong failedCommits = new AtomicLong();
+
+    private static volatile long commitLatencyMs = 0;
+    private static volatile double commitFailureRate = 0;
+    private static volatile long outageUntil = 0;
+
+    /**
+     * Set the time each commit takes.
+     * @param latencyMs the commit latency in ms
+     */
+    public static void setCommitLatencyMs(long latencyMs) {
+        commitLatencyMs = latencyMs;
+    }
+
+    /**
+     * Set the ratio of commits failing with a TransactionError.
+     * @param failureRate the failure rate, between 0 and 1
+     */
+    public static void setCommitFailureRate(double failureRate) {
+        commitFailureRate = failureRate;
+    }
+
+    /**
+     * Fail all commits for a while, like a Hive outage.
+     * @param durationMs the outage duration in ms
+     */
+    public static void outage(long durationMs) {
+        outageUntil = System.currentTimeMillis() + durationMs;
+    }
+
+    @Override
+    public StreamingConnection connect(String hiveThriftUrl, String table, List<String> partitionVals, String agent) {
+        return Proxies.create(StreamingConnection.class, Proxies::defaultResult);
+    }
+
+    @Override
+    public TransactionBatch fetchTransactionBatch(StreamingConnection connection, String hiveThriftUrl, String table,
+            List<String> partitionVals, int numTransactions) {
+        return new Batch(numTransactions).proxy;
+    }
+
+    /**
+     * @return the records committed by all fake transaction batches
+     */
+    public static long committedRecords() {
+        return committedRecords.get();
+    }
+
+    /**
+     * @return the bytes committed by all fake transaction batches
+     */
+    public static long committedBytes() {
+        return committedBytes.get();
+    }
+
+    /**
+     * @return the number of successful commits
+     */
+    public static long commits() {
+        return commits.get();
+    }
+
+    /**
+     * @return the number of failed commits
+     */
+    public static long failedCommits() {
+        return failedCommits.get();
+    }
+
+    private static class Batch implements InvocationHandler {
+
+        private final TransactionBatch proxy = Proxies.create(TransactionBatch.class, this);
+        private int remaining;
+        private long records = 0;
+        private long bytes = 0;
+        private boolean closed = false;
+
+        private Batch(int numTransactions) {
+            this.remaining = numTransactions;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "beginNextTransaction":
+                remaining--;
+                return null;
+            case "remainingTransactions":
+                return remaining;
+            case "write":
+                if (args[0] instanceof byte[]) {
+                    write((byte[]) args[0]);
+                } else {
+                    for (Object record : (Collection<?>) args[0]) {
+                        write((byte[]) record);
+                    }
+                }
+                return null;
+            case "commit":
+                if (commitLatencyMs > 0) {
+                    Thread.sleep(commitLatencyMs);
+                }
+                if (System.currentTimeMillis() < outageUntil
+                        || ThreadLocalRandom.current().nextDouble() < commitFailureRate) {
+                    failedCommits.incrementAndGet();
+                    throw new TransactionError("Injected commit failure");
+                }
+                commits.incrementAndGet();
+                committedRecords.addAndGet(records);
+                committedBytes.addAndGet(bytes);
+                records = 0;
+                bytes = 0;
+                return null;
+            case "abort":
+                records = 0;
+                bytes = 0;
+                return null;
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            default:
+                return Proxies.defaultResult(proxy, method, args);
+            }
+        }
+
+        private void write(byte[] record) {
+            records++;
+            bytes += record.length;
+        }
+    }
+}
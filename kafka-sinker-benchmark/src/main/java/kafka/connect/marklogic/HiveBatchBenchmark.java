@@ -0,0 +1,87 @@
+package kafka.connect.marklogic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
+
+/**
+ * Write records through a Hive table writer, committing a fake transaction every max batch records.
+ * @author TCSCODER
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HiveBatchBenchmark {
+
+    private static final int DISTINCT_RECORDS = 1000;
+
+    @Param({"position", "instrument"})
+    public String type;
+
+    @Param({"100", "1000"})
+    public int maxBatchRecords;
+
+    private OffsetTracker offsetTracker;
+    private SinkMetrics metrics;
+    private HiveWriter hiveWriter;
+    private HiveWriter.Batch batch;
+    private final List<EncodedRecord> encoded = new ArrayList<>();
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        Map<String, String> config = BenchmarkConfig.config();
+        config.put(MarkLogicSinkConfig.HIVE_MAX_BATCH_RECORDS, String.valueOf(maxBatchRecords));
+        // Only the benchmark thread commits
+        config.put(MarkLogicSinkConfig.HIVE_LINGER_MS, String.valueOf(Integer.MAX_VALUE));
+
+        offsetTracker = new OffsetTracker();
+        metrics = new SinkMetrics("hive-batch-benchmark");
+        hiveWriter = new HiveWriter(config, offsetTracker, metrics);
+        hiveWriter.start();
+        batch = hiveWriter.batch(type, 0);
+        // Let the drain thread block on its empty queue before the benchmark adds pending records
+        Thread.sleep(100);
+
+        SinkRecordFixture fixture = new SinkRecordFixture(type, 0, DISTINCT_RECORDS, 1, 1);
+        RecordEncoder encoder = new RecordEncoder();
+        for (int i = 0; i < DISTINCT_RECORDS; i++) {
+            encoded.add(encoder.encode(fixture.next()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        hiveWriter.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    public void performAction() throws InterruptedException {
+        EncodedRecord record = encoded.get(next);
+        next = (next + 1) % encoded.size();
+        offsetTracker.track(record);
+        batch.performAction(record, maxBatchRecords, HiveWriter.BatchAction.WRITE);
+    }
+}
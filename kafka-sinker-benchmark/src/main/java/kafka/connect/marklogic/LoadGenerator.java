@@ -0,0 +1,333 @@
+package kafka.connect.marklogic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+
+import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
+import kafka.connect.marklogic.sink.MarkLogicSinkTask;
+
+/**
+ * Drive MarkLogicSinkTask like the Connect worker does, with records synthesized from the CSV columns,
+ * against the MarkLogic stand-in and the fake Hive streaming factory, and report the throughput.
+ * Paused partitions are not polled, the offsets returned by preCommit are what is durably written.
+ * <p>
+ * Arguments are key=value pairs, see the defaults below. Keys containing a dot are connector configs,
+ * eg "ml.batch.size=500". Run with:
+ * <pre>java -cp benchmarks.jar kafka.connect.marklogic.LoadGenerator records=5000000 hiveFailureRate=0.01</pre>
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class LoadGenerator {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        // Total records to put, and the max duration in seconds, 0 for no limit
+        DEFAULTS.put("records", "1000000");
+        DEFAULTS.put("durationS", "0");
+        DEFAULTS.put("topics", "position,instrument,transaction");
+        DEFAULTS.put("partitions", "1");
+        DEFAULTS.put("hiveRatio", "0.3");
+        DEFAULTS.put("distinctRecords", "1000");
+        // Records returned by each poll, across the partitions not paused
+        DEFAULTS.put("pollRecords", "500");
+        // Connect's offset.flush.interval.ms
+        DEFAULTS.put("commitIntervalMs", "5000");
+        DEFAULTS.put("reportIntervalMs", "5000");
+        DEFAULTS.put("mlForests", "3");
+        DEFAULTS.put("mlThreads", "32");
+        DEFAULTS.put("mlLatencyMs", "0");
+        DEFAULTS.put("mlFailureRate", "0");
+        DEFAULTS.put("hiveCommitLatencyMs", "0");
+        DEFAULTS.put("hiveFailureRate", "0");
+        // Wait at most this long for the buffered records to be written at the end
+        DEFAULTS.put("drainTimeoutS", "300");
+    }
+
+    private final Map<String, String> options;
+    private final Map<String, String> config;
+    private final Context context = new Context();
+    private final List<Source> sources = new ArrayList<>();
+
+    private long put = 0;
+    private long committed = 0;
+    private long retries = 0;
+    private long pausedPolls = 0;
+
+    public LoadGenerator(Map<String, String> options, Map<String, String> config) {
+        this.options = options;
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        Map<String, String> config = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("Expected key=value argument: " + arg);
+            }
+            String key = arg.substring(0, index);
+            if (key.contains(".")) {
+                config.put(key, arg.substring(index + 1));
+            } else if (DEFAULTS.containsKey(key)) {
+                options.put(key, arg.substring(index + 1));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + key + ", options: " + DEFAULTS.keySet());
+            }
+        }
+        new LoadGenerator(options, config).run();
+    }
+
+    private long longOption(String key) {
+        return Long.parseLong(options.get(key));
+    }
+
+    private double doubleOption(String key) {
+        return Double.parseDouble(options.get(key));
+    }
+
+    public void run() throws IOException, InterruptedException {
+        System.out.println("Options: " + options);
+        try (MarkLogicStandIn marklogic = new MarkLogicStandIn("localhost", 0,
+                (int) longOption("mlForests"), (int) longOption("mlThreads"))) {
+            marklogic.setLatencyMs(longOption("mlLatencyMs"));
+            marklogic.setFailureRate(doubleOption("mlFailureRate"));
+            FakeHiveStreamingFactory.setCommitLatencyMs(longOption("hiveCommitLatencyMs"));
+            FakeHiveStreamingFactory.setCommitFailureRate(doubleOption("hiveFailureRate"));
+
+            Map<String, String> taskConfig = BenchmarkConfig.config();
+            taskConfig.put(MarkLogicSinkConfig.CONNECTION_PORT, String.valueOf(marklogic.port()));
+            taskConfig.putAll(config);
+
+            int partitions = (int) longOption("partitions");
+            int seed = 0;
+            for (String topic : options.get("topics").split(",")) {
+                for (int partition = 0; partition < partitions; partition++) {
+                    sources.add(new Source(new TopicPartition(topic.trim(), partition), new SinkRecordFixture(topic.trim(),
+                            partition, (int) longOption("distinctRecords"), doubleOption("hiveRatio"), seed++)));
+                }
+            }
+            for (Source source : sources) {
+                context.assignment.add(source.partition);
+            }
+
+            MarkLogicSinkTask task = new MarkLogicSinkTask();
+            task.initialize(context);
+            task.start(taskConfig);
+            try {
+                load(task, marklogic);
+                drain(task, marklogic);
+            } finally {
+                task.stop();
+            }
+        }
+    }
+
+    private void load(MarkLogicSinkTask task, MarkLogicStandIn marklogic) throws InterruptedException {
+        long records = longOption("records");
+        long durationMs = longOption("durationS") * 1000;
+        long pollRecords = longOption("pollRecords");
+        long commitIntervalMs = longOption("commitIntervalMs");
+        long reportIntervalMs = longOption("reportIntervalMs");
+
+        long start = System.currentTimeMillis();
+        long nextCommit = start + commitIntervalMs;
+        long nextReport = start + reportIntervalMs;
+        Report last = new Report(start, marklogic);
+
+        while (put < records && (durationMs == 0 || System.currentTimeMillis() - start < durationMs)) {
+            List<SinkRecord> poll = new ArrayList<>();
+            List<Source> active = new ArrayList<>();
+            for (Source source : sources) {
+                if (!context.paused.contains(source.partition)) {
+                    active.add(source);
+                }
+            }
+            if (active.isEmpty()) {
+                // The consumer poll waits while all partitions are paused
+                pausedPolls++;
+                Thread.sleep(10);
+            } else {
+                int perSource = (int) Math.max(1, Math.min(pollRecords, records - put) / active.size());
+                for (Source source : active) {
+                    poll.addAll(source.next(perSource));
+                }
+            }
+            put(task, poll);
+
+            long now = System.currentTimeMillis();
+            if (now >= nextCommit) {
+                commit(task);
+                nextCommit = now + commitIntervalMs;
+            }
+            if (now >= nextReport) {
+                Report report = new Report(now, marklogic);
+                report.print(last);
+                last = report;
+                nextReport = now + reportIntervalMs;
+            }
+        }
+        System.out.println(String.format("Put %d records in %.1f s", put, (System.currentTimeMillis() - start) / 1000.0));
+    }
+
+    private void drain(MarkLogicSinkTask task, MarkLogicStandIn marklogic) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + longOption("drainTimeoutS") * 1000;
+        Report last = new Report(start, marklogic);
+        while (committed < put && System.currentTimeMillis() < deadline) {
+            // Connect keeps polling while the partitions are paused
+            put(task, Collections.<SinkRecord>emptyList());
+            commit(task);
+            Thread.sleep(100);
+        }
+        Report report = new Report(System.currentTimeMillis(), marklogic);
+        report.print(last);
+        System.out.println(String.format("Drained in %.1f s, %d of %d records committed, %d put retries, %d polls while all paused",
+                (System.currentTimeMillis() - start) / 1000.0, committed, put, retries, pausedPolls));
+    }
+
+    private void put(MarkLogicSinkTask task, Collection<SinkRecord> records) throws InterruptedException {
+        while (true) {
+            try {
+                task.put(records);
+                put += records.size();
+                return;
+            } catch (RetriableException e) {
+                // Connect redelivers the same records after the timeout
+                retries++;
+                Thread.sleep(Math.max(0, context.timeout));
+            }
+        }
+    }
+
+    private void commit(MarkLogicSinkTask task) {
+        Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+        for (Source source : sources) {
+            currentOffsets.put(source.partition, new OffsetAndMetadata(source.nextOffset));
+        }
+        long total = 0;
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : task.preCommit(currentOffsets).entrySet()) {
+            for (Source source : sources) {
+                if (source.partition.equals(entry.getKey())) {
+                    source.committed = Math.max(source.committed, entry.getValue().offset());
+                }
+            }
+        }
+        for (Source source : sources) {
+            total += source.committed;
+        }
+        committed = total;
+    }
+
+    private class Report {
+
+        private final long time;
+        private final long put;
+        private final long committed;
+        private final long mlDocuments;
+        private final long mlFailures;
+        private final long hiveRecords;
+        private final long hiveFailures;
+
+        private Report(long time, MarkLogicStandIn marklogic) {
+            this.time = time;
+            this.put = LoadGenerator.this.put;
+            this.committed = LoadGenerator.this.committed;
+            this.mlDocuments = marklogic.documents();
+            this.mlFailures = marklogic.failures();
+            this.hiveRecords = FakeHiveStreamingFactory.committedRecords();
+            this.hiveFailures = FakeHiveStreamingFactory.failedCommits();
+        }
+
+        private void print(Report last) {
+            double seconds = Math.max(1, time - last.time) / 1000.0;
+            System.out.println(String.format(
+                    "put %d (%.0f/s), committed %d (%.0f/s), MarkLogic %d docs (%.0f/s, %d failed requests), "
+                    + "Hive %d records (%.0f/s, %d failed commits), paused partitions %d",
+                    put, (put - last.put) / seconds, committed, (committed - last.committed) / seconds,
+                    mlDocuments, (mlDocuments - last.mlDocuments) / seconds, mlFailures - last.mlFailures,
+                    hiveRecords, (hiveRecords - last.hiveRecords) / seconds, hiveFailures - last.hiveFailures,
+                    context.paused.size()));
+        }
+    }
+
+    /**
+     * A topic partition, with the offsets the consumer is at.
+     */
+    private static class Source {
+
+        private final TopicPartition partition;
+        private final SinkRecordFixture fixture;
+        private long nextOffset = 0;
+        private long committed = 0;
+
+        private Source(TopicPartition partition, SinkRecordFixture fixture) {
+            this.partition = partition;
+            this.fixture = fixture;
+        }
+
+        private List<SinkRecord> next(int count) {
+            List<SinkRecord> records = fixture.next(count);
+            nextOffset += count;
+            return records;
+        }
+    }
+
+    /**
+     * The sink task context of the Connect worker, pausing stops polling a partition.
+     */
+    private static class Context implements SinkTaskContext {
+
+        private final Set<TopicPartition> assignment = new HashSet<>();
+        private final Set<TopicPartition> paused = new HashSet<>();
+        private long timeout = 0;
+
+        @Override
+        public void offset(Map<TopicPartition, Long> offsets) {
+        }
+
+        @Override
+        public void offset(TopicPartition tp, long offset) {
+        }
+
+        @Override
+        public void timeout(long timeoutMs) {
+            this.timeout = timeoutMs;
+        }
+
+        @Override
+        public Set<TopicPartition> assignment() {
+            return assignment;
+        }
+
+        @Override
+        public void pause(TopicPartition... partitions) {
+            paused.addAll(Arrays.asList(partitions));
+        }
+
+        @Override
+        public void resume(TopicPartition... partitions) {
+            paused.removeAll(Arrays.asList(partitions));
+        }
+
+        @Override
+        public void requestCommit() {
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package kafka.connect.marklogic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP stand-in of the MarkLogic REST endpoints used by the data movement SDK write batcher:
+ * the forest info of the database, and the bulk document write. Documents are counted and dropped.
+ * Each bulk write can be slowed down, and made to fail with a 500 response.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class MarkLogicStandIn implements Closeable {
+
+    private static final String FOREST_INFO_PATH = "/v1/internal/forestinfo";
+    private static final String DOCUMENTS_PATH = "/v1/documents";
+
+    private static final byte[] CONTENT_PART = "Content-Disposition: attachment".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] METADATA_PART = "category=metadata".getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] forestInfo;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile long latencyMs = 0;
+    private volatile double failureRate = 0;
+    private volatile long outageUntil = 0;
+
+    /**
+     * Start the stand-in.
+     * @param host the host name, the forests are reported on it
+     * @param port the port, 0 for any free port
+     * @param forests the number of forests of the database
+     * @param threads the number of request threads
+     * @throws IOException if failed to bind
+     */
+    public MarkLogicStandIn(String host, int port, int forests, int threads) throws IOException {
+        StringBuilder info = new StringBuilder("[");
+        for (int i = 0; i < forests; i++) {
+            if (i > 0) {
+                info.append(',');
+            }
+            info.append("{\"id\":\"").append(1000 + i).append("\",\"name\":\"standin-").append(i + 1)
+                    .append("\",\"database\":\"Documents\",\"host\":\"").append(host)
+                    .append("\",\"updatesAllowed\":\"all\"}");
+        }
+        forestInfo = info.append(']').toString().getBytes(StandardCharsets.UTF_8);
+
+        executor = Executors.newFixedThreadPool(threads);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(FOREST_INFO_PATH, exchange -> handle(exchange, false));
+        server.createContext(DOCUMENTS_PATH, exchange -> handle(exchange, true));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the bound port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Set the time each bulk write takes.
+     * @param latencyMs the latency in ms
+     */
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Set the ratio of bulk writes failing with a 500 response.
+     * @param failureRate the failure rate, between 0 and 1
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Fail all bulk writes for a while, like a MarkLogic outage.
+     * @param durationMs the outage duration in ms
+     */
+    public void outage(long durationMs) {
+        outageUntil = System.currentTimeMillis() + durationMs;
+    }
+
+    /**
+     * @return the number of bulk write requests
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of documents written
+     */
+    public long documents() {
+        return documents.get();
+    }
+
+    /**
+     * @return the bytes of successful bulk write requests
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the number of failed bulk write requests
+     */
+    public long failures() {
+        return failures.get();
+    }
+
+    private void handle(HttpExchange exchange, boolean write) throws IOException {
+        try {
+            byte[] body = read(exchange.getRequestBody());
+            if (!write) {
+                respond(exchange, 200, forestInfo);
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error(405, "Method Not Allowed", "Only bulk writes are supported"));
+                return;
+            }
+
+            requests.incrementAndGet();
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            if (System.currentTimeMillis() < outageUntil || ThreadLocalRandom.current().nextDouble() < failureRate) {
+                failures.incrementAndGet();
+                respond(exchange, 500, error(500, "Internal Server Error", "Injected failure"));
+                return;
+            }
+
+            // Every document has a content part, and a metadata part if it has metadata
+            documents.addAndGet(count(body, CONTENT_PART) - count(body, METADATA_PART));
+            bytes.addAndGet(body.length);
+            respond(exchange, 200, "{\"documents\":[]}".getBytes(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            respond(exchange, 503, error(503, "Service Unavailable", "Stand-in stopped"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] error(int status, String statusText, String message) {
+        return ("{\"errorResponse\":{\"statusCode\":" + status + ",\"status\":\"" + statusText
+                + "\",\"messageCode\":\"STANDIN-ERROR\",\"message\":\"" + message + "\"}}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int count(byte[] body, byte[] pattern) {
+        int count = 0;
+        int last = body.length - pattern.length;
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < pattern.length && body[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                count++;
+                i += pattern.length - 1;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,59 @@
+package kafka.connect.marklogic;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Helpers for the fake backends. They are dynamic proxies, so that only the methods
+ * the writers call need to be faked, whatever the client library version.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public final class Proxies {
+
+    private Proxies() {
+    }
+
+    /**
+     * Create a proxy.
+     * @param type the interface
+     * @param handler the invocation handler
+     * @return the proxy
+     */
+    public static <T> T create(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(Proxies.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /**
+     * The result of a method the fake doesn't implement: Object methods behave as usual,
+     * fluent methods return the proxy, others return the default value of their type.
+     * @param proxy the proxy
+     * @param method the method
+     * @param args the arguments
+     * @return the result
+     */
+    public static Object defaultResult(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        default:
+            break;
+        }
+
+        Class<?> type = method.getReturnType();
+        if (type.isInstance(proxy)) {
+            return proxy;
+        }
+        if (type.isPrimitive() && type != void.class) {
+            // The zero value of the primitive type
+            return Array.get(Array.newInstance(type, 1), 0);
+        }
+        return null;
+    }
+}
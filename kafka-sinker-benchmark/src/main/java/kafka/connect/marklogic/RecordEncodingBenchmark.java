@@ -0,0 +1,78 @@
+package kafka.connect.marklogic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode a record to JSON, and build the MarkLogic document url and content handle from it.
+ * @author TCSCODER
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordEncodingBenchmark {
+
+    private static final int DISTINCT_RECORDS = 1000;
+
+    @Param({"position", "instrument"})
+    public String type;
+
+    private MarkLogicWriter writer;
+    private SinkRecordFixture fixture;
+    private final List<EncodedRecord> encoded = new ArrayList<>();
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        writer = new MarkLogicWriter(BenchmarkConfig.config());
+        fixture = new SinkRecordFixture(type, 0, DISTINCT_RECORDS, 0.5, 1);
+        for (int i = 0; i < DISTINCT_RECORDS; i++) {
+            encoded.add(writer.encode(fixture.next()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Benchmark
+    public EncodedRecord encode() {
+        return writer.encode(fixture.next());
+    }
+
+    @Benchmark
+    public String url() {
+        return writer.url(nextEncoded());
+    }
+
+    @Benchmark
+    public MarkLogicWriter.RecordHandle handle() {
+        return writer.handle(nextEncoded());
+    }
+
+    private EncodedRecord nextEncoded() {
+        EncodedRecord record = encoded.get(next);
+        next = (next + 1) % encoded.size();
+        return record;
+    }
+}
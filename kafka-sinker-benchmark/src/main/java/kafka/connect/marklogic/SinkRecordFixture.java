@@ -0,0 +1,168 @@
+package kafka.connect.marklogic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Synthesize sink records shaped like the Logstash output: the CSV columns of a type
+ * (read from logstash/pipeline.conf), plus the "type", "url" and "hive" fields.
+ * Values are generated once, records are replayed with increasing offsets.
+ * The pipeline.conf location is set by the "pipeline.conf" system property.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class SinkRecordFixture {
+
+    public static final String PIPELINE_CONF = "pipeline.conf";
+    private static final String PIPELINE_CONF_DEFAULT = "../logstash/pipeline.conf";
+
+    private static final Pattern TYPE_LINE = Pattern.compile("if \\[type\\] == \"(\\w+)\"");
+    private static final Pattern QUOTED = Pattern.compile("\"([^\"]+)\"");
+    private static final Pattern NUMERIC = Pattern.compile(
+            ".*(amount|price|quantity|rate|value|cost|fee|gain|factor|face|shares|yield|duration|coupon|weight|pl).*");
+
+    private static final Map<String, String> KEY_FIELDS = new HashMap<>();
+    private static final Map<String, String> URL_PREFIXES = new HashMap<>();
+
+    static {
+        KEY_FIELDS.put("position", "UniqueId");
+        KEY_FIELDS.put("instrument", "InstrumentId");
+        KEY_FIELDS.put("transaction", "UniqueId");
+        URL_PREFIXES.put("position", "/Position/");
+        URL_PREFIXES.put("instrument", "/Instrument/");
+        URL_PREFIXES.put("transaction", "/Transaction/");
+    }
+
+    private final String topic;
+    private final int partition;
+    private final List<Map<String, Object>> values;
+    private int next = 0;
+    private long nextOffset = 0;
+
+    /**
+     * Constructor.
+     * @param type the record type, also the topic: position, instrument or transaction
+     * @param partition the Kafka partition of the records
+     * @param distinctRecords the number of distinct records to generate
+     * @param hiveRatio the ratio of records flagged for Hive
+     * @param seed the random seed
+     * @throws IOException if failed to read pipeline.conf
+     */
+    public SinkRecordFixture(String type, int partition, int distinctRecords, double hiveRatio, long seed)
+            throws IOException {
+        List<String> columns = columns().get(type);
+        if (columns == null) {
+            throw new IllegalArgumentException("No CSV columns for type: " + type);
+        }
+        this.topic = type;
+        this.partition = partition;
+        this.values = new ArrayList<>(distinctRecords);
+
+        Random random = new Random(seed);
+        String keyField = KEY_FIELDS.get(type);
+        for (int i = 0; i < distinctRecords; i++) {
+            Map<String, Object> value = new LinkedHashMap<>();
+            for (String column : columns) {
+                value.put(column, value(column, random));
+            }
+            String key = String.valueOf(seed * distinctRecords + i);
+            value.put(keyField, key);
+            value.put("type", type);
+            value.put("url", URL_PREFIXES.get(type) + key);
+            value.put("hive", random.nextDouble() < hiveRatio ? "true" : "false");
+            values.add(value);
+        }
+    }
+
+    /**
+     * @return the next record, values are replayed in a cycle
+     */
+    public SinkRecord next() {
+        Map<String, Object> value = values.get(next);
+        next = (next + 1) % values.size();
+        return new SinkRecord(topic, partition, null, null, null, value, nextOffset++,
+                System.currentTimeMillis(), TimestampType.CREATE_TIME);
+    }
+
+    /**
+     * @param count the number of records
+     * @return the next records
+     */
+    public List<SinkRecord> next(int count) {
+        List<SinkRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(next());
+        }
+        return records;
+    }
+
+    /**
+     * Read the CSV columns of each type from the Logstash pipeline config.
+     * @return the columns by type
+     * @throws IOException if failed to read the file
+     */
+    public static Map<String, List<String>> columns() throws IOException {
+        File file = new File(System.getProperty(PIPELINE_CONF, PIPELINE_CONF_DEFAULT));
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        String type = null;
+        List<String> columns = null;
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            Matcher typeMatcher = TYPE_LINE.matcher(trimmed);
+            if (typeMatcher.find()) {
+                type = typeMatcher.group(1);
+            } else if (type != null && trimmed.startsWith("columns => [")) {
+                columns = new ArrayList<>();
+            } else if (columns != null && trimmed.startsWith("]")) {
+                result.put(type, columns);
+                columns = null;
+            } else if (columns != null) {
+                Matcher quoted = QUOTED.matcher(trimmed);
+                if (quoted.find()) {
+                    // Logstash renames the columns Hive can't take, eg "DailyP&Loverwrite"
+                    columns.add(quoted.group(1).replaceAll("[^A-Za-z0-9_]", ""));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String value(String column, Random random) {
+        // Exported rows are sparse
+        if (random.nextInt(5) == 0) {
+            return "";
+        }
+        String c = column.toLowerCase();
+        if (c.endsWith("date")) {
+            return String.format("20%02d-%02d-%02dT00:00:00", 10 + random.nextInt(9), 1 + random.nextInt(12),
+                    1 + random.nextInt(28));
+        }
+        if (c.startsWith("is")) {
+            return random.nextBoolean() ? "1" : "0";
+        }
+        if (c.endsWith("id")) {
+            return String.valueOf(random.nextInt(10000000));
+        }
+        if (NUMERIC.matcher(c).matches()) {
+            return String.format("%.6f", random.nextDouble() * 1000000);
+        }
+        char[] text = new char[4 + random.nextInt(13)];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (char) ('A' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+}
@@ -0,0 +1,430 @@
+package kafka.connect.marklogic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.orc.OrcFile;
+import org.apache.orc.TypeDescription;
+import org.apache.orc.Writer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rows of one Hive table for a bulk load. Rows are buffered in memory, sorted by bucket and sort key,
+ * and spilled to local run files. When the load finishes, the runs are merged into one sorted ORC file per bucket.
+ * All columns are strings, like the tables in hive/tables.sql.
+ * Not thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class BulkTable implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BulkTable.class);
+
+    // Estimated memory of a buffered value on top of its chars
+    private static final int VALUE_OVERHEAD_BYTES = 48;
+
+    private static final Comparator<Row> ROW_ORDER = new Comparator<Row>() {
+        @Override
+        public int compare(Row a, Row b) {
+            int c = Integer.compare(a.bucket, b.bucket);
+            return c != 0 ? c : a.sortKey.compareTo(b.sortKey);
+        }
+    };
+
+    private final String name;
+    private final List<String> columns;
+    // Lower case column name to index
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+    // Struct schema to the column index of each field, -1 if unknown, compiled on first use
+    private final Map<Schema, int[]> schemaColumns = new IdentityHashMap<>();
+    private final int[] bucketColumns;
+    private final int[] sortColumns;
+    private final int buckets;
+    private final File tempDir;
+    private final long maxBufferBytes;
+
+    private final List<Row> buffer = new ArrayList<>();
+    private long bufferBytes = 0;
+    private final List<File> runs = new ArrayList<>();
+    private long rows = 0;
+
+    /**
+     * Constructor.
+     * @param name the table name
+     * @param columns the column names, in table order
+     * @param bucketColumns the bucket column names
+     * @param sortColumns the sort column names, ascending
+     * @param buckets the number of buckets, at least 1
+     * @param tempDir the directory of the run files
+     * @param maxBufferBytes the estimated memory of buffered rows before they are spilled to a run file
+     */
+    public BulkTable(String name, List<String> columns, List<String> bucketColumns, List<String> sortColumns,
+            int buckets, File tempDir, long maxBufferBytes) {
+        this.name = name;
+        this.columns = columns;
+        for (int i = 0; i < columns.size(); i++) {
+            columnIndexes.put(columns.get(i).toLowerCase(), i);
+        }
+        this.bucketColumns = indexes(bucketColumns);
+        this.sortColumns = indexes(sortColumns);
+        this.buckets = Math.max(1, buckets);
+        this.tempDir = tempDir;
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    private int[] indexes(List<String> names) {
+        int[] result = new int[names.size()];
+        for (int i = 0; i < result.length; i++) {
+            Integer index = columnIndexes.get(names.get(i).toLowerCase());
+            if (index == null) {
+                throw new IllegalArgumentException("No column " + names.get(i) + " in table " + name);
+            }
+            result[i] = index;
+        }
+        return result;
+    }
+
+    /**
+     * @return the table name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int buckets() {
+        return buckets;
+    }
+
+    /**
+     * @return the number of rows added since the last close
+     */
+    public long rows() {
+        return rows;
+    }
+
+    /**
+     * Add a row, field names are matched to the columns ignoring case, unknown fields are ignored.
+     * @param value the record value
+     * @return the estimated bytes of the row values
+     * @throws IOException if failed to spill the buffer
+     */
+    public long add(Map<?, ?> value) throws IOException {
+        String[] values = new String[columns.size()];
+        long bytes = 0;
+        for (Map.Entry<?, ?> entry : value.entrySet()) {
+            Integer index = columnIndexes.get(String.valueOf(entry.getKey()).toLowerCase());
+            if (index != null && entry.getValue() != null) {
+                values[index] = entry.getValue().toString();
+                bytes += 2L * values[index].length() + VALUE_OVERHEAD_BYTES;
+            }
+        }
+        return add(values, bytes);
+    }
+
+    /**
+     * Add a row from a Struct value, field names are matched to the columns ignoring case, unknown fields are ignored.
+     * @param value the record value
+     * @return the estimated bytes of the row values
+     * @throws IOException if failed to spill the buffer
+     */
+    public long add(Struct value) throws IOException {
+        List<Field> fields = value.schema().fields();
+        int[] indexes = columns(value.schema());
+        String[] values = new String[columns.size()];
+        long bytes = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            int index = indexes[i];
+            if (index >= 0) {
+                Field field = fields.get(i);
+                values[index] = StructEncoder.text(field.schema(), value.get(field));
+                if (values[index] != null) {
+                    bytes += 2L * values[index].length() + VALUE_OVERHEAD_BYTES;
+                }
+            }
+        }
+        return add(values, bytes);
+    }
+
+    private int[] columns(Schema schema) {
+        int[] indexes = schemaColumns.get(schema);
+        if (indexes == null) {
+            List<Field> fields = schema.fields();
+            indexes = new int[fields.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                Integer index = columnIndexes.get(fields.get(i).name().toLowerCase());
+                indexes[i] = index == null ? -1 : index;
+            }
+            if (schemaColumns.size() >= 64) {
+                schemaColumns.clear();
+            }
+            schemaColumns.put(schema, indexes);
+        }
+        return indexes;
+    }
+
+    private long add(String[] values, long bytes) throws IOException {
+        buffer.add(new Row(bucket(values), sortKey(values), values));
+        bufferBytes += bytes;
+        rows++;
+        if (bufferBytes >= maxBufferBytes) {
+            spill();
+        }
+        return bytes;
+    }
+
+    /**
+     * The bucket of a row, the same way Hive hashes string bucket columns.
+     */
+    private int bucket(String[] values) {
+        int hash = 0;
+        for (int index : bucketColumns) {
+            int h = 0;
+            if (values[index] != null) {
+                // Text.hashCode()
+                h = 1;
+                for (byte b : values[index].getBytes(StandardCharsets.UTF_8)) {
+                    h = 31 * h + b;
+                }
+            }
+            hash = 31 * hash + h;
+        }
+        return (hash & Integer.MAX_VALUE) % buckets;
+    }
+
+    private String sortKey(String[] values) {
+        if (sortColumns.length == 1) {
+            String v = values[sortColumns[0]];
+            return v == null ? "" : v;
+        }
+        StringBuilder key = new StringBuilder();
+        for (int index : sortColumns) {
+            if (values[index] != null) {
+                key.append(values[index]);
+            }
+            key.append('\u0000');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Sort the buffered rows and write them to a new run file.
+     */
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(buffer, ROW_ORDER);
+        File file = File.createTempFile(name + "-run-", ".bin", tempDir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024))) {
+            for (Row row : buffer) {
+                row.write(out);
+            }
+        }
+        runs.add(file);
+        logger.info("Spilled {} sorted rows of table {} to {}", buffer.size(), name, file);
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+    /**
+     * Merge all rows added since the last close into one sorted ORC file per bucket, named like Hive bucket files.
+     * The runs are kept until close, so a failed finish can be retried.
+     * @param dir the directory of the ORC files, on any Hadoop file system
+     * @param conf the Hadoop configuration
+     * @throws IOException if failed to write
+     */
+    public void finish(Path dir, Configuration conf) throws IOException {
+        spill();
+
+        TypeDescription schema = TypeDescription.createStruct();
+        for (String column : columns) {
+            schema.addField(column.toLowerCase(), TypeDescription.createString());
+        }
+
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+                @Override
+                public int compare(RunReader a, RunReader b) {
+                    return ROW_ORDER.compare(a.current, b.current);
+                }
+            });
+            for (File run : runs) {
+                RunReader reader = new RunReader(run, columns.size());
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            VectorizedRowBatch batch = schema.createRowBatch();
+            batch.reset();
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                // Empty buckets get an empty file, Hive expects one file per bucket
+                Path file = new Path(dir, String.format("%06d_0", bucket));
+                Writer writer = OrcFile.createWriter(file, OrcFile.writerOptions(conf).setSchema(schema));
+                try {
+                    while (!queue.isEmpty() && queue.peek().current.bucket == bucket) {
+                        RunReader reader = queue.poll();
+                        addRow(batch, reader.current.values);
+                        if (batch.size == batch.getMaxSize()) {
+                            writer.addRowBatch(batch);
+                            batch.reset();
+                        }
+                        if (reader.next()) {
+                            queue.add(reader);
+                        }
+                    }
+                    if (batch.size > 0) {
+                        writer.addRowBatch(batch);
+                        batch.reset();
+                    }
+                } finally {
+                    writer.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+
+        logger.info("Wrote {} rows of table {} to {} buckets in {}", rows, name, buckets, dir);
+    }
+
+    private static void addRow(VectorizedRowBatch batch, String[] values) {
+        int row = batch.size++;
+        for (int i = 0; i < values.length; i++) {
+            BytesColumnVector vector = (BytesColumnVector) batch.cols[i];
+            if (values[i] == null) {
+                vector.noNulls = false;
+                vector.isNull[row] = true;
+            } else {
+                vector.setVal(row, values[i].getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Drop the buffered rows and delete the run files.
+     */
+    @Override
+    public void close() {
+        buffer.clear();
+        bufferBytes = 0;
+        for (File run : runs) {
+            if (!run.delete()) {
+                logger.warn("Failed to delete run file: {}", run);
+            }
+        }
+        runs.clear();
+        rows = 0;
+    }
+
+    private static class Row {
+
+        private final int bucket;
+        private final String sortKey;
+        private final String[] values;
+
+        private Row(int bucket, String sortKey, String[] values) {
+            this.bucket = bucket;
+            this.sortKey = sortKey;
+            this.values = values;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(bucket);
+            writeString(out, sortKey);
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static class RunReader implements Closeable {
+
+        private final DataInputStream in;
+        private final int columns;
+        private Row current;
+
+        private RunReader(File file, int columns) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+            this.columns = columns;
+        }
+
+        private boolean next() throws IOException {
+            int bucket;
+            try {
+                bucket = in.readInt();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            String sortKey = readString();
+            String[] values = new String[columns];
+            for (int i = 0; i < columns; i++) {
+                values[i] = readString();
+            }
+            current = new Row(bucket, sortKey, values);
+            return true;
+        }
+
+        private String readString() throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close run file", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package kafka.connect.marklogic;
+
+import java.util.List;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hive.hcatalog.common.HCatConstants;
+import org.apache.hive.hcatalog.streaming.HiveEndPoint;
+import org.apache.hive.hcatalog.streaming.StreamingConnection;
+import org.apache.hive.hcatalog.streaming.StreamingException;
+import org.apache.hive.hcatalog.streaming.StrictJsonWriter;
+import org.apache.hive.hcatalog.streaming.TransactionBatch;
+
+/**
+ * Connect to the tables of the "default" database through the Hive metastore, writing records with StrictJsonWriter.
+ * Partitions are created when first connected to.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class DefaultHiveStreamingFactory implements HiveStreamingFactory {
+
+    @Override
+    public StreamingConnection connect(String hiveThriftUrl, String table, List<String> partitionVals, String agent)
+            throws StreamingException, InterruptedException {
+        HiveConf conf = new HiveConf();
+        // This is very important to disable cached client in order to ensure thread safety
+        conf.setBoolean(HCatConstants.HCAT_HIVE_CLIENT_DISABLE_CACHE, true);
+
+        return endpoint(hiveThriftUrl, table, partitionVals).newConnection(true, conf, agent);
+    }
+
+    @Override
+    public TransactionBatch fetchTransactionBatch(StreamingConnection connection, String hiveThriftUrl, String table,
+            List<String> partitionVals, int numTransactions) throws StreamingException, InterruptedException {
+        return connection.fetchTransactionBatch(numTransactions,
+                new StrictJsonWriter(endpoint(hiveThriftUrl, table, partitionVals), connection));
+    }
+
+    private static HiveEndPoint endpoint(String hiveThriftUrl, String table, List<String> partitionVals) {
+        return new HiveEndPoint(hiveThriftUrl, "default", table, partitionVals);
+    }
+}
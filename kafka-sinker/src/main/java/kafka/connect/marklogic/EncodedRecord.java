@@ -0,0 +1,71 @@
+package kafka.connect.marklogic;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import kafka.connect.marklogic.TieringRules.Route;
+
+/**
+ * A sink record encoded once to UTF-8 JSON bytes, shared by the MarkLogic and Hive writers.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class EncodedRecord {
+
+    private final SinkRecord record;
+    private final byte[] json;
+    private final String key;
+    private final String url;
+    private final Route route;
+    private final String partition;
+
+    public EncodedRecord(SinkRecord record, byte[] json, String key, String url, Route route, String partition) {
+        this.record = record;
+        this.json = json;
+        this.key = key;
+        this.url = url;
+        this.route = route;
+        this.partition = partition;
+    }
+
+    /**
+     * @return the original sink record
+     */
+    public SinkRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * @return the record value as JSON bytes, without the type/hive/url fields
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * @return the primary key field value of the record, null if absent
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the url field of the record, null if absent
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the tiers the record is written to
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * @return the value of the Hive partition field of the record, null if absent or the table is not partitioned
+     */
+    public String getPartition() {
+        return partition;
+    }
+}
@@ -0,0 +1,148 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.FilteredForestConfiguration;
+import com.marklogic.client.datamovement.Forest;
+import com.marklogic.client.datamovement.ForestConfiguration;
+import com.marklogic.client.datamovement.WriteBatcher;
+
+/**
+ * Spread the batches of a write batcher over every host having forests of the database.
+ * The forest configuration is read again every refresh interval, so that hosts joining the cluster get batches,
+ * and hosts whose circuit breaker is open are left out until they are back.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class ForestBalancer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ForestBalancer.class);
+
+    private final DataMovementManager manager;
+    private final WriteBatcher batcher;
+    private final Predicate<String> unavailable;
+    private final ExecutorService executor;
+    // Whether a requested refresh is pending
+    private final AtomicBoolean requested = new AtomicBoolean();
+    // Null if never refreshed
+    private final ScheduledFuture<?> refresh;
+
+    // The hosts the batcher writes to
+    private volatile Set<String> hosts = Collections.emptySet();
+
+    /**
+     * Constructor, applies the forest configuration to the batcher.
+     * @param manager the data movement manager
+     * @param batcher the write batcher, not started yet
+     * @param refreshMs the interval to read the forest configuration again, 0 to never refresh
+     * @param unavailable tells whether a host should be left out
+     * @param scheduler schedules the refreshes
+     * @param executor runs the refreshes
+     */
+    public ForestBalancer(DataMovementManager manager, WriteBatcher batcher, long refreshMs, Predicate<String> unavailable,
+            ScheduledExecutorService scheduler, ExecutorService executor) {
+        this.manager = manager;
+        this.batcher = batcher;
+        this.unavailable = unavailable;
+        this.executor = executor;
+        refresh();
+        this.refresh = refreshMs <= 0 ? null : WorkerResources.schedule(scheduler, executor, this::refresh, refreshMs);
+    }
+
+    /**
+     * @return the number of hosts the batcher writes to
+     */
+    public int hosts() {
+        return Math.max(1, hosts.size());
+    }
+
+    /**
+     * @param host a host
+     * @return whether the batcher writes to this host
+     */
+    public boolean writesTo(String host) {
+        return hosts.contains(host);
+    }
+
+    /**
+     * @param host a host
+     * @return whether the batcher writes to another host than this one
+     */
+    public boolean hasOtherHost(String host) {
+        Set<String> current = hosts;
+        return current.size() > (current.contains(host) ? 1 : 0);
+    }
+
+    /**
+     * Refresh on the executor, without blocking the caller. Requests made before the refresh runs are merged.
+     */
+    public void requestRefresh() {
+        if (!requested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                requested.set(false);
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to refresh MarkLogic forest configuration", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Executor closed
+            requested.set(false);
+        }
+    }
+
+    /**
+     * Read the forest configuration, and apply it to the batcher if its hosts changed.
+     */
+    public synchronized void refresh() {
+        ForestConfiguration config = manager.readForestConfig();
+        Set<String> all = new TreeSet<>();
+        for (Forest forest : config.listForests()) {
+            all.add(forest.getHost());
+        }
+        Set<String> available = new TreeSet<>();
+        for (String host : all) {
+            if (!unavailable.test(host)) {
+                available.add(host);
+            }
+        }
+        if (available.isEmpty()) {
+            // Keep writing to all of them, the retries find out when one is back
+            available = all;
+        }
+        if (available.equals(hosts)) {
+            return;
+        }
+
+        Set<String> excluded = new TreeSet<>(all);
+        excluded.removeAll(available);
+        batcher.withForestConfig(excluded.isEmpty() ? config
+                : new FilteredForestConfiguration(config).withBlackList(excluded.toArray(new String[excluded.size()])));
+        logger.info("MarkLogic batches go to hosts {}, left out {}", available, excluded);
+        hosts = available;
+    }
+
+    @Override
+    public void close() {
+        if (refresh != null) {
+            refresh.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package kafka.connect.marklogic;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.AlreadyExistsException;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.Order;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.hadoop.hive.ql.io.orc.OrcInputFormat;
+import org.apache.hadoop.hive.ql.io.orc.OrcOutputFormat;
+import org.apache.hadoop.hive.ql.io.orc.OrcSerde;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
+
+/**
+ * Writer for historical backfills into Hive, set it as ml.writer.impl.
+ * Every record of the mapped topics is written to its Hive table, the hive flag is ignored and nothing goes to MarkLogic.
+ * <p>
+ * Instead of streaming transactions, the records of a load are sorted and bucketed on the table's CLUSTERED BY key
+ * into one ORC file per bucket, on a local or HDFS path. The load is then registered as a partition of the
+ * external table "{table}_bulk" with one metastore call, from where it can be inserted into the ACID table.
+ * A load is finished at an offset commit, once no record came for hive.bulk.idle.ms or after hive.bulk.load.records
+ * records, and its offsets are only committed once it is registered. Records of an unfinished load are written again
+ * after a restart. Each load partition records the offsets it covers, so the redelivered records of a table already
+ * registered by a load whose other tables failed are skipped instead of being registered twice.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class HiveBulkWriter implements Writer {
+    private static final Logger logger = LoggerFactory.getLogger(HiveBulkWriter.class);
+
+    private static final String DATABASE = "default";
+    private static final String BULK_TABLE_SUFFIX = "_bulk";
+    private static final String LOAD_ID = "load_id";
+    // Partition parameter of the Kafka offsets a load covers, "topic-partition=offset,..."
+    private static final String LOAD_OFFSETS = "kafka.offsets";
+
+    private final HiveConf conf;
+    private final IMetaStoreClient client;
+    private final Path bulkPath;
+    private final long idleMs;
+    private final long loadRecords;
+    private final SinkMetrics metrics;
+
+    private final Map<String, String> topicTables;
+    private final Map<String, BulkTable> tables = new LinkedHashMap<>();
+
+    // Offsets of the current load, and of the registered loads
+    private final Map<TopicPartition, OffsetAndMetadata> loadOffsets = new HashMap<>();
+    private final Map<TopicPartition, OffsetAndMetadata> committableOffsets = new HashMap<>();
+    // The offset after the last record written of each partition, and the registered end offset of the partitions
+    // delivering records again that are already registered
+    private final Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+    private final Map<TopicPartition, Long> registeredOffsets = new HashMap<>();
+
+    // Table to the load id it is being registered with, kept until registered so a retry overwrites the same files
+    private final Map<String, String> loadIds = new HashMap<>();
+    private long loadBytes = 0;
+    private long lastWrite = System.currentTimeMillis();
+
+    public HiveBulkWriter(final Map<String, String> config) {
+        final MarkLogicSinkConfig sinkConfig = new MarkLogicSinkConfig(config);
+        this.topicTables = sinkConfig.getMap(MarkLogicSinkConfig.HIVE_TOPIC_TABLES);
+        this.idleMs = sinkConfig.getLong(MarkLogicSinkConfig.HIVE_BULK_IDLE_MS);
+        this.loadRecords = sinkConfig.getLong(MarkLogicSinkConfig.HIVE_BULK_LOAD_RECORDS);
+
+        this.conf = new HiveConf();
+        conf.setVar(HiveConf.ConfVars.METASTOREURIS, sinkConfig.getString(MarkLogicSinkConfig.HIVE_THRIFT_URL));
+
+        final String tempDirName = sinkConfig.getString(MarkLogicSinkConfig.HIVE_BULK_TEMP_DIR);
+        final File tempDir = new File(tempDirName.isEmpty() ? System.getProperty("java.io.tmpdir") : tempDirName);
+        if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+            throw new ConnectException("Failed to create the bulk temp dir: " + tempDir);
+        }
+        final long bufferBytes = sinkConfig.getLong(MarkLogicSinkConfig.HIVE_BULK_BUFFER_BYTES);
+        final int buckets = sinkConfig.getInt(MarkLogicSinkConfig.HIVE_BULK_BUCKETS);
+
+        try {
+            final Path path = new Path(sinkConfig.getString(MarkLogicSinkConfig.HIVE_BULK_PATH));
+            this.bulkPath = path.getFileSystem(conf).makeQualified(path);
+            this.client = new HiveMetaStoreClient(conf);
+        } catch (IOException | TException e) {
+            throw new ConnectException(e);
+        }
+
+        // Each table is loaded with its own layout, read once
+        final Collection<String> tableNames = new LinkedHashSet<>(topicTables.values());
+        for (String table : tableNames) {
+            try {
+                final Table source = client.getTable(DATABASE, table);
+                final StorageDescriptor sd = source.getSd();
+                final List<String> columns = new ArrayList<>();
+                for (FieldSchema column : columns(source)) {
+                    columns.add(column.getName());
+                }
+                final List<String> bucketColumns = sd.getBucketCols() == null
+                        ? Collections.<String>emptyList() : sd.getBucketCols();
+                final List<String> sortColumns = new ArrayList<>();
+                if (sd.getSortCols() != null) {
+                    for (Order order : sd.getSortCols()) {
+                        sortColumns.add(order.getCol());
+                    }
+                }
+                if (sortColumns.isEmpty()) {
+                    sortColumns.addAll(bucketColumns);
+                }
+                final int tableBuckets = buckets > 0 ? buckets : Math.max(1, sd.getNumBuckets());
+                tables.put(table, new BulkTable(table, columns, bucketColumns, sortColumns, tableBuckets,
+                        tempDir, bufferBytes / tableNames.size()));
+                logger.info("Bulk load table {}, {} columns, clustered by {} into {} buckets, sorted by {}",
+                        table, columns.size(), bucketColumns, tableBuckets, sortColumns);
+            } catch (TException e) {
+                client.close();
+                throw new ConnectException("Failed to read the layout of Hive table " + table, e);
+            }
+        }
+
+        this.metrics = new SinkMetrics(config.getOrDefault("name", "marklogic-sink"));
+    }
+
+    @Override
+    public void write(final Collection<SinkRecord> records) {
+        for (SinkRecord record : records) {
+            final TopicPartition tp = new TopicPartition(record.topic(), record.kafkaPartition());
+            final String table = topicTables.get(record.topic());
+            if (table != null && (record.value() instanceof Map || record.value() instanceof Struct)
+                    && !registered(table, tp, record.kafkaOffset())) {
+                try {
+                    loadBytes += record.value() instanceof Struct ? tables.get(table).add((Struct) record.value())
+                            : tables.get(table).add((Map<?, ?>) record.value());
+                } catch (IOException e) {
+                    // The spilled runs can not be trusted any more, fail the task and replay from the committed offsets
+                    throw new ConnectException("Failed to spill bulk rows of table " + table, e);
+                }
+            }
+            loadOffsets.put(tp, new OffsetAndMetadata(record.kafkaOffset() + 1));
+        }
+        if (!records.isEmpty()) {
+            lastWrite = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Whether a record is already in a registered load whose offsets were not committed. The registered offsets
+     * of a partition are read from the metastore when its records are first delivered, or delivered again.
+     */
+    private boolean registered(final String table, final TopicPartition tp, final long offset) {
+        final Long next = nextOffsets.put(tp, offset + 1);
+        if (next == null || offset < next) {
+            try {
+                final long end = registeredOffset(table, tp);
+                if (end > offset) {
+                    logger.info("Skipping records of {} before offset {}, already registered in table {}",
+                            tp, end, table + BULK_TABLE_SUFFIX);
+                    registeredOffsets.put(tp, end);
+                } else {
+                    registeredOffsets.remove(tp);
+                }
+            } catch (TException e) {
+                throw new ConnectException("Failed to read the bulk loads of table " + table, e);
+            }
+        }
+        final Long end = registeredOffsets.get(tp);
+        if (end == null) {
+            return false;
+        }
+        if (offset < end) {
+            return true;
+        }
+        registeredOffsets.remove(tp);
+        return false;
+    }
+
+    /**
+     * The highest offset registered in the loads of a table for a partition, -1 if none.
+     */
+    private long registeredOffset(final String table, final TopicPartition tp) throws TException {
+        final String name = table + BULK_TABLE_SUFFIX;
+        if (!client.tableExists(DATABASE, name)) {
+            return -1;
+        }
+        final String key = tp.toString() + "=";
+        long end = -1;
+        for (Partition partition : client.listPartitions(DATABASE, name, (short) -1)) {
+            final String offsets = partition.getParameters() == null ? null : partition.getParameters().get(LOAD_OFFSETS);
+            if (offsets == null) {
+                continue;
+            }
+            for (String offset : offsets.split(",")) {
+                if (offset.startsWith(key)) {
+                    end = Math.max(end, Long.parseLong(offset.substring(key.length())));
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Finish the current load. The task commits through {@link #preCommit(Map)}, which finishes the loads itself,
+     * so this is only for callers of the {@link Writer} interface.
+     */
+    @Override
+    public void flush() {
+        if (!finishLoad()) {
+            throw new ConnectException("Failed to finish bulk load of tables " + loadIds.keySet());
+        }
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> preCommit(final Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        if (!loadOffsets.isEmpty()
+                && (System.currentTimeMillis() - lastWrite >= idleMs || rows() >= loadRecords)) {
+            // A failed load is retried at the next commit, its offsets are not committed meanwhile
+            finishLoad();
+        }
+
+        final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : committableOffsets.entrySet()) {
+            if (currentOffsets.containsKey(entry.getKey())) {
+                offsets.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return offsets;
+    }
+
+    private long rows() {
+        long rows = 0;
+        for (BulkTable table : tables.values()) {
+            rows += table.rows();
+        }
+        return rows;
+    }
+
+    /**
+     * Write the ORC files of each table having rows in the current load, and register them.
+     * Tables are closed once registered, so a retry only redoes the failed ones.
+     * @return true if the load is registered
+     */
+    private boolean finishLoad() {
+        if (loadOffsets.isEmpty()) {
+            return true;
+        }
+        final long start = System.currentTimeMillis();
+        final long rows = rows();
+        try {
+            for (BulkTable table : tables.values()) {
+                if (table.rows() > 0) {
+                    final String loadId = loadIds.computeIfAbsent(table.getName(), t -> newLoadId());
+                    final Table bulkTable = bulkTable(table.getName());
+                    final Path dir = new Path(bulkTable.getSd().getLocation(), LOAD_ID + "=" + loadId);
+                    final FileSystem fs = dir.getFileSystem(conf);
+                    // Drop the files of a previous failed attempt
+                    fs.delete(dir, true);
+                    table.finish(dir, conf);
+                    addPartition(bulkTable, loadId, dir, loadOffsets(table.getName()));
+                    table.close();
+                    loadIds.remove(table.getName());
+                    logger.info("Registered bulk load {} of table {}", loadId, table.getName());
+                }
+            }
+        } catch (IOException | TException e) {
+            logger.error("Failed to finish bulk load of tables {}, it will be retried", loadIds.keySet(), e);
+            metrics.retry(SinkMetrics.HIVE);
+            return false;
+        }
+
+        final long latency = System.currentTimeMillis() - start;
+        metrics.commitLatency(SinkMetrics.HIVE, latency);
+        metrics.written(SinkMetrics.HIVE, (int) Math.min(Integer.MAX_VALUE, rows), loadBytes, null);
+        logger.info("Finished bulk load, {} rows in {} ms", rows, latency);
+
+        committableOffsets.putAll(loadOffsets);
+        loadOffsets.clear();
+        loadBytes = 0;
+        return true;
+    }
+
+    /**
+     * The offsets of the current load covered by a table, in the form of {@link #LOAD_OFFSETS}.
+     */
+    private String loadOffsets(final String table) {
+        final StringBuilder offsets = new StringBuilder();
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : loadOffsets.entrySet()) {
+            if (table.equals(topicTables.get(entry.getKey().topic()))) {
+                if (offsets.length() > 0) {
+                    offsets.append(',');
+                }
+                offsets.append(entry.getKey()).append('=').append(entry.getValue().offset());
+            }
+        }
+        return offsets.toString();
+    }
+
+    private static String newLoadId() {
+        return new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + "_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * The columns of a table, followed by its partition columns, the order expected by a dynamic partition insert.
+     */
+    private static List<FieldSchema> columns(final Table table) {
+        final List<FieldSchema> columns = new ArrayList<>(table.getSd().getCols());
+        if (table.getPartitionKeys() != null) {
+            columns.addAll(table.getPartitionKeys());
+        }
+        return columns;
+    }
+
+    /**
+     * Get the external table the loads of a table are registered in, create it if absent.
+     * It has the same columns (partition columns included) and bucketing as the table, and a partition per load.
+     */
+    private Table bulkTable(final String table) throws TException {
+        final String name = table + BULK_TABLE_SUFFIX;
+        if (client.tableExists(DATABASE, name)) {
+            return client.getTable(DATABASE, name);
+        }
+
+        final Table source = client.getTable(DATABASE, table);
+        final StorageDescriptor sd = new StorageDescriptor(source.getSd());
+        sd.setCols(columns(source));
+        sd.setLocation(new Path(bulkPath, name).toString());
+        sd.setInputFormat(OrcInputFormat.class.getName());
+        sd.setOutputFormat(OrcOutputFormat.class.getName());
+        sd.getSerdeInfo().setSerializationLib(OrcSerde.class.getName());
+        sd.setNumBuckets(tables.get(table).buckets());
+        if (sd.getSortCols() == null || sd.getSortCols().isEmpty()) {
+            final List<Order> sortCols = new ArrayList<>();
+            for (String column : sd.getBucketCols()) {
+                sortCols.add(new Order(column, 1));
+            }
+            sd.setSortCols(sortCols);
+        }
+
+        final Table bulk = new Table();
+        bulk.setDbName(DATABASE);
+        bulk.setTableName(name);
+        bulk.setOwner(source.getOwner());
+        bulk.setTableType("EXTERNAL_TABLE");
+        bulk.setSd(sd);
+        bulk.setPartitionKeys(Collections.singletonList(new FieldSchema(LOAD_ID, "string", "bulk load id")));
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("EXTERNAL", "TRUE");
+        bulk.setParameters(parameters);
+        try {
+            client.createTable(bulk);
+            logger.info("Created bulk table {} at {}", name, sd.getLocation());
+        } catch (AlreadyExistsException e) {
+            // Created by another task meanwhile
+        }
+        return client.getTable(DATABASE, name);
+    }
+
+    private void addPartition(final Table bulkTable, final String loadId, final Path dir, final String offsets)
+            throws TException {
+        final StorageDescriptor sd = new StorageDescriptor(bulkTable.getSd());
+        sd.setLocation(dir.toString());
+        final Partition partition = new Partition();
+        partition.setDbName(DATABASE);
+        partition.setTableName(bulkTable.getTableName());
+        partition.setValues(Collections.singletonList(loadId));
+        partition.setSd(sd);
+        partition.setParameters(new HashMap<String, String>());
+        partition.getParameters().put(LOAD_OFFSETS, offsets);
+        try {
+            client.add_partition(partition);
+        } catch (AlreadyExistsException e) {
+            // Registered by a previous attempt whose response was lost
+        }
+    }
+
+    /**
+     * Drop the unfinished load, its records are redelivered as their offsets were not committed.
+     */
+    @Override
+    public void close() {
+        for (BulkTable table : tables.values()) {
+            table.close();
+        }
+        client.close();
+        metrics.close();
+    }
+}
@@ -0,0 +1,150 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hive.hcatalog.streaming.StreamingConnection;
+import org.apache.hive.hcatalog.streaming.StreamingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hive streaming connections shared by the table writers of a worker. A connection has its own metastore client
+ * and is not thread safe, so a writer borrows it for its lifetime and gives it back when closed: the next writer
+ * of the same table partition, of any task, reuses it instead of connecting again.
+ * Connections idle for longer than the idle time are closed.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class HiveConnectionPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(HiveConnectionPool.class);
+
+    private final HiveStreamingFactory factory;
+    private final String hiveThriftUrl;
+    private final long idleMs;
+
+    // Table and partition to the idle connections, most recently given back last
+    private final Map<String, Deque<IdleConnection>> idle = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param factory the streaming factory
+     * @param hiveThriftUrl the Hive metastore thrift url
+     * @param idleMs the time an idle connection is kept
+     */
+    public HiveConnectionPool(HiveStreamingFactory factory, String hiveThriftUrl, long idleMs) {
+        this.factory = factory;
+        this.hiveThriftUrl = hiveThriftUrl;
+        this.idleMs = idleMs;
+    }
+
+    /**
+     * Borrow an idle connection to a table partition, or open a new one.
+     * @param table the table name
+     * @param partitionVals the values of the partition, null for an unpartitioned table
+     * @param agent the agent name of a new connection
+     * @return the connection
+     * @throws StreamingException if failed to connect
+     * @throws InterruptedException if interrupted
+     */
+    public StreamingConnection borrow(String table, List<String> partitionVals, String agent)
+            throws StreamingException, InterruptedException {
+        closeIdle();
+        synchronized (this) {
+            Deque<IdleConnection> connections = idle.get(key(table, partitionVals));
+            if (connections != null && !connections.isEmpty()) {
+                return connections.pollLast().connection;
+            }
+        }
+        return factory.connect(hiveThriftUrl, table, partitionVals, agent);
+    }
+
+    /**
+     * Give back a healthy connection, it is closed if the pool is closed.
+     * @param table the table name
+     * @param partitionVals the values of the partition, null for an unpartitioned table
+     * @param connection the connection, without open transaction batch
+     */
+    public void giveBack(String table, List<String> partitionVals, StreamingConnection connection) {
+        synchronized (this) {
+            if (!closed) {
+                idle.computeIfAbsent(key(table, partitionVals), k -> new ArrayDeque<>())
+                        .addLast(new IdleConnection(connection));
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    private static String key(String table, List<String> partitionVals) {
+        return partitionVals == null ? table : table + "/" + String.join("/", partitionVals);
+    }
+
+    /**
+     * Close the connections idle for longer than the idle time.
+     */
+    public void closeIdle() {
+        List<StreamingConnection> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<Deque<IdleConnection>> it = idle.values().iterator();
+            while (it.hasNext()) {
+                Deque<IdleConnection> connections = it.next();
+                // Oldest first
+                while (!connections.isEmpty() && now - connections.peekFirst().since >= idleMs) {
+                    expired.add(connections.pollFirst().connection);
+                }
+                if (connections.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        close(expired);
+    }
+
+    private static void close(List<StreamingConnection> connections) {
+        for (StreamingConnection connection : connections) {
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                logger.error("Failed to close Hive streaming connection", e);
+            }
+        }
+    }
+
+    /**
+     * Close the idle connections, and the borrowed ones once given back.
+     */
+    @Override
+    public void close() {
+        List<StreamingConnection> connections = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Deque<IdleConnection> deque : idle.values()) {
+                for (IdleConnection connection : deque) {
+                    connections.add(connection.connection);
+                }
+            }
+            idle.clear();
+        }
+        close(connections);
+    }
+
+    private static class IdleConnection {
+
+        private final StreamingConnection connection;
+        private final long since = System.currentTimeMillis();
+
+        private IdleConnection(StreamingConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
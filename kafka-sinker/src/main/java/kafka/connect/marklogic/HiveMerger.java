@@ -0,0 +1,353 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.metastore.HiveMetaStoreClient;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Upsert the rows streamed to the staging table of a Hive ACID table into the table, on its primary key.
+ * The staging table {table}_staging is created like the table if absent, before any record is streamed to it.
+ * Every merge interval, or once enough records were committed to the staging table, the committed staging
+ * transactions are listed, a MERGE INTO the table takes the latest row of each key among them, then the rows of
+ * exactly those transactions are deleted from the staging table. A streaming transaction commits all its rows at
+ * once, so a transaction committing meanwhile, even with a lower id, is neither merged nor deleted, it waits for
+ * the next merge. A merge interrupted before the delete is merged again next time, which is harmless for an upsert.
+ * The primary key is the "PRIMARY KEY" table property, else the bucket columns.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class HiveMerger implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(HiveMerger.class);
+
+    private static final String DATABASE = "default";
+    private static final String STAGING_SUFFIX = "_staging";
+    private static final String PRIMARY_KEY = "PRIMARY KEY";
+    // Replaced by the condition on the staged transactions to merge
+    private static final String STAGED_TXNS = "${stagedTxns}";
+
+    private final String table;
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    private final String hiveThriftUrl;
+    private final long mergeRecords;
+    private final ExecutorService executor;
+    private final ScheduledFuture<?> schedule;
+
+    // Records committed to the staging table since the last merge started
+    private final AtomicLong staged = new AtomicLong();
+    // Whether a size triggered merge is submitted
+    private final AtomicBoolean triggered = new AtomicBoolean();
+    // Held while merging, a merge triggered meanwhile is skipped
+    private final ReentrantLock merging = new ReentrantLock();
+
+    // Read from the metastore when created
+    private String mergeSql;
+    private String[] columns;
+    // Null when disconnected
+    private Connection connection;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor, creates the staging table if absent and merges the rows left in it right away.
+     * @param table the table name
+     * @param jdbcUrl the HiveServer2 JDBC url
+     * @param user the JDBC user
+     * @param password the JDBC password
+     * @param hiveThriftUrl the Hive metastore thrift url
+     * @param intervalMs the interval between merges
+     * @param mergeRecords the committed staging records that trigger a merge before the interval
+     * @param scheduler schedules the merges
+     * @param executor runs the merges
+     * @throws ConnectException if the table can not be read or the staging table created
+     */
+    public HiveMerger(String table, String jdbcUrl, String user, String password, String hiveThriftUrl,
+            long intervalMs, long mergeRecords, ScheduledExecutorService scheduler, ExecutorService executor) {
+        this.table = table;
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.hiveThriftUrl = hiveThriftUrl;
+        this.mergeRecords = Math.max(1, mergeRecords);
+        this.executor = executor;
+        try {
+            // Before the writers connect to the staging table
+            prepare();
+        } catch (SQLException | TException e) {
+            disconnect();
+            throw new ConnectException("Failed to create the staging table of Hive table " + table, e);
+        }
+        submit();
+        this.schedule = WorkerResources.schedule(scheduler, executor, this::merge, Math.max(1000, intervalMs));
+    }
+
+    /**
+     * @param table the table name
+     * @return the name of the staging table the records of the table are streamed to
+     */
+    public static String staging(String table) {
+        return table + STAGING_SUFFIX;
+    }
+
+    /**
+     * Called when records were committed to the staging table, triggers a merge once there are enough of them.
+     * @param records the number of records
+     */
+    public void staged(int records) {
+        if (staged.addAndGet(records) >= mergeRecords) {
+            submit();
+        }
+    }
+
+    private void submit() {
+        if (!triggered.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::merge);
+        } catch (RejectedExecutionException e) {
+            // Executor closed
+            triggered.set(false);
+        }
+    }
+
+    /**
+     * Merge the staged rows into the table, unless already merging. A failed merge is logged and tried again next time.
+     */
+    public void merge() {
+        triggered.set(false);
+        if (!merging.tryLock()) {
+            return;
+        }
+        try {
+            if (!closed) {
+                mergeStaged();
+            }
+        } finally {
+            if (closed) {
+                disconnect();
+            }
+            merging.unlock();
+        }
+    }
+
+    private void mergeStaged() {
+        long records = staged.getAndSet(0);
+        long start = System.currentTimeMillis();
+        try {
+            try (Statement statement = connect().createStatement()) {
+                // The transactions committed after this read are left for the next merge, the merge and the delete
+                // read the same rows
+                List<Long> txns = new ArrayList<>();
+                try (ResultSet rs = statement.executeQuery("SELECT DISTINCT ROW__ID.transactionid FROM "
+                        + quote(staging(table)) + " ORDER BY ROW__ID.transactionid")) {
+                    while (rs.next()) {
+                        txns.add(rs.getLong(1));
+                    }
+                }
+                if (txns.isEmpty()) {
+                    return;
+                }
+                String condition = txnCondition(txns);
+                statement.execute(mergeSql.replace(STAGED_TXNS, condition));
+                statement.execute("DELETE FROM " + quote(staging(table)) + " WHERE " + condition);
+            }
+            logger.info("Merged about {} staged records into Hive table {} in {} ms", records, table,
+                    System.currentTimeMillis() - start);
+        } catch (SQLException | TException e) {
+            // The staged rows stay, merged next time
+            staged.addAndGet(records);
+            disconnect();
+            logger.warn("Failed to merge the staged records into Hive table " + table, e);
+        }
+    }
+
+    /**
+     * Read the layout of the table, create the staging table if absent, and build the merge statement.
+     */
+    private void prepare() throws SQLException, TException {
+        HiveConf conf = new HiveConf();
+        conf.setVar(HiveConf.ConfVars.METASTOREURIS, hiveThriftUrl);
+        HiveMetaStoreClient client = new HiveMetaStoreClient(conf);
+        Table target;
+        try {
+            target = client.getTable(DATABASE, table);
+        } finally {
+            client.close();
+        }
+
+        List<String> data = new ArrayList<>();
+        for (FieldSchema column : target.getSd().getCols()) {
+            data.add(column.getName().toLowerCase());
+        }
+        List<String> partitions = new ArrayList<>();
+        if (target.getPartitionKeys() != null) {
+            for (FieldSchema column : target.getPartitionKeys()) {
+                partitions.add(column.getName().toLowerCase());
+            }
+        }
+        List<String> keys = new ArrayList<>();
+        String primaryKey = target.getParameters() == null ? null : target.getParameters().get(PRIMARY_KEY);
+        if (primaryKey != null && !primaryKey.trim().isEmpty()) {
+            for (String key : primaryKey.split(",")) {
+                keys.add(key.trim().toLowerCase());
+            }
+        } else if (target.getSd().getBucketCols() != null) {
+            for (String key : target.getSd().getBucketCols()) {
+                keys.add(key.toLowerCase());
+            }
+        }
+        if (keys.isEmpty()) {
+            throw new SQLException("Hive table " + table + " has no primary key nor bucket columns to merge on");
+        }
+        // Bucket and partition columns can not be updated
+        List<String> fixed = new ArrayList<>(keys);
+        fixed.addAll(partitions);
+        if (target.getSd().getBucketCols() != null) {
+            for (String bucket : target.getSd().getBucketCols()) {
+                fixed.add(bucket.toLowerCase());
+            }
+        }
+
+        List<String> all = new ArrayList<>(data);
+        all.addAll(partitions);
+        this.columns = all.toArray(new String[all.size()]);
+
+        try (Statement statement = connect().createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + quote(staging(table)) + " LIKE " + quote(table)
+                    + " TBLPROPERTIES (\"transactional\"=\"true\")");
+        }
+        this.mergeSql = mergeSql(keys, partitions, fixed);
+        logger.info("Upsert Hive table {} on {} through {}", table, keys, staging(table));
+    }
+
+    /**
+     * @param txns the staged transactions, sorted
+     * @return the condition on the rows of the transactions, consecutive ids as ranges
+     */
+    private static String txnCondition(List<Long> txns) {
+        List<String> ranges = new ArrayList<>();
+        int from = 0;
+        for (int i = 1; i <= txns.size(); i++) {
+            if (i < txns.size() && txns.get(i) == txns.get(i - 1) + 1) {
+                continue;
+            }
+            long first = txns.get(from);
+            long last = txns.get(i - 1);
+            ranges.add(first == last ? "ROW__ID.transactionid = " + first
+                    : "ROW__ID.transactionid BETWEEN " + first + " AND " + last);
+            from = i;
+        }
+        return "(" + String.join(" OR ", ranges) + ")";
+    }
+
+    /**
+     * The MERGE statement, the staged rows of a key are ranked newest first by transaction and row,
+     * {@link #STAGED_TXNS} is the condition on the staged transactions to merge.
+     */
+    private String mergeSql(List<String> keys, List<String> partitions, List<String> fixed) {
+        String select = list(Arrays.asList(columns), "");
+        List<String> rankBy = new ArrayList<>(keys);
+        rankBy.addAll(partitions);
+
+        List<String> on = new ArrayList<>();
+        for (String column : rankBy) {
+            on.add("t." + quote(column) + " = s." + quote(column));
+        }
+        List<String> set = new ArrayList<>();
+        for (String column : columns) {
+            if (!fixed.contains(column)) {
+                set.add(quote(column) + " = s." + quote(column));
+            }
+        }
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("MERGE INTO ").append(quote(table)).append(" AS t USING (SELECT ").append(select)
+                .append(" FROM (SELECT ").append(select).append(", ROW_NUMBER() OVER (PARTITION BY ")
+                .append(list(rankBy, "")).append(" ORDER BY merge_txn DESC, merge_row DESC) AS merge_rank")
+                .append(" FROM (SELECT ").append(select)
+                .append(", ROW__ID.transactionid AS merge_txn, ROW__ID.rowid AS merge_row FROM ")
+                .append(quote(staging(table))).append(" WHERE ").append(STAGED_TXNS)
+                .append(") staged) ranked")
+                .append(" WHERE merge_rank = 1) AS s ON ").append(String.join(" AND ", on));
+        if (!set.isEmpty()) {
+            sql.append(" WHEN MATCHED THEN UPDATE SET ").append(String.join(", ", set));
+        }
+        sql.append(" WHEN NOT MATCHED THEN INSERT VALUES (").append(list(Arrays.asList(columns), "s.")).append(")");
+        return sql.toString();
+    }
+
+    private static String list(List<String> columns, String prefix) {
+        List<String> quoted = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            quoted.add(prefix + quote(column));
+        }
+        return String.join(", ", quoted);
+    }
+
+    private static String quote(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    private Connection connect() throws SQLException {
+        if (connection == null) {
+            connection = DriverManager.getConnection(jdbcUrl, user, password);
+            try (Statement statement = connection.createStatement()) {
+                // New rows of a partitioned table go to the partition of their values
+                statement.execute("SET hive.exec.dynamic.partition.mode=nonstrict");
+            }
+        }
+        return connection;
+    }
+
+    private void disconnect() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn("Failed to close Hive JDBC connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * Stop merging, the staged rows are merged by the next merger of the table.
+     * A running merge completes and disconnects.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        schedule.cancel(false);
+        if (merging.tryLock()) {
+            try {
+                disconnect();
+            } finally {
+                merging.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package kafka.connect.marklogic;
+
+import java.util.List;
+
+import org.apache.hive.hcatalog.streaming.StreamingConnection;
+import org.apache.hive.hcatalog.streaming.StreamingException;
+import org.apache.hive.hcatalog.streaming.TransactionBatch;
+
+/**
+ * Create Hive streaming connections and transaction batches for the Hive table writers.
+ * Implementations need a public no-arg constructor, they are configured by class name.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public interface HiveStreamingFactory {
+
+    /**
+     * Open a streaming connection to a table.
+     * @param hiveThriftUrl the Hive metastore thrift url
+     * @param table the table name
+     * @param partitionVals the values of the partition to write to, null for an unpartitioned table
+     * @param agent the agent name of the connection
+     * @return the connection
+     * @throws StreamingException if failed to connect
+     * @throws InterruptedException if interrupted
+     */
+    StreamingConnection connect(String hiveThriftUrl, String table, List<String> partitionVals, String agent)
+            throws StreamingException, InterruptedException;
+
+    /**
+     * Fetch a new transaction batch writing JSON records.
+     * @param connection the connection returned by connect
+     * @param hiveThriftUrl the Hive metastore thrift url
+     * @param table the table name
+     * @param partitionVals the values of the partition to write to, null for an unpartitioned table
+     * @param numTransactions the number of transactions in the batch
+     * @return the transaction batch
+     * @throws StreamingException if failed to fetch
+     * @throws InterruptedException if interrupted
+     */
+    TransactionBatch fetchTransactionBatch(StreamingConnection connection, String hiveThriftUrl, String table,
+            List<String> partitionVals, int numTransactions) throws StreamingException, InterruptedException;
+}
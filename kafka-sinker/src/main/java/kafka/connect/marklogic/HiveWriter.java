@@ -1,31 +1,33 @@
 package kafka.connect.marklogic;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.hadoop.hive.conf.HiveConf;
-import org.apache.hive.hcatalog.common.HCatConstants;
-import org.apache.hive.hcatalog.streaming.HiveEndPoint;
 import org.apache.hive.hcatalog.streaming.SerializationError;
 import org.apache.hive.hcatalog.streaming.StreamingConnection;
 import org.apache.hive.hcatalog.streaming.StreamingException;
-import org.apache.hive.hcatalog.streaming.StrictJsonWriter;
 import org.apache.hive.hcatalog.streaming.TransactionBatch;
-import org.apache.kafka.connect.errors.RetriableException;
-import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.errors.ConnectException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
 
 /**
  * Write to Hive in batch using Hive Streaming API.
@@ -35,169 +37,670 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class HiveWriter {
     private static final Logger logger = LoggerFactory.getLogger(HiveWriter.class);
 
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String UNPARTITIONED = "";
+    // Partition of the records without partition field value, as named by Hive
+    private static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
 
-    private final int batchSize;
-    private final int maxRetires;
+    private final int lingerMs;
+    private final int maxBatchRecords;
+    private final int minBatchRecords;
+    private final int txnsPerBatchMin;
+    private final int txnsPerBatchMax;
+    private final long maxBatchBytes;
     private final int retryBackoff;
     private final String hiveThriftUrl;
+    private final HiveStreamingFactory streamingFactory;
+    private final int writersPerTable;
+    private final Map<String, String> topicTables;
+    private final Map<String, String> partitionFields;
+    private final long partitionIdleMs;
+    private final int partitionMaxOpen;
+    private final OffsetTracker offsetTracker;
+    private final SinkMetrics metrics;
+    private final String spillDir;
+    private final int spillSegmentBytes;
+    private final long spillReplayInFlight;
+    private final boolean upsert;
+    private final String jdbcUrl;
+    private final String jdbcUser;
+    private final String jdbcPassword;
+    private final long mergeIntervalMs;
+    private final long mergeRecords;
 
-    private final ExecutorService flushExecutors = Executors.newFixedThreadPool(3);
+    // Topic to table writer
+    private final Map<String, Table> tables = new LinkedHashMap<>();
 
-    private Batch positionBatch;
-    private Batch instrumentBatch;
-    private Batch transactionBatch;
+    // Records go through the spill buffer while Hive is stalled
+    private SpillBuffer spill;
 
-    public HiveWriter(String hiveThriftUrl, int batchSize, int maxRetires, int retryBackoff) {
-        this.batchSize = batchSize;
-        this.maxRetires = maxRetires;
-        this.retryBackoff = retryBackoff;
-        this.hiveThriftUrl = hiveThriftUrl;
+    // Shared by the tasks of the worker
+    private WorkerResources.Lease<ScheduledExecutorService> scheduler;
+    private WorkerResources.Lease<ExecutorService> executor;
+    private WorkerResources.Lease<HiveConnectionPool> connections;
+    // Staging table to the merger of its table, empty unless upserting
+    private final Map<String, WorkerResources.Lease<HiveMerger>> mergers = new LinkedHashMap<>();
+
+    // Closes the writers of idle partitions, and the idle connections
+    private ScheduledFuture<?> evictor;
+
+    public HiveWriter(final Map<String, String> config, final OffsetTracker offsetTracker, final SinkMetrics metrics) {
+        this.offsetTracker = offsetTracker;
+        this.metrics = metrics;
+        final MarkLogicSinkConfig sinkConfig = new MarkLogicSinkConfig(config);
+        this.lingerMs = sinkConfig.getInt(MarkLogicSinkConfig.HIVE_LINGER_MS);
+        this.maxBatchRecords = Math.max(1, sinkConfig.getInt(MarkLogicSinkConfig.HIVE_MAX_BATCH_RECORDS));
+        this.minBatchRecords = Math.max(1, Math.min(maxBatchRecords, sinkConfig.getInt(MarkLogicSinkConfig.HIVE_MIN_BATCH_RECORDS)));
+        this.txnsPerBatchMin = Math.max(1, sinkConfig.getInt(MarkLogicSinkConfig.HIVE_TXNS_PER_BATCH_MIN));
+        this.txnsPerBatchMax = Math.max(txnsPerBatchMin, sinkConfig.getInt(MarkLogicSinkConfig.HIVE_TXNS_PER_BATCH_MAX));
+        this.maxBatchBytes = sinkConfig.getLong(MarkLogicSinkConfig.HIVE_MAX_BATCH_BYTES);
+        this.retryBackoff = sinkConfig.getInt(MarkLogicSinkConfig.RETRY_BACKOFF_MS);
+        this.hiveThriftUrl = sinkConfig.getString(MarkLogicSinkConfig.HIVE_THRIFT_URL);
+        final String factoryClazz = sinkConfig.getString(MarkLogicSinkConfig.HIVE_STREAMING_FACTORY);
+        try {
+            this.streamingFactory = (HiveStreamingFactory) Class.forName(factoryClazz).getConstructor().newInstance();
+        } catch (Exception e) {
+            logger.error("hive.streaming.factory value is invalid {}", factoryClazz);
+            throw new ConnectException(e);
+        }
+        this.writersPerTable = Math.max(1, sinkConfig.getInt(MarkLogicSinkConfig.HIVE_WRITERS_PER_TABLE));
+        this.topicTables = sinkConfig.getMap(MarkLogicSinkConfig.HIVE_TOPIC_TABLES);
+        this.partitionFields = sinkConfig.getMap(MarkLogicSinkConfig.HIVE_PARTITION_FIELDS);
+        this.partitionIdleMs = sinkConfig.getLong(MarkLogicSinkConfig.HIVE_PARTITION_IDLE_MS);
+        this.partitionMaxOpen = Math.max(1, sinkConfig.getInt(MarkLogicSinkConfig.HIVE_PARTITION_MAX_OPEN));
+        this.spillDir = sinkConfig.getString(MarkLogicSinkConfig.SPILL_DIR);
+        this.spillSegmentBytes = sinkConfig.getInt(MarkLogicSinkConfig.SPILL_SEGMENT_BYTES);
+        this.spillReplayInFlight = sinkConfig.getLong(MarkLogicSinkConfig.BUFFER_LOW_WATERMARK_RECORDS);
+        this.upsert = MarkLogicSinkConfig.HIVE_WRITE_MODE_UPSERT.equalsIgnoreCase(
+                sinkConfig.getString(MarkLogicSinkConfig.HIVE_WRITE_MODE));
+        this.jdbcUrl = sinkConfig.getString(MarkLogicSinkConfig.HIVE_JDBC_URL);
+        this.jdbcUser = sinkConfig.getString(MarkLogicSinkConfig.HIVE_JDBC_USER);
+        this.jdbcPassword = sinkConfig.getString(MarkLogicSinkConfig.HIVE_JDBC_PASSWORD);
+        this.mergeIntervalMs = sinkConfig.getLong(MarkLogicSinkConfig.HIVE_MERGE_INTERVAL_MS);
+        this.mergeRecords = sinkConfig.getLong(MarkLogicSinkConfig.HIVE_MERGE_RECORDS);
     }
 
     public void start() {
+        scheduler = WorkerResources.scheduler();
+        executor = WorkerResources.executor();
+        connections = WorkerResources.acquire("hive-connections:" + streamingFactory.getClass().getName() + "@" + hiveThriftUrl,
+                () -> new HiveConnectionPool(streamingFactory, hiveThriftUrl, partitionIdleMs), HiveConnectionPool::close);
         try {
-            positionBatch = new Batch("position");
-            instrumentBatch = new Batch("instrument");
-            transactionBatch = new Batch("transaction");
-        } catch (StreamingException | InterruptedException e) {
+            spill = new SpillBuffer("Hive", spillDir, spillSegmentBytes, new SpillBuffer.Tier() {
+
+                @Override
+                public void write(EncodedRecord record) {
+                    addToTable(record);
+                }
+
+                @Override
+                public long inFlight() {
+                    return bufferedRecords();
+                }
+            }, offsetTracker, spillReplayInFlight, retryBackoff, scheduler.get(), executor.get());
+            metrics.gauge("hive-spilled-records", "Records in the Hive spill log",
+                    Collections.<String, String>emptyMap(), (c, now) -> spill.spilled());
+
+            for (Map.Entry<String, String> entry : topicTables.entrySet()) {
+                final String target = entry.getValue();
+                String table = target;
+                if (upsert) {
+                    // Records stream to the staging table, merged into the table by the worker's merger
+                    table = HiveMerger.staging(target);
+                    if (!mergers.containsKey(table)) {
+                        mergers.put(table, WorkerResources.acquire("hive-merger:" + jdbcUrl + "/" + target,
+                                () -> new HiveMerger(target, jdbcUrl, jdbcUser, jdbcPassword, hiveThriftUrl,
+                                        mergeIntervalMs, mergeRecords, scheduler.get(), executor.get()),
+                                HiveMerger::close));
+                    }
+                }
+                tables.put(entry.getKey(), new Table(entry.getKey(), table, partitionFields.get(target)));
+            }
+        } catch (IOException e) {
             logger.error("Failed to start Hive batch writer", e);
+            close();
             throw new RuntimeException("Failed to start Hive batch writer", e);
         }
+
+        evictor = WorkerResources.schedule(scheduler.get(), executor.get(), () -> {
+            for (Table table : tables.values()) {
+                table.evict(partitionIdleMs, Integer.MAX_VALUE);
+            }
+            connections.get().closeIdle();
+        }, Math.max(1000, partitionIdleMs / 4));
+    }
+
+    public void add(EncodedRecord record) {
+        spill.add(record);
+    }
+
+    private void addToTable(EncodedRecord record) {
+        Table table = tables.get(record.getRecord().topic());
+        if (table == null) {
+            logger.warn("No Hive table mapped for topic: {}, record ignored", record.getRecord().topic());
+            offsetTracker.drop(record);
+            return;
+        }
+        table.add(record);
     }
 
-    public void add(SinkRecord r) {
-        if (r.topic().equalsIgnoreCase("position")) {
-            positionBatch.add(r);
-        } else if (r.topic().equalsIgnoreCase("instrument")) {
-            instrumentBatch.add(r);
-        } else if (r.topic().equalsIgnoreCase("transaction")) {
-            transactionBatch.add(r);
+    /**
+     * @return the number of records queued in the table writers
+     */
+    public long bufferedRecords() {
+        long count = 0;
+        for (Table table : tables.values()) {
+            for (Batch batch : table.batches()) {
+                count += batch.queue.size();
+            }
         }
+        return count;
     }
 
     public void flushAndWait() {
-        Future<?> positionFuture = flushExecutors.submit(new Runnable() {
-            
-            @Override
-            public void run() {
-                positionBatch.flushAndWait();
-            }
-        });
-        Future<?> instrumentFuture = flushExecutors.submit(new Runnable() {
-            
-            @Override
-            public void run() {
-                instrumentBatch.flushAndWait();
-            }
-        });
-        Future<?> transactionFuture = flushExecutors.submit(new Runnable() {
-            
-            @Override
-            public void run() {
-                transactionBatch.flushAndWait();
-            }
-        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (Table table : tables.values()) {
+            for (final Batch batch : table.batches()) {
+                futures.add(executor.get().submit(new Runnable() {
 
-        try {
-            positionFuture.get();
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Failed to wait position batch flush", e);
-        }
-        try {
-            instrumentFuture.get();
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Failed to wait instrument batch flush", e);
+                    @Override
+                    public void run() {
+                        batch.flushAndWait();
+                    }
+                }));
+            }
         }
-        try {
-            transactionFuture.get();
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Failed to wait transaction batch flush", e);
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                logger.error("Failed to wait Hive batch flush", e);
+            }
         }
 
-        long totalCount = positionBatch.totalCount;
-        totalCount += instrumentBatch.totalCount;
-        totalCount += transactionBatch.totalCount;
+        long totalCount = 0;
+        for (Table table : tables.values()) {
+            totalCount += table.totalCount();
+        }
         logger.info("Hive: written total {} records", totalCount);
     }
 
-    private static enum BatchAction {
+    /**
+     * Get a table writer of an unpartitioned table, for benchmarks.
+     * @param topic the topic of the table
+     * @param writer the writer index
+     * @return the table writer, null if the topic is not mapped
+     */
+    Batch batch(String topic, int writer) {
+        Table table = tables.get(topic);
+        return table == null ? null : table.partitions.get(UNPARTITIONED).batches[writer];
+    }
+
+    /**
+     * The writers of one Hive table. Records are hashed by primary key to a writer,
+     * so that the same key always goes through the same streaming connection.
+     * A partitioned table has writers per partition, opened on the first record of the partition.
+     * The writers of a partition are retired once idle, or when too many partitions are open,
+     * they commit their remaining records before closing.
+     */
+    private class Table {
+
+        private final String name;
+        // Null if the table is not partitioned
+        private final String partitionField;
+
+        // Partition value to its writers, in access order
+        private final LinkedHashMap<String, Partition> partitions = new LinkedHashMap<>(16, 0.75f, true);
+
+        // Retired writers still committing their records
+        private final List<Batch> retired = new ArrayList<>();
+
+        // Records written by the closed writers
+        private long closedCount = 0;
+
+        public Table(String topic, String name, String partitionField) {
+            this.name = name;
+            this.partitionField = partitionField;
+
+            // Tagged by topic too, several topics may be routed to the table
+
+            for (int i = 0; i < writersPerTable; i++) {
+                final int writer = i;
+                Map<String, String> tags = new LinkedHashMap<>();
+                tags.put("topic", topic);
+                tags.put("table", name);
+                tags.put("table-writer", String.valueOf(i));
+                metrics.gauge("hive-queue-depth", "Records queued for the Hive table writer",
+                        tags, (c, now) -> queueDepth(writer));
+            }
+            if (partitionField == null) {
+                partitions.put(UNPARTITIONED, new Partition(name, null));
+            } else {
+                Map<String, String> tags = new LinkedHashMap<>();
+                tags.put("topic", topic);
+                tags.put("table", name);
+                metrics.gauge("hive-open-partitions", "Partitions of the Hive table having open writers",
+                        tags, (c, now) -> openPartitions());
+            }
+        }
+
+        public synchronized void add(EncodedRecord record) {
+            String value = partitionField == null ? UNPARTITIONED : partitionValue(record);
+            Partition partition = partitions.get(value);
+            if (partition == null) {
+                evict(Long.MAX_VALUE, partitionMaxOpen - 1);
+                partition = new Partition(name, value);
+                partitions.put(value, partition);
+                logger.info("Opened Hive table: {}, partition: {}, {} partitions open",
+                        name, value, partitions.size());
+            }
+            Batch batch = partition.batches[writerIndex(record)];
+            batch.lastAdd = System.currentTimeMillis();
+            // Added under the lock, so that the writer is not retired meanwhile
+            batch.add(record);
+        }
+
+        /**
+         * The partition value of a record is the date part of its partition field, eg "2017-01-31".
+         * The field is read by the encoder, the value of records replayed from the spill log is gone.
+         */
+        private String partitionValue(EncodedRecord record) {
+            String s = record.getPartition() == null ? "" : record.getPartition().trim();
+            if (s.isEmpty()) {
+                return DEFAULT_PARTITION;
+            }
+            int time = s.indexOf('T');
+            if (time < 0) {
+                time = s.indexOf(' ');
+            }
+            return time > 0 ? s.substring(0, time) : s;
+        }
+
+        private int writerIndex(EncodedRecord record) {
+            if (writersPerTable == 1) {
+                return 0;
+            }
+            String key = record.getKey();
+            int hash = key == null ? record.getRecord().kafkaPartition() : key.hashCode();
+            return (hash & Integer.MAX_VALUE) % writersPerTable;
+        }
+
+        /**
+         * Retire the writers of the partitions without record for idleMs, and of the least recently used
+         * partitions until at most maxOpen partitions are open.
+         * @param idleMs the idle time
+         * @param maxOpen the max number of partitions to keep open
+         */
+        public synchronized void evict(long idleMs, int maxOpen) {
+            if (partitionField == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            Iterator<Partition> it = partitions.values().iterator();
+            while (it.hasNext()) {
+                Partition partition = it.next();
+                if (partitions.size() > maxOpen || partition.idle(now, idleMs)) {
+                    it.remove();
+                    for (Batch batch : partition.batches) {
+                        batch.retire();
+                        retired.add(batch);
+                    }
+                    logger.info("Retired Hive table: {}, partition: {}, {} partitions open",
+                            name, partition.value, partitions.size());
+                }
+            }
+
+            Iterator<Batch> retiredIt = retired.iterator();
+            while (retiredIt.hasNext()) {
+                Batch batch = retiredIt.next();
+                if (batch.closed) {
+                    retiredIt.remove();
+                    closedCount += batch.totalCount;
+                }
+            }
+        }
+
+        /**
+         * @return the open and retired writers
+         */
+        public synchronized List<Batch> batches() {
+            List<Batch> batches = new ArrayList<>(retired);
+            for (Partition partition : partitions.values()) {
+                Collections.addAll(batches, partition.batches);
+            }
+            return batches;
+        }
+
+        private synchronized long queueDepth(int writer) {
+            long depth = 0;
+            for (Partition partition : partitions.values()) {
+                depth += partition.batches[writer].queue.size();
+            }
+            return depth;
+        }
+
+        private synchronized int openPartitions() {
+            return partitions.size();
+        }
+
+        public synchronized long totalCount() {
+            long count = closedCount;
+            for (Batch batch : batches()) {
+                count += batch.totalCount;
+            }
+            return count;
+        }
+
+        public void close() {
+            List<Batch> batches;
+            synchronized (this) {
+                batches = batches();
+                partitions.clear();
+                retired.clear();
+            }
+            // Outside the lock, a writer may be committing and waiting for the spill buffer
+            for (Batch batch : batches) {
+                batch.close();
+            }
+        }
+    }
+
+    /**
+     * The writers of one partition of a table, they connect in parallel.
+     */
+    private class Partition {
+
+        private final String value;
+        private final Batch[] batches;
+
+        public Partition(String table, String value) {
+            this.value = value;
+            this.batches = new Batch[writersPerTable];
+            List<String> partitionVals = value == null ? null : Collections.singletonList(value);
+            for (int i = 0; i < batches.length; i++) {
+                batches[i] = new Batch(table, partitionVals, i);
+            }
+        }
+
+        private boolean idle(long now, long idleMs) {
+            for (Batch batch : batches) {
+                if (now - batch.lastAdd < idleMs) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Weight of the last observation in the moving averages of the batch sizing
+    private static final double EWMA_WEIGHT = 0.2;
+    // A transaction batch is sized to last about this long
+    private static final long TXN_BATCH_PERIOD_MS = 60 * 1000;
+
+    static enum BatchAction {
         WRITE,
         RETRY,
         HEARTBEAT,
     }
 
-    private class Batch {
+    class Batch {
 
-        // Limit the queue's capacity, don't let it grow too large
-        private final BlockingQueue<Map<?, ?>> queue = new LinkedBlockingQueue<>(10000);
+        // Not bounded, the sink task pauses consumption when too many records are buffered
+        private final BlockingQueue<EncodedRecord> queue = new LinkedBlockingQueue<>();
 
         private final String table;
-        private final HiveEndPoint endpoint;
-        private final StreamingConnection connection;
+        private final List<String> partitionVals;
+        private final int writer;
+        private final String name;
+        // Null until connected
+        private StreamingConnection connection;
+        private final ScheduledFuture<?> heartbeat;
+
+        // The records are drained by tasks of the shared executor, one at a time
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // Guards the drainer, and the timer of the next drain
+        private final Object drainLock = new Object();
+        // The thread running the drain, null if none
+        private Thread drainer;
+        private ScheduledFuture<?> timer;
+        private long timerAt = 0;
+        private long lingerDeadline = 0;
+        // No connection attempt before that time, after a failure
+        private volatile long nextConnect = 0;
+        // Doubled by each failure, reset by a commit
+        private volatile long connectBackoff = retryBackoff;
 
         private TransactionBatch txnBatch;
-        private final List<byte[]> writeBatch = new ArrayList<>();
+        private final List<EncodedRecord> writeBatch = new ArrayList<>();
+        private long writeBatchBytes = 0;
+
+        // The next transaction batch, fetched in background on a spare connection before the current one runs out.
+        // A connection is not thread safe, the spare connection is borrowed for the prefetch and becomes the current
+        // one when the batches swap, the previous one going back to the pool
+        private StreamingConnection spare;
+        private Future<TransactionBatch> prefetch;
+
+        // Records per commit, adapted to the incoming rate and the commit latency
+        private volatile int commitRecords = maxBatchRecords;
+        // Records per ms and commit latency, moving averages
+        private double rate = 0;
+        private double commitLatency = 0;
+        private long lastCommit = 0;
+        private int commitsSinceFetch = 0;
+        private long lastFetch = 0;
+
+        private volatile long totalCount = 0;
+        private volatile long lastAdd = System.currentTimeMillis();
 
-        private long totalCount = 0;
+        // Retired writers close once their records are committed, no record is added after retiring
+        private volatile boolean retiring = false;
+        private volatile boolean closed = false;
+        // Set when a write failed, the connection is not reused
+        private boolean broken = false;
 
-        public Batch(String table) throws StreamingException, InterruptedException {
+        public Batch(String table, List<String> partitionVals, int writer) {
             this.table = table;
-            this.endpoint = new HiveEndPoint(hiveThriftUrl, "default", table, null);
+            this.partitionVals = partitionVals;
+            this.writer = writer;
+            this.name = partitionVals == null ? table : table + "-" + String.join("-", partitionVals);
 
-            HiveConf conf = new HiveConf();
-            // This is very important to disable cached client in order to ensure thread safety
-            conf.setBoolean(HCatConstants.HCAT_HIVE_CLIENT_DISABLE_CACHE, true);
+            // Heartbeat to keep unused transactions alive
+            heartbeat = WorkerResources.schedule(scheduler.get(), executor.get(), () -> {
+                try {
+                    performAction(null, 0, BatchAction.HEARTBEAT);
+                } catch (InterruptedException e) {
+                    // Executor closed, ignore
+                }
+            }, 60 * 1000);
 
-            this.connection = this.endpoint.newConnection(true, conf, table + "-writer");
-            this.txnBatch = this.connection.fetchTransactionBatch(10,
-                    new StrictJsonWriter(this.endpoint, this.connection));
-            this.txnBatch.beginNextTransaction();
+            // Connect right away, records are queued meanwhile, so that the task is not blocked while connecting
+            schedule();
+        }
 
-            // Drain records from queue, write to Hive
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    List<Map<?, ?>> drain = new ArrayList<>();
-                    while (true) {
-                        queue.drainTo(drain, Math.max(1, batchSize - writeBatch.size()));
-                        for (Map<?, ?> record : drain) {
-                            try {
-                                performAction(record, batchSize, BatchAction.WRITE);
-                            } catch (InterruptedException e) {
-                                // Thread interrupted, return
-                                return;
-                            }
-                        }
-                        drain.clear();
-                    }
+        public void add(EncodedRecord record) {
+            queue.add(record);
+            schedule();
+        }
+
+        /**
+         * Submit a drain to the executor, unless one is submitted or running.
+         */
+        private void schedule() {
+            if (closed || !draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.get().execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Executor closed
+                draining.set(false);
+            }
+        }
+
+        /**
+         * Drain after a delay, unless a drain is already timed earlier.
+         */
+        private void scheduleIn(long delayMs) {
+            long at = System.currentTimeMillis() + delayMs;
+            synchronized (drainLock) {
+                if (closed || (timer != null && !timer.isDone() && timerAt <= at)) {
+                    return;
+                }
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                try {
+                    timer = scheduler.get().schedule(this::schedule, delayMs, TimeUnit.MILLISECONDS);
+                    timerAt = at;
+                } catch (RejectedExecutionException e) {
+                    // Scheduler closed
+                }
+            }
+        }
+
+        /**
+         * Connect, then write the queued records to Hive. The transaction is committed when max batch records/bytes
+         * is reached, or when linger ms passed since its first record. A drain writes at most a commit of records,
+         * then submits the next one, so that the writers of the worker take turns on the executor threads.
+         */
+        private void drain() {
+            synchronized (drainLock) {
+                drainer = Thread.currentThread();
+            }
+            long delay = -1;
+            try {
+                delay = drainOnce();
+            } catch (InterruptedException e) {
+                // Closed
+            } finally {
+                synchronized (drainLock) {
+                    drainer = null;
                 }
-            }).start();
+                draining.set(false);
+            }
+            if (delay == 0 || (!queue.isEmpty() && System.currentTimeMillis() >= nextConnect)) {
+                schedule();
+            } else if (delay > 0) {
+                scheduleIn(delay);
+            }
+        }
 
-            // Heartbeat to keep unused transactions alive
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    while(true) {
-                        try {
-                            Thread.sleep(60 * 1000);
-                            performAction(null, 0, BatchAction.HEARTBEAT);
-                        } catch (InterruptedException e1) {
-                            // Thread interrupted, return
-                            return;
-                        }
+        /**
+         * @return the delay of the next drain, 0 to drain again now, -1 to wait for the next record
+         */
+        private long drainOnce() throws InterruptedException {
+            if (closed) {
+                return -1;
+            }
+            if (!isConnected()) {
+                long wait = nextConnect - System.currentTimeMillis();
+                if (wait > 0) {
+                    return wait;
+                }
+                if (!connect()) {
+                    return backoff();
+                }
+                if (pendingCount() > 0) {
+                    // Write again the records of the failed transaction
+                    performAction(null, 1, BatchAction.RETRY);
+                    if (!isConnected()) {
+                        return backoff();
                     }
                 }
-            }).start();
+            }
+
+            for (int i = commitRecords; i > 0 && isConnected(); i--) {
+                EncodedRecord record = queue.poll();
+                if (record == null) {
+                    break;
+                }
+                if (pendingCount() == 0) {
+                    lingerDeadline = System.currentTimeMillis() + lingerMs;
+                }
+                performAction(record, commitRecords, BatchAction.WRITE);
+            }
+            if (!isConnected()) {
+                // A write failed
+                return backoff();
+            }
+            if (!queue.isEmpty()) {
+                return 0;
+            }
+
+            if (pendingCount() > 0) {
+                // A retired writer commits right away
+                long wait = retiring ? 0 : lingerDeadline - System.currentTimeMillis();
+                if (wait > 0) {
+                    return wait;
+                }
+                // Linger expired, commit pending records
+                performAction(null, 1, BatchAction.WRITE);
+                if (!isConnected()) {
+                    // The commit failed
+                    return backoff();
+                }
+            }
+            if (retiring && queue.isEmpty()) {
+                // All records committed, and none will be added
+                close();
+            }
+            return -1;
         }
 
-        public void add(SinkRecord r) {
-            Map<?, ?> record = (Map<?, ?>) r.value();
+        private synchronized boolean isConnected() {
+            return txnBatch != null;
+        }
+
+        /**
+         * @return the delay of the next connection attempt
+         */
+        private long backoff() {
+            return Math.max(1, nextConnect - System.currentTimeMillis());
+        }
 
+        /**
+         * Delay the next connection attempt after a failure, doubling the backoff.
+         */
+        private void failed() {
+            nextConnect = System.currentTimeMillis() + connectBackoff;
+            connectBackoff = Math.min(connectBackoff * 2, 60 * 1000);
+        }
+
+        /**
+         * Open the connection and the first transaction batch. On failure, records are spilled and the connection
+         * is tried again by a later drain, after a doubling backoff.
+         * @return whether connected
+         */
+        private boolean connect() throws InterruptedException {
+            StreamingConnection newConnection = null;
             try {
-                queue.offer(record, Long.MAX_VALUE, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                logger.error("Thread interrupted while adding record: " + record, e);
+                newConnection = connections.get().borrow(table, partitionVals, name + "-writer-" + writer);
+                TransactionBatch newTxnBatch = streamingFactory.fetchTransactionBatch(newConnection, hiveThriftUrl,
+                        table, partitionVals, txnsPerBatchMin);
+                newTxnBatch.beginNextTransaction();
+                metrics.txnBatchFetched();
+                synchronized (this) {
+                    if (closed) {
+                        newTxnBatch.close();
+                        newConnection.close();
+                        throw new InterruptedException("Closed while connecting");
+                    }
+                    connection = newConnection;
+                    txnBatch = newTxnBatch;
+                    lastFetch = System.currentTimeMillis();
+                    notifyAll();
+                }
+                return true;
+            } catch (StreamingException e) {
+                if (newConnection != null) {
+                    newConnection.close();
+                }
+                logger.error("Failed to connect Hive table: {}, writer: {}, will retry in {} ms", name, writer,
+                        connectBackoff, e);
+                spill.stall();
+                metrics.retry(SinkMetrics.HIVE);
+                failed();
+                return false;
             }
         }
 
@@ -209,52 +712,178 @@ public class HiveWriter {
             }
         }
 
-        private synchronized void performAction(Map<?, ?> record, int flushSize, BatchAction action) throws InterruptedException {
+        private synchronized int pendingCount() {
+            return writeBatch.size();
+        }
+
+        private TransactionBatch fetchTransactionBatch() throws StreamingException, InterruptedException {
+            return streamingFactory.fetchTransactionBatch(connection, hiveThriftUrl, table, partitionVals, nextBatchSize());
+        }
+
+        /**
+         * Adapt the records per commit after a commit: commit about once per linger, less often when commits are slow
+         * so that they take at most a quarter of the time, within the min and max batch records.
+         */
+        private void adapt(int records, long latencyMs, long now) {
+            if (lastCommit > 0 && now > lastCommit) {
+                double observed = (double) records / (now - lastCommit);
+                rate = rate == 0 ? observed : EWMA_WEIGHT * observed + (1 - EWMA_WEIGHT) * rate;
+            }
+            commitLatency = commitLatency == 0 ? latencyMs : EWMA_WEIGHT * latencyMs + (1 - EWMA_WEIGHT) * commitLatency;
+            lastCommit = now;
+            commitsSinceFetch++;
+
+            long target = (long) (rate * Math.max(lingerMs, 4 * commitLatency));
+            commitRecords = (int) Math.max(minBatchRecords, Math.min(maxBatchRecords, target));
+        }
+
+        /**
+         * @return the transactions of the next batch, enough for about a minute of commits at the current pace
+         */
+        private int nextBatchSize() {
+            long now = System.currentTimeMillis();
+            int size = txnsPerBatchMin;
+            if (commitsSinceFetch > 0 && now > lastFetch) {
+                long commits = commitsSinceFetch * TXN_BATCH_PERIOD_MS / (now - lastFetch);
+                size = (int) Math.max(txnsPerBatchMin, Math.min(txnsPerBatchMax, commits));
+            }
+            lastFetch = now;
+            commitsSinceFetch = 0;
+            return size;
+        }
+
+        /**
+         * Fetch the next transaction batch in background, on a spare connection borrowed from the pool.
+         */
+        private void prefetch() {
+            if (prefetch != null || closed) {
+                return;
+            }
+            final int size = nextBatchSize();
+            prefetch = executor.get().submit(() -> {
+                if (spare == null) {
+                    spare = connections.get().borrow(table, partitionVals, name + "-writer-" + writer);
+                }
+                return streamingFactory.fetchTransactionBatch(spare, hiveThriftUrl, table, partitionVals, size);
+            });
+        }
+
+        /**
+         * Switch to the prefetched transaction batch, or fetch one now if the prefetch failed.
+         */
+        private void nextTransactionBatch() throws StreamingException, InterruptedException {
+            txnBatch.close();
+            TransactionBatch next = takePrefetched();
+            if (next == null) {
+                logger.info("Fetch new transactions batch for table: " + table);
+                next = fetchTransactionBatch();
+            }
+            txnBatch = next;
+            txnBatch.beginNextTransaction();
+            metrics.txnBatchFetched();
+        }
+
+        /**
+         * @return the prefetched transaction batch, its connection becomes the current one, null if none
+         */
+        private TransactionBatch takePrefetched() throws InterruptedException {
+            if (prefetch == null) {
+                return null;
+            }
+            try {
+                TransactionBatch next = prefetch.get();
+                // The spare is only held during the prefetch, the previous connection goes back to the pool where
+                // the prefetches of the other writers of the partition reuse it
+                connections.get().giveBack(table, partitionVals, connection);
+                connection = spare;
+                spare = null;
+                return next;
+            } catch (ExecutionException e) {
+                logger.warn("Failed to prefetch transactions batch for table: " + table, e.getCause());
+                if (spare != null) {
+                    spare.close();
+                    spare = null;
+                }
+                return null;
+            } finally {
+                prefetch = null;
+            }
+        }
+
+        synchronized void performAction(EncodedRecord record, int flushSize, BatchAction action) throws InterruptedException {
+            if (txnBatch == null) {
+                if (record == null) {
+                    // Not connected yet, nothing to commit
+                    return;
+                }
+                while (txnBatch == null && !closed) {
+                    wait(1000);
+                }
+                if (closed) {
+                    return;
+                }
+            }
             if (action == BatchAction.HEARTBEAT) {
                 try {
                     txnBatch.heartbeat();
+                    if (prefetch != null && prefetch.isDone()) {
+                        prefetch.get().heartbeat();
+                    }
                 } catch (StreamingException e) {
                     // Log and ignore heartbeat error
                     logger.error("Failed to send transaction heart beat to Hive", e);
+                } catch (ExecutionException e) {
+                    // Prefetch failed, the batch fetches again when it needs it
                 }
                 return;
             }
 
             try {
                 if (record != null) {
-                    byte[] bytes;
-                    try {
-                        bytes = MAPPER.writeValueAsBytes(record);
-                    } catch (JsonProcessingException e) {
-                        // Log and ignore
-                        logger.error("Failed to format record to JSON: " + record, e);
-                        return;
-                    }
-
-                    writeBatch.add(bytes);
-                    txnBatch.write(bytes);
+                    writeBatch.add(record);
+                    writeBatchBytes += record.getJson().length;
+                    txnBatch.write(record.getJson());
                 }
 
-                if (writeBatch.size() >= flushSize) {
+                if (writeBatch.size() >= flushSize || writeBatchBytes >= maxBatchBytes) {
                     if (action == BatchAction.RETRY) {
-                        for (byte[] bytes : writeBatch) {
-                            txnBatch.write(bytes);
+                        for (EncodedRecord r : writeBatch) {
+                            txnBatch.write(r.getJson());
                         }
                     }
 
+                    long commitStart = System.currentTimeMillis();
                     txnBatch.commit();
+                    long commitEnd = System.currentTimeMillis();
+                    metrics.commitLatency(SinkMetrics.HIVE, commitEnd - commitStart);
+                    adapt(writeBatch.size(), commitEnd - commitStart, commitEnd);
+                    WorkerResources.Lease<HiveMerger> merger = mergers.get(table);
+                    if (merger != null) {
+                        merger.get().staged(writeBatch.size());
+                    }
+                    spill.recover();
+                    for (EncodedRecord r : writeBatch) {
+                        offsetTracker.complete(r);
+                    }
+                    if (!writeBatch.isEmpty()) {
+                        metrics.written(SinkMetrics.HIVE, writeBatch.size(), writeBatchBytes,
+                                writeBatch.get(0).getRecord().timestamp());
+                    }
                     totalCount += writeBatch.size();
+                    broken = false;
+                    connectBackoff = retryBackoff;
                     writeBatch.clear();
+                    writeBatchBytes = 0;
 
-                    logger.info("Hive: written {} records to table: " + table, totalCount);
+                    logger.info("Hive: written {} records to table: {}, writer: {}", totalCount, name, writer);
 
                     if (txnBatch.remainingTransactions() > 0) {
                         txnBatch.beginNextTransaction();
+                        if (txnBatch.remainingTransactions() <= 1) {
+                            prefetch();
+                        }
                     } else {
-                        txnBatch.close();
-                        logger.info("Fetch new transactions batch for table: " + table);
-                        txnBatch = connection.fetchTransactionBatch(10, new StrictJsonWriter(endpoint, connection));
-                        txnBatch.beginNextTransaction();
+                        nextTransactionBatch();
                     }
                 }
 
@@ -262,65 +891,53 @@ public class HiveWriter {
                 if (e instanceof SerializationError) {
                     // Log and ignore SerializationError
                     logger.warn("SerializationError when write to Hive table: " + table, e);
+                    if (record != null && !writeBatch.isEmpty() && writeBatch.get(writeBatch.size() - 1) == record) {
+                        // Drop the bad record, it is skipped
+                        writeBatch.remove(writeBatch.size() - 1);
+                        writeBatchBytes -= record.getJson().length;
+                        offsetTracker.drop(record);
+                    }
                     return;
                 }
 
                 // Abort transaction and close batch
                 abortAndCloseBatch();
 
+                // Spill new records until Hive is back
+                spill.stall();
+
                 if (e instanceof InterruptedException) {
                     // Log and re-throw InterruptedException
                     logger.error("Batch write to Hive thread interrupted: " + table, e);
                     throw (InterruptedException) e;
                 }
 
-                if (action == BatchAction.RETRY) {
-                    throw new RetriableException(e);
-                }
-
-                // Retry writing
-                int remainingRetries = Math.max(1, maxRetires);
-                long sleepTime = 0;
-
-                while (remainingRetries > 0) {
-                    try {
-                        // Retry with new transaction batch
-                        logger.info("Will retry batch write to Hive table: " + table);
-                        txnBatch = connection.fetchTransactionBatch(10, new StrictJsonWriter(endpoint, connection));
-                        txnBatch.beginNextTransaction();
-                        performAction(null, 1, BatchAction.RETRY);
-                        return;
-                    } catch (InterruptedException | StreamingException | RetriableException re) {
-                        logger.error("Retry batch write to Hive failed", re);
-
-                        abortAndCloseBatch();
-
-                        if (re instanceof InterruptedException) {
-                            // Log and re-throw InterruptedException
-                            logger.error("Retry batch write to Hive thread interrupted: " + table, re);
-                            throw (InterruptedException) re;
-                        }
-
-                        remainingRetries--;
-                        if (remainingRetries > 0) {
-                            sleepTime += retryBackoff;
-                            logger.info("Will retry batch write to Hive in {} seconds", sleepTime / 1000);
-                            try {
-                                Thread.sleep(sleepTime);
-                            } catch (InterruptedException e2) {
-                                // Log and re-throw InterruptedException
-                                logger.error("Retry batch write to Hive waiting thread interrupted", e2);
-                                throw (InterruptedException) e2;
-                            }
-                        } else {
-                            logger.error("Retry batch write to Hive exhausted", re);
-                        }
-                    }
-                }
+                // The pending records stay, a later drain writes them again on a new connection after the backoff,
+                // instead of waiting here while holding the batch
+                logger.error("Batch write to Hive table: {}, writer: {} failed, will retry in {} ms", name, writer,
+                        connectBackoff, e);
+                metrics.retry(SinkMetrics.HIVE);
+                disconnect();
+                failed();
+                scheduleIn(backoff());
             }
         }
 
+        /**
+         * Close the broken connection and the spare, the next drain connects again.
+         */
+        private void disconnect() {
+            connection.close();
+            connection = null;
+            txnBatch = null;
+            broken = false;
+            closeSpare();
+        }
+
         private void abortAndCloseBatch() {
+            metrics.abort(SinkMetrics.HIVE);
+            broken = true;
+
             // Abort current open transaction
             try {
                 txnBatch.abort();
@@ -336,21 +953,99 @@ public class HiveWriter {
             }
         }
 
+        /**
+         * Close once the queued and pending records are committed.
+         */
+        public void retire() {
+            retiring = true;
+            schedule();
+        }
+
+        /**
+         * Stop the drain and the heartbeat, close the transaction batch, and give back the connection.
+         */
         public void close() {
-            this.connection.close();
+            synchronized (drainLock) {
+                if (drainer != null && drainer != Thread.currentThread()) {
+                    drainer.interrupt();
+                }
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+            heartbeat.cancel(false);
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+                if (connection == null) {
+                    // Not connected yet
+                    return;
+                }
+                try {
+                    txnBatch.close();
+                } catch (Exception e) {
+                    logger.error("Failed to close Hive transaction batch", e);
+                    broken = true;
+                }
+                if (broken) {
+                    this.connection.close();
+                } else {
+                    connections.get().giveBack(table, partitionVals, this.connection);
+                }
+                closeSpare();
+            }
+        }
+
+        /**
+         * Close the prefetched transaction batch, waiting for the prefetch if running, and give back the spare connection.
+         */
+        private void closeSpare() {
+            boolean healthy = true;
+            if (prefetch != null) {
+                try {
+                    prefetch.get().close();
+                } catch (Exception e) {
+                    logger.error("Failed to close prefetched Hive transaction batch", e);
+                    healthy = false;
+                }
+                prefetch = null;
+            }
+            if (spare != null) {
+                if (healthy) {
+                    connections.get().giveBack(table, partitionVals, spare);
+                } else {
+                    spare.close();
+                }
+                spare = null;
+            }
         }
     }
 
     public void close() {
-        flushExecutors.shutdown();
+        if (evictor != null) {
+            evictor.cancel(false);
+        }
+        if (spill != null) {
+            spill.close();
+        }
 
-        try {
-            flushExecutors.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
+        for (Table table : tables.values()) {
+            table.close();
         }
 
-        positionBatch.close();
-        instrumentBatch.close();
-        transactionBatch.close();
+        for (WorkerResources.Lease<HiveMerger> merger : mergers.values()) {
+            merger.close();
+        }
+        mergers.clear();
+
+        // Once the writers gave back their connections
+        for (WorkerResources.Lease<?> lease : Arrays.asList(connections, executor, scheduler)) {
+            if (lease != null) {
+                lease.close();
+            }
+        }
     }
 }
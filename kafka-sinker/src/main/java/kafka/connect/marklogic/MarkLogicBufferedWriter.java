@@ -1,23 +1,29 @@
 package kafka.connect.marklogic;
 
+import java.io.IOException;
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.marklogic.client.datamovement.Batch;
 import com.marklogic.client.datamovement.DataMovementManager;
+import com.marklogic.client.datamovement.WriteBatch;
 import com.marklogic.client.datamovement.WriteBatcher;
-import com.marklogic.client.io.DocumentMetadataHandle;
+import com.marklogic.client.datamovement.WriteEvent;
 
+import kafka.connect.marklogic.TieringRules.Route;
 import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
 
 /**
@@ -29,84 +35,236 @@ public class MarkLogicBufferedWriter extends MarkLogicWriter implements Writer{
 
     private static final Logger logger = LoggerFactory.getLogger(MarkLogicBufferedWriter.class);
 
-    private final ExecutorService flushExecutors = Executors.newFixedThreadPool(2);
+    // Shared by the tasks of the worker
+    private final WorkerResources.Lease<ScheduledExecutorService> scheduler = WorkerResources.scheduler();
+    private final WorkerResources.Lease<ExecutorService> executor = WorkerResources.executor();
+    // Null if the data movement manager is not shared
+    private final WorkerResources.Lease<DataMovementManager> managerLease;
     private final DataMovementManager manager;
     private final WriteBatcher batcher;
     private final HiveWriter hiveWriter;
+    private final OffsetTracker offsetTracker;
+    private final SinkMetrics metrics;
+    // Records added to the batcher but not yet written
+    private final AtomicLong inFlight = new AtomicLong();
+    // Records go through the spill buffer while MarkLogic is stalled
+    private final SpillBuffer spill;
+    // Failed batches are retried there, not in the batcher threads
+    private final RetryScheduler retries;
+    // Set once the retries of a batch are exhausted, fails the task
+    private volatile Throwable retriesExhausted;
+    // Spreads the batches over the hosts having forests of the database
+    private final ForestBalancer balancer;
 
     public MarkLogicBufferedWriter(final Map<String, String> config){
+        this(config, null);
+    }
+
+    /**
+     * Constructor, benchmarks pass in a fake data movement manager.
+     * @param config the connector config
+     * @param manager the data movement manager, null to create one from the database client
+     */
+    MarkLogicBufferedWriter(final Map<String, String> config, final DataMovementManager manager){
 	    super(config);
-	    manager = super.client.newDataMovementManager();
-	    batcher = manager.newWriteBatcher();
+	    this.managerLease = manager == null ? WorkerResources.acquire("marklogic-manager:" + super.clientKey,
+	            () -> super.client.newDataMovementManager(), DataMovementManager::release) : null;
+	    this.manager = manager == null ? managerLease.get() : manager;
+	    batcher = this.manager.newWriteBatcher();
 
         final int batchSize = Integer.valueOf(config.get(MarkLogicSinkConfig.BATCH_SIZE));
 	    final int maxRetires = Integer.valueOf(config.get(MarkLogicSinkConfig.MAX_RETRIES));
         final int retryBackoff = Integer.valueOf(config.get(MarkLogicSinkConfig.RETRY_BACKOFF_MS));
 
-        hiveWriter = new HiveWriter(config.get(MarkLogicSinkConfig.HIVE_THRIFT_URL), batchSize, maxRetires, retryBackoff);
-        hiveWriter.start();
+        final MarkLogicSinkConfig sinkConfig = new MarkLogicSinkConfig(config);
+        offsetTracker = new OffsetTracker(sinkConfig.getInt(MarkLogicSinkConfig.DEDUP_RECORDS_PER_PARTITION));
+        metrics = new SinkMetrics(config.getOrDefault("name", "marklogic-sink"));
+        // Hive writers connect in background, meanwhile MarkLogic hosts are looked up
+        hiveWriter = new HiveWriter(config, offsetTracker, metrics);
+        try {
+            hiveWriter.start();
+        } catch (RuntimeException e) {
+            metrics.close();
+            release();
+            throw e;
+        }
+
+        retries = new RetryScheduler(SinkMetrics.MARKLOGIC, scheduler.get(), executor.get(), maxRetires, retryBackoff,
+                sinkConfig.getLong(MarkLogicSinkConfig.RETRY_BACKOFF_MAX_MS),
+                sinkConfig.getInt(MarkLogicSinkConfig.CIRCUIT_BREAKER_FAILURES),
+                sinkConfig.getLong(MarkLogicSinkConfig.CIRCUIT_BREAKER_OPEN_MS), metrics);
+        try {
+            balancer = new ForestBalancer(this.manager, batcher, sinkConfig.getLong(MarkLogicSinkConfig.FOREST_REFRESH_MS),
+                    retries::isOpen, scheduler.get(), executor.get());
+        } catch (RuntimeException e) {
+            hiveWriter.close();
+            retries.close();
+            metrics.close();
+            release();
+            throw new ConnectException("Failed to read MarkLogic forest configuration", e);
+        }
+        registerGauges();
+
+        try {
+            spill = new SpillBuffer("MarkLogic", sinkConfig.getString(MarkLogicSinkConfig.SPILL_DIR),
+                    sinkConfig.getInt(MarkLogicSinkConfig.SPILL_SEGMENT_BYTES), new SpillBuffer.Tier() {
+
+                        @Override
+                        public void write(EncodedRecord record) {
+                            addToBatcher(record);
+                        }
 
-        batcher.withBatchSize(batchSize).withThreadCount(3).onBatchSuccess(batch -> {
+                        @Override
+                        public long inFlight() {
+                            return inFlight.get();
+                        }
+                    }, offsetTracker, sinkConfig.getLong(MarkLogicSinkConfig.BUFFER_LOW_WATERMARK_RECORDS), retryBackoff,
+                    scheduler.get(), executor.get());
+        } catch (IOException e) {
+            hiveWriter.close();
+            balancer.close();
+            retries.close();
+            metrics.close();
+            release();
+            throw new ConnectException("Failed to create MarkLogic spill buffer", e);
+        }
+
+        // Threads are sized for the hosts found at start, later hosts share them
+        final int threads = sinkConfig.getInt(MarkLogicSinkConfig.THREADS_PER_HOST) * balancer.hosts();
+        logger.info("MarkLogic batcher writes to {} hosts with {} threads", balancer.hosts(), threads);
+        batcher.withBatchSize(batchSize).withThreadCount(threads).onBatchSuccess(batch -> {
+            int records = 0;
+            long bytes = 0;
+            long firstCreated = Long.MAX_VALUE;
+            Long oldestTimestamp = null;
+            for (WriteEvent event : batch.getItems()) {
+                if (event.getContent() instanceof RecordHandle) {
+                    RecordHandle handle = (RecordHandle) event.getContent();
+                    EncodedRecord record = handle.getRecord();
+                    offsetTracker.complete(record);
+                    inFlight.decrementAndGet();
+
+                    records++;
+                    bytes += record.getJson().length;
+                    firstCreated = Math.min(firstCreated, handle.getCreated());
+                    Long timestamp = record.getRecord().timestamp();
+                    if (timestamp != null && (oldestTimestamp == null || timestamp < oldestTimestamp)) {
+                        oldestTimestamp = timestamp;
+                    }
+                }
+            }
+            if (records > 0) {
+                // From the first record added to the batcher until the batch is written
+                metrics.commitLatency(SinkMetrics.MARKLOGIC, System.currentTimeMillis() - firstCreated);
+                metrics.written(SinkMetrics.MARKLOGIC, records, bytes, oldestTimestamp);
+            }
+            retries.success(host(batch));
+            spill.recover();
             logger.info("MarkLogic: written total {} records", batch.getJobWritesSoFar());
         });
 
 	    batcher.setBatchFailureListeners((b, t) -> {
-            logger.error("Batch write to MarkLogic failed, will retry", t);
-            int remainingRetries = maxRetires;
-            long sleepTime = 0;
-            while (remainingRetries > 0) {
-                sleepTime += retryBackoff;
-                logger.info("Will retry batch write to MarkLogic in {} seconds", sleepTime / 1000);
-                try {
-                    Thread.sleep(sleepTime);
-                } catch (InterruptedException e) {
-                    logger.error("Retry batch write to MarkLogic thread interrupted", e);
-                }
-                try {
-                    batcher.retry(b);
-                    return;
-                } catch (Throwable rt) {
-                    logger.error("Retry batch write to MarkLogic failed", rt);
-                    remainingRetries--;
+            final String host = host(b);
+            logger.error("Batch write to MarkLogic host {} failed, will retry", host, t);
+            // Spill new records until MarkLogic is back
+            spill.stall();
+            // Don't block the batcher thread, the other batches keep being written meanwhile
+            retries.schedule(host, () -> batcher.retry(b), () -> balancer.hasOtherHost(host) && reroute(b), rt -> {
+                for (WriteEvent event : b.getItems()) {
+                    if (event.getContent() instanceof RecordHandle) {
+                        inFlight.decrementAndGet();
+                    }
                 }
+                retriesExhausted = rt;
+            });
+            if (retries.isOpen(host) && balancer.writesTo(host)) {
+                // Stop sending new batches to the host until it is back, reading the forests off the batcher thread
+                balancer.requestRefresh();
             }
-            throw new RetriableException("Retry batch write to MarkLogic exhausted", t);
         });
         manager.startJob(batcher);
 	}
 
     @Override
     public void write(final Collection<SinkRecord> recrods) {
+        if (retriesExhausted != null) {
+            // The records of the batch are not committed, the restarted task gets them again
+            throw new ConnectException("Retry batch write to MarkLogic exhausted, ending the task", retriesExhausted);
+        }
         recrods.forEach(r -> {
-            Map<?, ?> v = new LinkedHashMap<>((Map<?, ?>) r.value());
+            EncodedRecord record = super.encode(r);
+            if (record == null) {
+                // Skipped, nothing to wait for
+                offsetTracker.skip(r);
+                return;
+            }
+            if (offsetTracker.isWritten(record)) {
+                // Redelivered, already written with the same content
+                offsetTracker.skip(r);
+                metrics.duplicate();
+                return;
+            }
+            offsetTracker.track(record);
+
+            final Route route = record.getRoute();
+            if (route.isHive()) {
+                hiveWriter.add(record);
+            }
+            if (route.isMarkLogic()) {
+                spill.add(record);
+            }
+        });
+    }
 
-            v.remove("type");
+    private void registerGauges() {
+        metrics.gauge("buffered-records", "Records received but not durably written",
+                Collections.<String, String>emptyMap(), (c, now) -> offsetTracker.bufferedRecords());
+        metrics.gauge("buffered-bytes", "Bytes of records received but not durably written",
+                Collections.<String, String>emptyMap(), (c, now) -> offsetTracker.bufferedBytes());
+        metrics.gauge("marklogic-in-flight-records", "Records added to the MarkLogic batcher but not yet written",
+                Collections.<String, String>emptyMap(), (c, now) -> inFlight.get());
+        metrics.gauge("marklogic-retry-batches", "MarkLogic batches waiting for a retry",
+                Collections.<String, String>emptyMap(), (c, now) -> retries.pending());
+        metrics.gauge("marklogic-open-circuits", "MarkLogic hosts whose circuit breaker is open",
+                Collections.<String, String>emptyMap(), (c, now) -> retries.openCircuits());
+        metrics.gauge("marklogic-spilled-records", "Records in the MarkLogic spill log",
+                Collections.<String, String>emptyMap(), (c, now) -> spill == null ? 0 : spill.spilled());
+    }
 
-            Object hiveObj = v.remove("hive");
-            boolean hive = hiveObj == null ? false : Boolean.parseBoolean(hiveObj.toString());
+    private static String host(final Batch<?> batch) {
+        return batch.getClient().getHost();
+    }
 
-            String url = super.url(v);
+    /**
+     * Add the records of a failed batch to the batcher again, the batcher sends them to the hosts still up.
+     */
+    private boolean reroute(final WriteBatch batch) {
+        for (WriteEvent event : batch.getItems()) {
+            batcher.add(event.getTargetUri(), event.getMetadata(), event.getContent());
+        }
+        return true;
+    }
 
-            if (hive) {
-                hiveWriter.add(r);
-            } else {
-                DocumentMetadataHandle metadata = new DocumentMetadataHandle();
-                metadata.getCollections().addAll(r.topic());
-                batcher.add(url, metadata, super.handle(v));
-            }
-        });
+    private void addToBatcher(final EncodedRecord record) {
+        inFlight.incrementAndGet();
+        batcher.add(super.url(record), super.metadata(record.getRecord().topic()), super.handle(record));
     }
 
     @Override
     public void flush() {
-        Future<?> marklogicFuture = flushExecutors.submit(new Runnable() {
+        Future<?> marklogicFuture = executor.get().submit(new Runnable() {
             
             @Override
             public void run() {
                 batcher.flushAndWait();
+                try {
+                    retries.awaitIdle();
+                } catch (InterruptedException e) {
+                    logger.error("Failed to wait marklogic batch retries", e);
+                }
             }
         });
-        Future<?> hiveFuture = flushExecutors.submit(new Runnable() {
+        Future<?> hiveFuture = executor.get().submit(new Runnable() {
             
             @Override
             public void run() {
@@ -126,19 +284,52 @@ public class MarkLogicBufferedWriter extends MarkLogicWriter implements Writer{
     }
 
     @Override
-    public void close() {
-        flushExecutors.shutdown();
+    public Map<TopicPartition, OffsetAndMetadata> preCommit(final Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        // Don't wait, Hive commits on its own linger, MarkLogic writes the partial batch in background.
+        // Only offsets durably written so far are committed, the rest is committed next time.
+        batcher.flushAsync();
+        return offsetTracker.committableOffsets(currentOffsets);
+    }
 
-        try {
-            flushExecutors.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-        }
+    @Override
+    public long bufferedRecords() {
+        return offsetTracker.bufferedRecords();
+    }
 
+    @Override
+    public long bufferedBytes() {
+        return offsetTracker.bufferedBytes();
+    }
+
+    @Override
+    public Collection<TopicPartition> bufferedPartitions() {
+        return offsetTracker.bufferedPartitions();
+    }
+
+    @Override
+    public void close() {
         hiveWriter.close();
+        spill.close();
+        retries.close();
+        balancer.close();
 
         batcher.awaitCompletion();
         manager.stopJob(batcher);
-        manager.release();
+        metrics.close();
+        release();
+    }
+
+    /**
+     * Release the data movement manager, the client, and the threads to the worker.
+     */
+    private void release() {
+        if (managerLease != null) {
+            managerLease.close();
+        } else {
+            manager.release();
+        }
+        scheduler.close();
+        executor.close();
         super.close();
     }
 
@@ -1,22 +1,23 @@
 package kafka.connect.marklogic;
 
+import java.io.IOException;
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.DatabaseClientFactory;
 import com.marklogic.client.DatabaseClientFactory.DigestAuthContext;
 import com.marklogic.client.document.JSONDocumentManager;
+import com.marklogic.client.io.BytesHandle;
 import com.marklogic.client.io.DocumentMetadataHandle;
-import com.marklogic.client.io.JacksonHandle;
+import com.marklogic.client.io.Format;
 
 import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
 
@@ -28,30 +29,50 @@ import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
 public class MarkLogicWriter implements Writer{
 
     private static final Logger logger = LoggerFactory.getLogger(MarkLogicWriter.class);
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-    private static final String URL = "url";
 
     private final JSONDocumentManager manager;
+    private final RecordEncoder encoder;
+    // Collection metadata per topic, shared by all documents of the topic, read by the task and the spill replay
+    private final ConcurrentMap<String, DocumentMetadataHandle> metadatas = new ConcurrentHashMap<>();
+    // The client is shared by the tasks of the worker connecting with the same settings
+    private final WorkerResources.Lease<DatabaseClient> clientLease;
+    protected final String clientKey;
     protected final DatabaseClient client;
 
     public MarkLogicWriter(final Map<String, String> config){
-        client = DatabaseClientFactory.newClient(config.get(MarkLogicSinkConfig.CONNECTION_HOST),
+        clientKey = config.get(MarkLogicSinkConfig.CONNECTION_USER) + "@" + config.get(MarkLogicSinkConfig.CONNECTION_HOST)
+                + ":" + config.get(MarkLogicSinkConfig.CONNECTION_PORT) + "/" + config.get(MarkLogicSinkConfig.CONNECTION_DB);
+        clientLease = WorkerResources.acquire("marklogic-client:" + clientKey,
+                () -> DatabaseClientFactory.newClient(config.get(MarkLogicSinkConfig.CONNECTION_HOST),
                         Integer.valueOf(config.get(MarkLogicSinkConfig.CONNECTION_PORT)),
                         config.get(MarkLogicSinkConfig.CONNECTION_DB),
                         new DigestAuthContext(config.get(MarkLogicSinkConfig.CONNECTION_USER),
-                        config.get(MarkLogicSinkConfig.CONNECTION_PASSWORD)));
+                        config.get(MarkLogicSinkConfig.CONNECTION_PASSWORD))), DatabaseClient::release);
+        client = clientLease.get();
         manager = client.newJSONDocumentManager();
+        final MarkLogicSinkConfig sinkConfig = new MarkLogicSinkConfig(config);
+        // The Hive partition field of each topic, from its table
+        final Map<String, String> tablePartitionFields = sinkConfig.getMap(MarkLogicSinkConfig.HIVE_PARTITION_FIELDS);
+        final Map<String, String> partitionFields = new HashMap<>();
+        for (Map.Entry<String, String> entry : sinkConfig.getMap(MarkLogicSinkConfig.HIVE_TOPIC_TABLES).entrySet()) {
+            if (tablePartitionFields.containsKey(entry.getValue())) {
+                partitionFields.put(entry.getKey(), tablePartitionFields.get(entry.getValue()));
+            }
+        }
+        encoder = new RecordEncoder(sinkConfig.getMap(MarkLogicSinkConfig.TABLE_KEY_FIELDS), partitionFields,
+                new TieringRules(sinkConfig.getList(MarkLogicSinkConfig.TIERING_RULES)));
     }
 
     public void write(final Collection<SinkRecord> recrods){
 
         recrods.forEach(r -> {
             logger.debug("received value {}, and collection {}", r.value(), r.topic());
-            final Map<?, ?> v = new LinkedHashMap<>((Map<?,?>) r.value());
-            DocumentMetadataHandle metadata = new DocumentMetadataHandle();
-            metadata.getCollections().addAll(r.topic());
+            final EncodedRecord record = encode(r);
+            if (record == null) {
+                return;
+            }
             try {
-                manager.write(url(v), metadata, handle(v));
+                manager.write(url(record), metadata(r.topic()), handle(record));
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
                 throw new RuntimeException(e);
@@ -59,12 +80,65 @@ public class MarkLogicWriter implements Writer{
         });
     }
 
-    protected String url(final Map<?, ?> valueMap ){
-        return valueMap.get(URL) == null ? UUID.randomUUID().toString() : valueMap.remove(URL).toString();
+    /**
+     * Encode the record to JSON bytes.
+     * @param r the sink record
+     * @return the encoded record, null if the record can not be formatted to JSON
+     */
+    protected EncodedRecord encode(final SinkRecord r) {
+        try {
+            return encoder.encode(r);
+        } catch (IOException e) {
+            // Log and ignore
+            logger.error("Failed to format record to JSON: " + r.value(), e);
+            return null;
+        }
+    }
+
+    protected DocumentMetadataHandle metadata(final String topic) {
+        return metadatas.computeIfAbsent(topic, t -> {
+            DocumentMetadataHandle metadata = new DocumentMetadataHandle();
+            metadata.getCollections().addAll(t);
+            return metadata;
+        });
     }
 
-    protected JacksonHandle handle(final Map<?, ?> valueMap) {
-        return new JacksonHandle(MAPPER.convertValue(valueMap, JsonNode.class));
+    /**
+     * @param record the encoded record
+     * @return the document url, deterministic so that a redelivered record overwrites its document
+     */
+    protected String url(final EncodedRecord record){
+        return record.getUrl();
+    }
+
+    protected RecordHandle handle(final EncodedRecord record) {
+        return new RecordHandle(record);
+    }
+
+    /**
+     * JSON bytes content handle, keeping the sink record it was encoded from.
+     */
+    protected static class RecordHandle extends BytesHandle {
+
+        private final EncodedRecord record;
+        private final long created = System.currentTimeMillis();
+
+        public RecordHandle(final EncodedRecord record) {
+            super(record.getJson());
+            setFormat(Format.JSON);
+            this.record = record;
+        }
+
+        public EncodedRecord getRecord() {
+            return record;
+        }
+
+        /**
+         * @return the time the handle was created, in ms
+         */
+        public long getCreated() {
+            return created;
+        }
     }
 
     @Override
@@ -73,6 +147,6 @@ public class MarkLogicWriter implements Writer{
 
     @Override
     public void close() {
-        this.client.release();
+        this.clientLease.close();
     }
 }
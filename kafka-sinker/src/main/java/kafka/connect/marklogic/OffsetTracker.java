@@ -0,0 +1,309 @@
+package kafka.connect.marklogic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Track the offsets handed to the writers and the offsets durably written, per topic partition.
+ * Records may be written out of order (several tiers and writers), so the committable offset
+ * of a partition is its lowest offset still in flight, or the next offset if nothing is in flight.
+ * A record routed to both tiers is in flight until both wrote it.
+ * A record is remembered as written only once all its tiers wrote it, not when a tier dropped it.
+ * The records and bytes in flight are what the writers currently buffer, counted once per tier.
+ * The url and content hash of recently written records are remembered per partition,
+ * so that records redelivered after a failure or rebalance can be skipped.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class OffsetTracker {
+
+    private final ConcurrentMap<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+    private final AtomicLong bufferedRecords = new AtomicLong();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    private final int recentWritesPerPartition;
+
+    public OffsetTracker() {
+        this(0);
+    }
+
+    /**
+     * Constructor.
+     * @param recentWritesPerPartition the number of recently written records remembered per partition, 0 to disable
+     */
+    public OffsetTracker(int recentWritesPerPartition) {
+        this.recentWritesPerPartition = recentWritesPerPartition;
+    }
+
+    /**
+     * Track a record before it is handed to a writer.
+     * @param record the encoded record
+     */
+    public void track(EncodedRecord record) {
+        SinkRecord r = record.getRecord();
+        int tiers = record.getRoute().tiers();
+        if (partition(r).track(r.kafkaOffset(), tiers)) {
+            bufferedRecords.addAndGet(tiers);
+            bufferedBytes.addAndGet((long) tiers * record.getJson().length);
+        }
+    }
+
+    /**
+     * Mark a record as durably written by one of its tiers.
+     * @param record the encoded record
+     */
+    public void complete(EncodedRecord record) {
+        complete(record, false);
+    }
+
+    /**
+     * Mark a record as dropped by the writer of one of its tiers, eg a record the tier can't store.
+     * Its offset can be committed, but it is not remembered as written.
+     * @param record the encoded record
+     */
+    public void drop(EncodedRecord record) {
+        complete(record, true);
+    }
+
+    private void complete(EncodedRecord record, boolean dropped) {
+        SinkRecord r = record.getRecord();
+        PartitionOffsets offsets = partitions.get(new TopicPartition(r.topic(), r.kafkaPartition()));
+        if (offsets == null) {
+            return;
+        }
+        int left = offsets.complete(r.kafkaOffset(), dropped);
+        if (left >= 0) {
+            bufferedRecords.decrementAndGet();
+            bufferedBytes.addAndGet(-record.getJson().length);
+            if (left == 0) {
+                // Written by all its tiers
+                offsets.written(record);
+            }
+        }
+    }
+
+    /**
+     * Check if the record was recently written to the same url with the same content,
+     * eg a record redelivered after a failure or rebalance.
+     * @param record the encoded record
+     * @return true if it was written
+     */
+    public boolean isWritten(EncodedRecord record) {
+        SinkRecord r = record.getRecord();
+        PartitionOffsets offsets = partitions.get(new TopicPartition(r.topic(), r.kafkaPartition()));
+        return offsets != null && offsets.isWritten(record);
+    }
+
+    /**
+     * Mark a tracked record as spilled to disk, it no longer counts as buffered.
+     * @param record the encoded record
+     */
+    public void spilled(EncodedRecord record) {
+        adjustBuffered(record, -1);
+    }
+
+    /**
+     * Mark a spilled record as read back from disk, it counts as buffered again.
+     * @param record the encoded record
+     */
+    public void unspilled(EncodedRecord record) {
+        adjustBuffered(record, 1);
+    }
+
+    private void adjustBuffered(EncodedRecord record, int sign) {
+        SinkRecord r = record.getRecord();
+        PartitionOffsets offsets = partitions.get(new TopicPartition(r.topic(), r.kafkaPartition()));
+        if (offsets != null) {
+            offsets.records.addAndGet(sign);
+            bufferedRecords.addAndGet(sign);
+            bufferedBytes.addAndGet(sign * record.getJson().length);
+        }
+    }
+
+    /**
+     * Mark a record as skipped, it is not handed to any writer.
+     * @param r the sink record
+     */
+    public void skip(SinkRecord r) {
+        PartitionOffsets offsets = partition(r);
+        if (offsets.track(r.kafkaOffset(), 1)) {
+            offsets.complete(r.kafkaOffset(), true);
+        }
+    }
+
+    /**
+     * @return the number of records handed to the writers but not written yet
+     */
+    public long bufferedRecords() {
+        return bufferedRecords.get();
+    }
+
+    /**
+     * @return the bytes of records handed to the writers but not written yet
+     */
+    public long bufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * @return the partitions having records not written yet
+     */
+    public List<TopicPartition> bufferedPartitions() {
+        List<TopicPartition> result = new ArrayList<>();
+        for (Map.Entry<TopicPartition, PartitionOffsets> entry : partitions.entrySet()) {
+            if (entry.getValue().records.get() > 0) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    private PartitionOffsets partition(SinkRecord r) {
+        TopicPartition tp = new TopicPartition(r.topic(), r.kafkaPartition());
+        PartitionOffsets offsets = partitions.get(tp);
+        if (offsets == null) {
+            offsets = new PartitionOffsets(recentWritesPerPartition);
+            PartitionOffsets existing = partitions.putIfAbsent(tp, offsets);
+            if (existing != null) {
+                offsets = existing;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Get the offsets that are safe to commit.
+     * @param currentOffsets the current offsets of the task, only these partitions are returned
+     * @return the committable offsets, partitions without any written record are omitted
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committableOffsets(
+            Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+        for (TopicPartition tp : currentOffsets.keySet()) {
+            PartitionOffsets offsets = partitions.get(tp);
+            if (offsets != null) {
+                long offset = offsets.committable();
+                if (offset >= 0) {
+                    result.put(tp, new OffsetAndMetadata(offset));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static class PartitionOffsets {
+
+        // Set in a pending value once a tier dropped the record
+        private static final int DROPPED = 1 << 16;
+
+        // Offset to the number of tiers still writing it, with the DROPPED flag
+        private final ConcurrentSkipListMap<Long, Integer> pending = new ConcurrentSkipListMap<>();
+        private final AtomicLong records = new AtomicLong();
+        private volatile long highest = -1;
+
+        // Url to content hash of recently written records, in LRU order, null if disabled
+        private final Map<String, Long> recentWrites;
+
+        private PartitionOffsets(final int maxRecentWrites) {
+            this.recentWrites = maxRecentWrites <= 0 ? null : new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > maxRecentWrites;
+                }
+            };
+        }
+
+        private void written(EncodedRecord record) {
+            if (recentWrites != null && record.getUrl() != null) {
+                long hash = contentHash(record);
+                synchronized (recentWrites) {
+                    recentWrites.put(record.getUrl(), hash);
+                }
+            }
+        }
+
+        private boolean isWritten(EncodedRecord record) {
+            if (recentWrites == null || record.getUrl() == null) {
+                return false;
+            }
+            Long hash;
+            synchronized (recentWrites) {
+                hash = recentWrites.get(record.getUrl());
+            }
+            return hash != null && hash == contentHash(record);
+        }
+
+        private boolean track(long offset, int tiers) {
+            // Add to pending before publishing the highest offset, see committable()
+            boolean added = pending.putIfAbsent(offset, tiers) == null;
+            if (added) {
+                records.addAndGet(tiers);
+            }
+            if (offset > highest) {
+                highest = offset;
+            }
+            return added;
+        }
+
+        /**
+         * @return the tiers still writing the offset, with the {@link #DROPPED} flag if a tier dropped it,
+         * -1 if the offset was not pending
+         */
+        private int complete(long offset, boolean dropped) {
+            while (true) {
+                Integer value = pending.get(offset);
+                if (value == null) {
+                    return -1;
+                }
+                int left = (value - 1) | (dropped ? DROPPED : 0);
+                if ((left & ~DROPPED) > 0 ? pending.replace(offset, value, left) : pending.remove(offset, value)) {
+                    records.decrementAndGet();
+                    return left;
+                }
+            }
+        }
+
+        private long committable() {
+            // Read highest first: an offset tracked after this read is higher, it can't make the result unsafe
+            long h = highest;
+            if (h < 0) {
+                return -1;
+            }
+            try {
+                return Math.min(pending.firstKey(), h + 1);
+            } catch (NoSuchElementException e) {
+                return h + 1;
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the JSON content and the target tiers.
+     */
+    private static long contentHash(EncodedRecord record) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : record.getJson()) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= record.getRoute().ordinal();
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+}
@@ -0,0 +1,186 @@
+package kafka.connect.marklogic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Encode the value of a sink record to JSON bytes in a single streaming pass,
+ * stripping the type/hive/url fields on the way.
+ * The value is either a schemaless Map, or a Struct encoded by the {@link StructEncoder} compiled for its schema.
+ * Records without url field get a deterministic one, so that a redelivered record overwrites its document.
+ * The tiers of the record are decided by the tiering rules, from the fields of the value and its "hive" flag.
+ * Not thread safe, each writer owns its own encoder.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class RecordEncoder {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final String TYPE = "type";
+    static final String HIVE = "hive";
+    static final String URL = "url";
+
+    // Schema instances remembered per topic, converters reuse them but a leaking one is bounded
+    private static final int MAX_SCHEMAS = 64;
+
+    // Reused between records, only the final bytes are copied out
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+
+    // Topic to primary key field
+    private final Map<String, String> keyFields;
+    // Topic to Hive partition field, matched ignoring case
+    private final Map<String, String> partitionFields;
+    private final TieringRules tieringRules;
+    // Topic to the encoders of its value schemas, by schema instance
+    private final Map<String, Map<Schema, StructEncoder>> structEncoders = new HashMap<>();
+
+    public RecordEncoder() {
+        this(Collections.<String, String>emptyMap(), Collections.<String, String>emptyMap(),
+                new TieringRules(Collections.<String>emptyList()));
+    }
+
+    public RecordEncoder(Map<String, String> keyFields, Map<String, String> partitionFields, TieringRules tieringRules) {
+        this.keyFields = keyFields;
+        this.partitionFields = partitionFields;
+        this.tieringRules = tieringRules;
+    }
+
+    /**
+     * Encode the record.
+     * @param r the sink record, its value should be a Map or a Struct
+     * @return the encoded record
+     * @throws IOException if the value can not be formatted to JSON
+     */
+    public EncodedRecord encode(SinkRecord r) throws IOException {
+        if (r.value() instanceof Struct) {
+            return encode(r, (Struct) r.value());
+        }
+        Map<?, ?> value = (Map<?, ?>) r.value();
+        String keyField = keyFields.get(r.topic());
+        String partitionField = partitionFields.get(r.topic());
+
+        String key = null;
+        String partition = null;
+        String url = null;
+        boolean hive = false;
+
+        buffer.reset();
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(buffer)) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : value.entrySet()) {
+                String name = String.valueOf(entry.getKey());
+                Object v = entry.getValue();
+
+                if (URL.equals(name)) {
+                    url = v == null ? null : v.toString();
+                } else if (HIVE.equals(name)) {
+                    hive = v == null ? false : Boolean.parseBoolean(v.toString());
+                } else if (!TYPE.equals(name)) {
+                    if (v != null && name.equals(keyField)) {
+                        key = v.toString();
+                    }
+                    if (v != null && partitionField != null && name.equalsIgnoreCase(partitionField)) {
+                        partition = v.toString();
+                    }
+                    generator.writeFieldName(name);
+                    writeValue(generator, v);
+                }
+            }
+            generator.writeEndObject();
+        }
+
+        if (url == null) {
+            url = defaultUrl(r, key);
+        }
+        return new EncodedRecord(r, buffer.toByteArray(), key, url, tieringRules.route(r.topic(), value, hive), partition);
+    }
+
+    private EncodedRecord encode(SinkRecord r, Struct value) throws IOException {
+        StructEncoder encoder = structEncoder(r.topic(), value.schema());
+        buffer.reset();
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(buffer)) {
+            encoder.write(generator, value);
+        }
+
+        String key = encoder.key(value);
+        String url = encoder.url(value);
+        if (url == null) {
+            url = defaultUrl(r, key);
+        }
+        return new EncodedRecord(r, buffer.toByteArray(), key, url,
+                tieringRules.route(r.topic(), value, encoder.hive(value)), encoder.partition(value));
+    }
+
+    /**
+     * @return the encoder of the schema, compiled on first use
+     */
+    private StructEncoder structEncoder(String topic, Schema schema) {
+        Map<Schema, StructEncoder> encoders = structEncoders.computeIfAbsent(topic, t -> new IdentityHashMap<>());
+        StructEncoder encoder = encoders.get(schema);
+        if (encoder != null) {
+            return encoder;
+        }
+        // A new instance of a known schema version reuses its encoder
+        for (StructEncoder compiled : encoders.values()) {
+            if (compiled.schema().equals(schema)) {
+                encoder = compiled;
+                break;
+            }
+        }
+        if (encoder == null) {
+            encoder = new StructEncoder(schema, keyFields.get(topic), partitionFields.get(topic));
+        }
+        if (encoders.size() >= MAX_SCHEMAS) {
+            encoders.clear();
+        }
+        encoders.put(schema, encoder);
+        return encoder;
+    }
+
+    /**
+     * Derive the url like Logstash does from the primary key, eg "/Position/{UniqueId}",
+     * or from the Kafka coordinates if the record has no key.
+     * @param r the sink record
+     * @param key the primary key, may be null
+     * @return the url
+     */
+    static String defaultUrl(SinkRecord r, String key) {
+        String topic = r.topic();
+        String collection = topic.isEmpty() ? topic : Character.toUpperCase(topic.charAt(0)) + topic.substring(1);
+        if (key != null) {
+            return "/" + collection + "/" + key;
+        }
+        return "/" + collection + "/kafka/" + r.kafkaPartition() + "/" + r.kafkaOffset();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object v) throws IOException {
+        if (v == null) {
+            generator.writeNull();
+        } else if (v instanceof String) {
+            generator.writeString((String) v);
+        } else if (v instanceof Boolean) {
+            generator.writeBoolean((Boolean) v);
+        } else if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            generator.writeNumber(((Number) v).longValue());
+        } else if (v instanceof Double) {
+            generator.writeNumber((Double) v);
+        } else if (v instanceof Float) {
+            generator.writeNumber((Float) v);
+        } else {
+            // Nested maps/lists and other types, let the mapper handle them
+            generator.writeObject(v);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retry failed writes on the worker threads, so that the writing threads keep writing the healthy batches.
+ * The n-th retry of a write waits between half and all of min(max backoff, backoff * 2^(n-1)), the random
+ * part spreads the retries of batches failed together.
+ * Each host has a circuit breaker, opened after consecutive failures of the host: while open, the retries
+ * of the host wait without being attempted, then a single retry probes the host, closing the breaker if it succeeds.
+ * Meanwhile a write can be sent to another host instead, if its caller knows how.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class RetryScheduler implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RetryScheduler.class);
+
+    /**
+     * A write to retry.
+     */
+    public interface Attempt {
+
+        /**
+         * Retry the write, synchronously.
+         * @throws Exception if the write failed
+         */
+        void run() throws Exception;
+    }
+
+    private final String name;
+    private final int maxRetries;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private final int breakerFailures;
+    private final long breakerOpenMs;
+    private final SinkMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    // Writes scheduled and not yet succeeded or exhausted
+    private int pending = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param name the tier name
+     * @param scheduler schedules the retries
+     * @param executor runs the retries
+     * @param maxRetries the number of retries of a write before giving up
+     * @param backoffMs the wait before the first retry
+     * @param maxBackoffMs the max wait between retries
+     * @param breakerFailures the consecutive failures of a host opening its circuit breaker
+     * @param breakerOpenMs the time a circuit breaker stays open before probing the host
+     * @param metrics the sink metrics, retries are counted under the tier name
+     */
+    public RetryScheduler(String name, ScheduledExecutorService scheduler, ExecutorService executor, int maxRetries,
+            long backoffMs, long maxBackoffMs, int breakerFailures, long breakerOpenMs, SinkMetrics metrics) {
+        this.name = name;
+        this.maxRetries = Math.max(1, maxRetries);
+        this.backoffMs = Math.max(1, backoffMs);
+        this.maxBackoffMs = Math.max(this.backoffMs, maxBackoffMs);
+        this.breakerFailures = Math.max(1, breakerFailures);
+        this.breakerOpenMs = breakerOpenMs;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Schedule the retries of a failed write. Also counts the failure in the circuit breaker of the host.
+     * @param host the host the write failed on
+     * @param attempt the write to retry
+     * @param exhausted called with the last failure if all retries failed
+     */
+    public void schedule(String host, Attempt attempt, Consumer<Throwable> exhausted) {
+        schedule(host, attempt, null, exhausted);
+    }
+
+    /**
+     * Schedule the retries of a failed write. Also counts the failure in the circuit breaker of the host.
+     * @param host the host the write failed on
+     * @param attempt the write to retry
+     * @param reroute called instead of waiting while the circuit breaker of the host is open,
+     * returns whether the write was handed to another host, null to always wait
+     * @param exhausted called with the last failure if all retries failed
+     */
+    public void schedule(String host, Attempt attempt, BooleanSupplier reroute, Consumer<Throwable> exhausted) {
+        failure(host);
+        synchronized (this) {
+            pending++;
+        }
+        Retry retry = new Retry(host, attempt, reroute, exhausted);
+        later(retry, retry.backoff());
+    }
+
+    /**
+     * Run the retry on the executor after the delay, the scheduler threads don't block.
+     */
+    private void later(Retry retry, long delayMs) {
+        try {
+            scheduler.schedule(() -> {
+                try {
+                    executor.execute(retry);
+                } catch (RejectedExecutionException e) {
+                    // Executor closed
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Scheduler closed
+        }
+    }
+
+    /**
+     * Called when a write to the host succeeded, closes its circuit breaker.
+     * @param host the host
+     */
+    public void success(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker != null) {
+            breaker.success();
+        }
+    }
+
+    /**
+     * Called when a write to the host failed.
+     * @param host the host
+     */
+    public void failure(String host) {
+        breakers.computeIfAbsent(host, CircuitBreaker::new).failure();
+    }
+
+    /**
+     * @param host the host
+     * @return whether the circuit breaker of the host is open
+     */
+    public boolean isOpen(String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        return breaker != null && breaker.isOpen();
+    }
+
+    /**
+     * @return the number of hosts whose circuit breaker is open
+     */
+    public int openCircuits() {
+        int open = 0;
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @return the number of writes waiting for a retry
+     */
+    public synchronized int pending() {
+        return pending;
+    }
+
+    /**
+     * Wait until all the scheduled writes succeeded or are exhausted.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (pending > 0 && !closed) {
+            wait(1000);
+        }
+    }
+
+    private synchronized void done() {
+        pending--;
+        if (pending == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop retrying. The writes not retried yet are not committed, Kafka redelivers them.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (pending > 0) {
+                logger.warn("{} retries closed with {} writes not retried", name, pending);
+            }
+            notifyAll();
+        }
+    }
+
+    private class Retry implements Runnable {
+
+        private final String host;
+        private final Attempt attempt;
+        private final BooleanSupplier reroute;
+        private final Consumer<Throwable> exhausted;
+        private int retries = 0;
+
+        private Retry(String host, Attempt attempt, BooleanSupplier reroute, Consumer<Throwable> exhausted) {
+            this.host = host;
+            this.attempt = attempt;
+            this.reroute = reroute;
+            this.exhausted = exhausted;
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                return;
+            }
+            CircuitBreaker breaker = breakers.computeIfAbsent(host, CircuitBreaker::new);
+            long wait = breaker.acquire();
+            if (wait > 0) {
+                if (reroute != null && reroute.getAsBoolean()) {
+                    logger.info("{} host {} is down, write sent to another host", name, host);
+                    done();
+                    return;
+                }
+                // Not a retry, don't count it
+                later(this, wait);
+                return;
+            }
+
+            retries++;
+            try {
+                metrics.retry(name);
+                attempt.run();
+                breaker.success();
+                done();
+            } catch (Throwable t) {
+                breaker.failure();
+                if (retries >= maxRetries) {
+                    logger.error("Retry write to {} host {} exhausted after {} retries", name, host, retries, t);
+                    done();
+                    exhausted.accept(t);
+                    return;
+                }
+                long backoff = backoff();
+                logger.warn("Retry write to {} host {} failed, will retry in {} ms", name, host, backoff, t);
+                later(this, backoff);
+            }
+        }
+
+        private long backoff() {
+            long cap = maxBackoffMs;
+            if (retries < 62 && backoffMs << retries > 0) {
+                cap = Math.min(maxBackoffMs, backoffMs << retries);
+            }
+            return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        }
+    }
+
+    private class CircuitBreaker {
+
+        private final String host;
+        private int failures = 0;
+        private boolean open = false;
+        private boolean probing = false;
+        private long openUntil = 0;
+
+        private CircuitBreaker(String host) {
+            this.host = host;
+        }
+
+        /**
+         * @return 0 if a write to the host can be attempted, otherwise the milliseconds to wait
+         */
+        private synchronized long acquire() {
+            if (!open) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            if (now < openUntil) {
+                return openUntil - now + ThreadLocalRandom.current().nextLong(backoffMs + 1);
+            }
+            if (probing) {
+                return backoffMs;
+            }
+            probing = true;
+            logger.info("Probe {} host {}", name, host);
+            return 0;
+        }
+
+        private synchronized void success() {
+            failures = 0;
+            probing = false;
+            if (open) {
+                open = false;
+                logger.info("{} host {} is back, close circuit breaker", name, host);
+            }
+        }
+
+        private synchronized void failure() {
+            failures++;
+            if (probing || (!open && failures >= breakerFailures)) {
+                if (!open) {
+                    logger.warn("{} host {} failed {} times in a row, open circuit breaker for {} ms",
+                            name, host, failures, breakerOpenMs);
+                }
+                open = true;
+                probing = false;
+                openUntil = System.currentTimeMillis() + breakerOpenMs;
+            }
+        }
+
+        private synchronized boolean isOpen() {
+            return open;
+        }
+    }
+}
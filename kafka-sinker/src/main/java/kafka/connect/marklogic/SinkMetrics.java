@@ -0,0 +1,187 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Count;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.Percentiles.BucketSizing;
+import org.apache.kafka.common.metrics.stats.Rate;
+import org.apache.kafka.common.metrics.stats.Total;
+
+/**
+ * Metrics of a sink writer, exposed through JMX under the "kafka.connect.marklogic" domain.
+ * Each writer instance is tagged with the connector name and a writer id.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class SinkMetrics implements Closeable {
+
+    public static final String MARKLOGIC = "marklogic";
+    public static final String HIVE = "hive";
+
+    private static final String JMX_PREFIX = "kafka.connect.marklogic";
+    private static final String GROUP = "sink-writer-metrics";
+
+    // Latencies above this are counted in the last percentile bucket, the avg and max metrics keep them exact
+    private static final double MAX_LATENCY_MS = 10 * 1000;
+    // 4 bytes per bucket: 2000 linear buckets of 5 ms
+    private static final int PERCENTILES_SIZE_BYTES = 8000;
+
+    private static final AtomicInteger WRITER_ID = new AtomicInteger();
+
+    private final Metrics metrics = new Metrics();
+    private final Map<String, String> tags = new LinkedHashMap<>();
+
+    private final Map<String, TierSensors> tiers = new LinkedHashMap<>();
+    private final Sensor txnBatchFetches;
+    private final Sensor duplicates;
+
+    public SinkMetrics(String connector) {
+        metrics.addReporter(new JmxReporter(JMX_PREFIX));
+        tags.put("connector", connector);
+        tags.put("writer", String.valueOf(WRITER_ID.incrementAndGet()));
+
+        tiers.put(MARKLOGIC, new TierSensors(MARKLOGIC));
+        tiers.put(HIVE, new TierSensors(HIVE));
+
+        txnBatchFetches = metrics.sensor("hive-txn-batch-fetches");
+        txnBatchFetches.add(name("hive-txn-batch-fetch-total", "Hive transaction batches fetched"), new Total());
+        txnBatchFetches.add(name("hive-txn-batch-fetch-rate", "Hive transaction batches fetched per second"),
+                new Rate(new Count()));
+
+        duplicates = metrics.sensor("duplicates");
+        duplicates.add(name("duplicate-total", "Redelivered records skipped as already written"), new Total());
+        duplicates.add(name("duplicate-rate", "Redelivered records skipped per second"), new Rate(new Count()));
+    }
+
+    /**
+     * Register a gauge.
+     * @param name the metric name
+     * @param description the metric description
+     * @param extraTags tags added to the writer tags, may be empty
+     * @param gauge the gauge
+     */
+    public void gauge(String name, String description, Map<String, String> extraTags, Measurable gauge) {
+        Map<String, String> gaugeTags = new LinkedHashMap<>(tags);
+        gaugeTags.putAll(extraTags);
+        metrics.addMetric(metrics.metricName(name, GROUP, description, gaugeTags), gauge);
+    }
+
+    /**
+     * A batch of records durably written to a tier.
+     * @param tier the tier
+     * @param records the number of records in the batch
+     * @param bytes the bytes of records
+     * @param oldestTimestamp the Kafka timestamp of the oldest record, null if unknown
+     */
+    public void written(String tier, int records, long bytes, Long oldestTimestamp) {
+        TierSensors sensors = tiers.get(tier);
+        sensors.records.record(records);
+        sensors.bytes.record(bytes);
+        if (oldestTimestamp != null && oldestTimestamp >= 0) {
+            sensors.lag.record(Math.max(0, System.currentTimeMillis() - oldestTimestamp));
+        }
+    }
+
+    /**
+     * A batch commit (MarkLogic batch write or Hive transaction commit) completed.
+     * @param tier the tier
+     * @param latencyMs the commit latency
+     */
+    public void commitLatency(String tier, long latencyMs) {
+        tiers.get(tier).commitLatency.record(latencyMs);
+    }
+
+    /**
+     * A batch write is retried.
+     * @param tier the tier
+     */
+    public void retry(String tier) {
+        tiers.get(tier).retries.record();
+    }
+
+    /**
+     * A transaction is aborted.
+     * @param tier the tier
+     */
+    public void abort(String tier) {
+        tiers.get(tier).aborts.record();
+    }
+
+    /**
+     * A redelivered record is skipped as already written.
+     */
+    public void duplicate() {
+        duplicates.record();
+    }
+
+    /**
+     * A new Hive transaction batch is fetched.
+     */
+    public void txnBatchFetched() {
+        txnBatchFetches.record();
+    }
+
+    /**
+     * Unregister all metrics.
+     */
+    @Override
+    public void close() {
+        metrics.close();
+    }
+
+    private MetricName name(String name, String description) {
+        return metrics.metricName(name, GROUP, description, tags);
+    }
+
+    private class TierSensors {
+
+        private final Sensor records;
+        private final Sensor bytes;
+        private final Sensor commitLatency;
+        private final Sensor lag;
+        private final Sensor retries;
+        private final Sensor aborts;
+
+        private TierSensors(String tier) {
+            records = metrics.sensor(tier + "-records");
+            records.add(name(tier + "-records-total", "Records written to " + tier), new Total());
+            records.add(name(tier + "-records-rate", "Records written to " + tier + " per second"), new Rate());
+            records.add(name(tier + "-batch-size-avg", "Average records per batch written to " + tier), new Avg());
+            records.add(name(tier + "-batch-size-max", "Max records per batch written to " + tier), new Max());
+
+            bytes = metrics.sensor(tier + "-bytes");
+            bytes.add(name(tier + "-bytes-total", "Bytes written to " + tier), new Total());
+            bytes.add(name(tier + "-bytes-rate", "Bytes written to " + tier + " per second"), new Rate());
+
+            commitLatency = metrics.sensor(tier + "-commit-latency");
+            commitLatency.add(name(tier + "-commit-latency-avg", "Average " + tier + " commit latency in ms"), new Avg());
+            commitLatency.add(name(tier + "-commit-latency-max", "Max " + tier + " commit latency in ms"), new Max());
+            commitLatency.add(new Percentiles(PERCENTILES_SIZE_BYTES, MAX_LATENCY_MS, BucketSizing.LINEAR,
+                    new Percentile(name(tier + "-commit-latency-p50", "Median " + tier + " commit latency in ms"), 50),
+                    new Percentile(name(tier + "-commit-latency-p99", "99th percentile " + tier + " commit latency in ms"), 99)));
+
+            lag = metrics.sensor(tier + "-lag");
+            lag.add(name(tier + "-lag-avg", "Average ms from Kafka record timestamp to durable write in " + tier), new Avg());
+            lag.add(name(tier + "-lag-max", "Max ms from Kafka record timestamp to durable write in " + tier), new Max());
+
+            retries = metrics.sensor(tier + "-retries");
+            retries.add(name(tier + "-retry-total", "Batch write retries to " + tier), new Total());
+            retries.add(name(tier + "-retry-rate", "Batch write retries to " + tier + " per second"), new Rate(new Count()));
+
+            aborts = metrics.sensor(tier + "-aborts");
+            aborts.add(name(tier + "-abort-total", "Transactions aborted in " + tier), new Total());
+        }
+    }
+}
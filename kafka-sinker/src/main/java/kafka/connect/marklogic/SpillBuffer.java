@@ -0,0 +1,245 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hand records to a tier, or append them to a spill log while the tier is stalled.
+ * Once the tier recovers, spilled records are replayed in order, new records keep going
+ * to the log until it is drained so that the order is kept.
+ * While stalled, a spilled record is replayed every probe interval to find out if the tier is back.
+ * Records are replayed by tasks of the shared executor, run when the tier recovers or writes records,
+ * and by the probes timed on the shared scheduler. No thread is held while nothing is spilled.
+ * Spilling is disabled when no spill directory is configured.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class SpillBuffer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpillBuffer.class);
+
+    /**
+     * The tier records are written to.
+     */
+    public interface Tier {
+
+        /**
+         * Write a record to the tier, it should not block.
+         * @param record the encoded record
+         */
+        void write(EncodedRecord record);
+
+        /**
+         * @return the number of records written to the tier but not yet durable
+         */
+        long inFlight();
+    }
+
+    private final String name;
+    private final Tier tier;
+    private final OffsetTracker offsetTracker;
+    private final long maxReplayInFlight;
+    private final long probeIntervalMs;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+
+    // Null if spilling is disabled
+    private final SpillLog log;
+
+    private boolean spilling = false;
+    private boolean stalled = false;
+    private boolean closed = false;
+    // Whether a replay is submitted or running, and whether another one was requested meanwhile
+    private boolean replaying = false;
+    private boolean requested = false;
+    // Replays a record every probe interval while stalled, null if not stalled
+    private ScheduledFuture<?> probe;
+
+    /**
+     * Constructor.
+     * @param name the tier name
+     * @param spillDir the parent directory of spill logs, null or empty to disable spilling
+     * @param segmentBytes the size of spill log segment files
+     * @param tier the tier
+     * @param offsetTracker the offset tracker, spilled records don't count as buffered
+     * @param maxReplayInFlight replay only while the tier has less records in flight
+     * @param probeIntervalMs the interval to replay a record while the tier is stalled
+     * @param scheduler times the probes
+     * @param executor runs the replays
+     * @throws IOException if failed to create the spill directory
+     */
+    public SpillBuffer(String name, String spillDir, int segmentBytes, Tier tier, OffsetTracker offsetTracker,
+            long maxReplayInFlight, long probeIntervalMs, ScheduledExecutorService scheduler, ExecutorService executor)
+            throws IOException {
+        this.name = name;
+        this.tier = tier;
+        this.offsetTracker = offsetTracker;
+        this.maxReplayInFlight = maxReplayInFlight;
+        this.probeIntervalMs = Math.max(1, probeIntervalMs);
+        this.scheduler = scheduler;
+        this.executor = executor;
+
+        if (spillDir == null || spillDir.trim().isEmpty()) {
+            this.log = null;
+            return;
+        }
+
+        // Each writer has its own log, it is not reused after restart
+        this.log = new SpillLog(new File(spillDir, name.toLowerCase() + "-" + UUID.randomUUID()), segmentBytes);
+    }
+
+    /**
+     * Write the record to the tier, or to the spill log if the tier is stalled or the log is not drained yet.
+     * @param record the encoded record
+     */
+    public void add(EncodedRecord record) {
+        if (log != null) {
+            synchronized (this) {
+                if (spilling) {
+                    try {
+                        log.append(record);
+                        offsetTracker.spilled(record);
+                        return;
+                    } catch (IOException e) {
+                        logger.error("Failed to spill record to " + name + " log, write it directly", e);
+                    }
+                }
+            }
+        }
+        tier.write(record);
+    }
+
+    /**
+     * Called by the tier when a write failed.
+     */
+    public synchronized void stall() {
+        if (log == null || stalled) {
+            return;
+        }
+        stalled = true;
+        spilling = true;
+        logger.warn("{} stalled, spill records to log", name);
+        if (!closed) {
+            try {
+                probe = scheduler.scheduleWithFixedDelay(this::submitReplay, probeIntervalMs, probeIntervalMs,
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Scheduler closed
+            }
+        }
+    }
+
+    /**
+     * Called by the tier when a write succeeded, its records in flight went down.
+     */
+    public synchronized void recover() {
+        if (!spilling) {
+            return;
+        }
+        if (stalled) {
+            stalled = false;
+            cancelProbe();
+            logger.info("{} recovered, replay {} spilled records", name, log.size());
+        }
+        submitReplay();
+    }
+
+    private void cancelProbe() {
+        if (probe != null) {
+            probe.cancel(false);
+            probe = null;
+        }
+    }
+
+    /**
+     * @return the number of spilled records not replayed yet
+     */
+    public long spilled() {
+        return log == null ? 0 : log.size();
+    }
+
+    /**
+     * Submit a replay, unless one is submitted or running.
+     */
+    private synchronized void submitReplay() {
+        if (closed || !spilling) {
+            return;
+        }
+        if (replaying) {
+            requested = true;
+            return;
+        }
+        replaying = true;
+        try {
+            executor.execute(this::replay);
+        } catch (RejectedExecutionException e) {
+            // Executor closed
+            replaying = false;
+        }
+    }
+
+    /**
+     * Replay the spilled records while the tier has room for them, or a single record to probe a stalled tier.
+     */
+    private void replay() {
+        try {
+            boolean probing;
+            do {
+                EncodedRecord record;
+                synchronized (this) {
+                    probing = stalled;
+                    if (closed || !spilling || (!probing && tier.inFlight() >= maxReplayInFlight)) {
+                        // The next write of the tier or the next probe replays the rest
+                        return;
+                    }
+                    record = log.poll();
+                    if (record == null) {
+                        if (!stalled) {
+                            // Drained, write new records directly from now on
+                            spilling = false;
+                            logger.info("{} spill log drained", name);
+                        }
+                        return;
+                    }
+                    offsetTracker.unspilled(record);
+                }
+                tier.write(record);
+            } while (!probing);
+        } finally {
+            synchronized (this) {
+                replaying = false;
+                if (requested) {
+                    requested = false;
+                    submitReplay();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop replaying and delete the spill log. Spilled records are not committed, Kafka redelivers them.
+     */
+    @Override
+    public void close() {
+        if (log == null) {
+            return;
+        }
+        synchronized (this) {
+            closed = true;
+            cancelProbe();
+        }
+        if (log.size() > 0) {
+            logger.warn("{} spill log closed with {} records not replayed", name, log.size());
+        }
+        log.close();
+    }
+}
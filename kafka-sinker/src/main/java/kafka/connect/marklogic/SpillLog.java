@@ -0,0 +1,199 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kafka.connect.marklogic.TieringRules.Route;
+
+/**
+ * Append-only log of encoded records, stored in memory-mapped segment files under a directory.
+ * Records are polled back in the order they were appended, fully read segments are deleted.
+ * The log only lives as long as its writer: offsets of spilled records are not committed,
+ * so Kafka redelivers them if the process dies, and the directory is deleted on close.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class SpillLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpillLog.class);
+
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final Route[] ROUTES = Route.values();
+
+    private final File dir;
+    private final int segmentBytes;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+    private long size = 0;
+
+    public SpillLog(File dir, int segmentBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create spill directory: " + dir);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Append a record at the end of the log.
+     * @param record the encoded record
+     * @throws IOException if failed to create a new segment
+     */
+    public synchronized void append(EncodedRecord record) throws IOException {
+        SinkRecord r = record.getRecord();
+        byte[] topic = r.topic().getBytes(StandardCharsets.UTF_8);
+        byte[] key = record.getKey() == null ? null : record.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] url = record.getUrl() == null ? null : record.getUrl().getBytes(StandardCharsets.UTF_8);
+        byte[] partition = record.getPartition() == null ? null : record.getPartition().getBytes(StandardCharsets.UTF_8);
+        byte[] json = record.getJson();
+
+        // topic, partition, offset, timestamp, key, url, route, Hive partition, json
+        int length = 4 + topic.length + 4 + 8 + 8 + 4 + (key == null ? 0 : key.length)
+                + 4 + (url == null ? 0 : url.length) + 1 + 4 + (partition == null ? 0 : partition.length)
+                + 4 + json.length;
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.buffer.remaining() < 4 + length) {
+            segment = new Segment(new File(dir, String.format("%020d.spill", nextSegmentId++)),
+                    Math.max(segmentBytes, 4 + length));
+            segments.addLast(segment);
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(length);
+        putBytes(buffer, topic);
+        buffer.putInt(r.kafkaPartition());
+        buffer.putLong(r.kafkaOffset());
+        buffer.putLong(r.timestamp() == null ? NO_TIMESTAMP : r.timestamp());
+        putBytes(buffer, key);
+        putBytes(buffer, url);
+        buffer.put((byte) record.getRoute().ordinal());
+        putBytes(buffer, partition);
+        putBytes(buffer, json);
+        segment.writePosition = buffer.position();
+        size++;
+    }
+
+    /**
+     * Poll the first record of the log.
+     * @return the first record, null if the log is empty
+     */
+    public synchronized EncodedRecord poll() {
+        Segment segment = segments.peekFirst();
+        while (segment != null && segment.readPosition == segment.writePosition) {
+            if (segment == segments.peekLast()) {
+                // Still appending to it
+                return null;
+            }
+            segments.pollFirst().delete();
+            segment = segments.peekFirst();
+        }
+        if (segment == null) {
+            return null;
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int writePosition = buffer.position();
+        buffer.position(segment.readPosition);
+
+        int length = buffer.getInt();
+        String topic = getString(buffer);
+        int partition = buffer.getInt();
+        long offset = buffer.getLong();
+        long timestamp = buffer.getLong();
+        String key = getString(buffer);
+        String url = getString(buffer);
+        Route route = ROUTES[buffer.get()];
+        String hivePartition = getString(buffer);
+        byte[] json = getBytes(buffer);
+
+        segment.readPosition += 4 + length;
+        buffer.position(writePosition);
+        size--;
+
+        SinkRecord r = new SinkRecord(topic, partition, null, null, null, null, offset,
+                timestamp == NO_TIMESTAMP ? null : timestamp,
+                timestamp == NO_TIMESTAMP ? TimestampType.NO_TIMESTAMP_TYPE : TimestampType.CREATE_TIME);
+        return new EncodedRecord(r, json, key, url, route, hivePartition);
+    }
+
+    /**
+     * @return the number of records in the log
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Delete all segments and the directory.
+     */
+    @Override
+    public synchronized void close() {
+        while (!segments.isEmpty()) {
+            segments.pollFirst().delete();
+        }
+        size = 0;
+        if (!dir.delete()) {
+            logger.warn("Failed to delete spill directory: {}", dir);
+        }
+    }
+
+    private static void putBytes(MappedByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static byte[] getBytes(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String getString(MappedByteBuffer buffer) {
+        byte[] bytes = getBytes(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition = 0;
+        private int readPosition = 0;
+
+        private Segment(File file, int size) throws IOException {
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        private void delete() {
+            // The mapping stays valid after the channel is closed, it is released with the buffer
+            if (!file.delete()) {
+                logger.warn("Failed to delete spill segment: {}", file);
+            }
+        }
+    }
+}
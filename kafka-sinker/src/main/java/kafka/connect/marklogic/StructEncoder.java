@@ -0,0 +1,281 @@
+package kafka.connect.marklogic;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Encode the Struct values of a schema to JSON, compiled once per schema: the field names are serialized once,
+ * each field gets a writer for its type, and the type/hive/url, primary key and partition fields are found by index,
+ * so that encoding a value only walks its fields in schema order.
+ * Logical dates, times and timestamps are written as ISO strings, decimals as numbers, bytes as base64.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+class StructEncoder {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Write a non null value of a schema.
+     */
+    private interface ValueWriter {
+
+        void write(JsonGenerator generator, Object value) throws IOException;
+    }
+
+    private final Schema schema;
+    // The written fields, in schema order
+    private final Field[] fields;
+    private final SerializableString[] names;
+    private final ValueWriter[] writers;
+
+    // The field indexes in the schema, -1 if absent
+    private final int url;
+    private final int hive;
+    private final int key;
+    private final int partition;
+
+    /**
+     * Compile the encoder of a record value schema.
+     * @param schema the struct schema
+     * @param keyField the primary key field, null if none
+     * @param partitionField the Hive partition field, matched ignoring case, null if none
+     */
+    StructEncoder(Schema schema, String keyField, String partitionField) {
+        this(schema, keyField, partitionField, true);
+    }
+
+    private StructEncoder(Schema schema, String keyField, String partitionField, boolean record) {
+        this.schema = schema;
+        int url = -1;
+        int hive = -1;
+        int key = -1;
+        int partition = -1;
+        int written = 0;
+        List<Field> all = schema.fields();
+        Field[] fields = new Field[all.size()];
+        for (Field field : all) {
+            String name = field.name();
+            if (record && RecordEncoder.URL.equals(name)) {
+                url = field.index();
+            } else if (record && RecordEncoder.HIVE.equals(name)) {
+                hive = field.index();
+            } else if (!record || !RecordEncoder.TYPE.equals(name)) {
+                if (name.equals(keyField)) {
+                    key = field.index();
+                }
+                if (partitionField != null && name.equalsIgnoreCase(partitionField)) {
+                    partition = field.index();
+                }
+                fields[written++] = field;
+            }
+        }
+        this.fields = new Field[written];
+        this.names = new SerializableString[written];
+        this.writers = new ValueWriter[written];
+        for (int i = 0; i < written; i++) {
+            this.fields[i] = fields[i];
+            this.names[i] = new SerializedString(fields[i].name());
+            this.writers[i] = writer(fields[i].schema());
+        }
+        this.url = url;
+        this.hive = hive;
+        this.key = key;
+        this.partition = partition;
+    }
+
+    /**
+     * @return the schema of the encoder
+     */
+    Schema schema() {
+        return schema;
+    }
+
+    /**
+     * Write the value as a JSON object, without the type/hive/url fields.
+     * @param generator the JSON generator
+     * @param value the value, of the encoder schema
+     * @throws IOException if failed to write
+     */
+    void write(JsonGenerator generator, Struct value) throws IOException {
+        generator.writeStartObject();
+        for (int i = 0; i < fields.length; i++) {
+            generator.writeFieldName(names[i]);
+            Object v = value.get(fields[i]);
+            if (v == null) {
+                generator.writeNull();
+            } else {
+                writers[i].write(generator, v);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * @param value the value
+     * @return the url field, null if absent
+     */
+    String url(Struct value) {
+        return text(value, url);
+    }
+
+    /**
+     * @param value the value
+     * @return the "hive" flag
+     */
+    boolean hive(Struct value) {
+        String flag = text(value, hive);
+        return flag != null && Boolean.parseBoolean(flag);
+    }
+
+    /**
+     * @param value the value
+     * @return the primary key field, null if absent
+     */
+    String key(Struct value) {
+        return text(value, key);
+    }
+
+    /**
+     * @param value the value
+     * @return the Hive partition field, null if absent
+     */
+    String partition(Struct value) {
+        return text(value, partition);
+    }
+
+    private String text(Struct value, int index) {
+        if (index < 0) {
+            return null;
+        }
+        Field field = schema.fields().get(index);
+        return text(field.schema(), value.get(field));
+    }
+
+    /**
+     * Format a value as a string, the way it is written to JSON for logical types and bytes.
+     * @param schema the value schema
+     * @param value the value, may be null
+     * @return the string, null if the value is null
+     */
+    static String text(Schema schema, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof java.util.Date && schema.name() != null) {
+            long ms = ((java.util.Date) value).getTime();
+            switch (schema.name()) {
+                case Date.LOGICAL_NAME:
+                    return LocalDate.ofEpochDay(Math.floorDiv(ms, DAY_MS)).toString();
+                case Time.LOGICAL_NAME:
+                    return LocalTime.ofNanoOfDay(Math.floorMod(ms, DAY_MS) * 1000000L).toString();
+                case Timestamp.LOGICAL_NAME:
+                    return Instant.ofEpochMilli(ms).toString();
+                default:
+                    break;
+            }
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof byte[] || value instanceof ByteBuffer) {
+            return Base64.getEncoder().encodeToString(bytes(value));
+        }
+        return value.toString();
+    }
+
+    private static byte[] bytes(Object value) {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static ValueWriter writer(final Schema schema) {
+        if (schema.name() != null) {
+            switch (schema.name()) {
+                case Decimal.LOGICAL_NAME:
+                    return (g, v) -> g.writeNumber((BigDecimal) v);
+                case Date.LOGICAL_NAME:
+                case Time.LOGICAL_NAME:
+                case Timestamp.LOGICAL_NAME:
+                    return (g, v) -> g.writeString(text(schema, v));
+                default:
+                    break;
+            }
+        }
+        switch (schema.type()) {
+            case INT8:
+            case INT16:
+            case INT32:
+            case INT64:
+                return (g, v) -> g.writeNumber(((Number) v).longValue());
+            case FLOAT32:
+                return (g, v) -> g.writeNumber((Float) v);
+            case FLOAT64:
+                return (g, v) -> g.writeNumber((Double) v);
+            case BOOLEAN:
+                return (g, v) -> g.writeBoolean((Boolean) v);
+            case STRING:
+                return (g, v) -> g.writeString((String) v);
+            case BYTES:
+                return (g, v) -> g.writeBinary(bytes(v));
+            case STRUCT:
+                final StructEncoder nested = new StructEncoder(schema, null, null, false);
+                return (g, v) -> nested.write(g, (Struct) v);
+            case ARRAY:
+                final ValueWriter element = writer(schema.valueSchema());
+                return (g, v) -> {
+                    g.writeStartArray();
+                    for (Object e : (List<?>) v) {
+                        if (e == null) {
+                            g.writeNull();
+                        } else {
+                            element.write(g, e);
+                        }
+                    }
+                    g.writeEndArray();
+                };
+            case MAP:
+                final Schema keySchema = schema.keySchema();
+                final ValueWriter value = writer(schema.valueSchema());
+                return (g, v) -> {
+                    g.writeStartObject();
+                    for (Map.Entry<?, ?> e : ((Map<?, ?>) v).entrySet()) {
+                        g.writeFieldName(String.valueOf(text(keySchema, e.getKey())));
+                        if (e.getValue() == null) {
+                            g.writeNull();
+                        } else {
+                            value.write(g, e.getValue());
+                        }
+                    }
+                    g.writeEndObject();
+                };
+            default:
+                return (g, v) -> g.writeObject(v);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package kafka.connect.marklogic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
+
+import kafka.connect.marklogic.sink.MarkLogicSinkConfig;
+
+/**
+ * Route records to MarkLogic, Hive or both tiers with rules from the connector config,
+ * instead of the "hive" flag stamped by Logstash. Each rule is "selector=tier":
+ * <ul>
+ * <li>selector: a topic or "*" for any topic, optionally followed by ".field&gt;age" to only match records
+ * whose date field is older than the age, eg "transaction.businessdate&gt;90d". The age unit is d (days) or h (hours).
+ * The field is matched ignoring case, its value is an ISO date like "2017-01-31" or epoch milliseconds.</li>
+ * <li>tier: marklogic, hive, both, or flag to use the "hive" flag of the record.</li>
+ * </ul>
+ * The first matching rule of the record topic wins, records matched by no rule use the "hive" flag.
+ * Rules are compiled once, routing a record only reads the fields it needs from the record value.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class TieringRules {
+
+    /**
+     * The tiers a record is written to.
+     */
+    public enum Route {
+        MARKLOGIC(true, false),
+        HIVE(false, true),
+        BOTH(true, true);
+
+        private final boolean marklogic;
+        private final boolean hive;
+
+        private Route(boolean marklogic, boolean hive) {
+            this.marklogic = marklogic;
+            this.hive = hive;
+        }
+
+        /**
+         * @return whether the record is written to MarkLogic
+         */
+        public boolean isMarkLogic() {
+            return marklogic;
+        }
+
+        /**
+         * @return whether the record is written to Hive
+         */
+        public boolean isHive() {
+            return hive;
+        }
+
+        /**
+         * @return the number of tiers the record is written to
+         */
+        public int tiers() {
+            return (marklogic ? 1 : 0) + (hive ? 1 : 0);
+        }
+    }
+
+    private static final String ANY_TOPIC = "*";
+    private static final String FLAG = "flag";
+    private static final long DAY_MS = 24L * 3600 * 1000;
+
+    // Topic to its rules followed by the "*" rules
+    private final Map<String, Rule[]> topicRules = new HashMap<>();
+    // The "*" rules, for the other topics
+    private final Rule[] anyTopicRules;
+
+    /**
+     * Compile the rules.
+     * @param rules the rules, in order
+     * @throws ConfigException if a rule is invalid
+     */
+    public TieringRules(List<String> rules) {
+        Map<String, List<Rule>> byTopic = new HashMap<>();
+        List<Rule> any = new ArrayList<>();
+        for (String rule : rules) {
+            Rule compiled = compile(rule.trim());
+            if (ANY_TOPIC.equals(compiled.topic)) {
+                any.add(compiled);
+            } else {
+                byTopic.computeIfAbsent(compiled.topic, t -> new ArrayList<>()).add(compiled);
+            }
+        }
+        for (Map.Entry<String, List<Rule>> entry : byTopic.entrySet()) {
+            List<Rule> list = entry.getValue();
+            list.addAll(any);
+            topicRules.put(entry.getKey(), list.toArray(new Rule[list.size()]));
+        }
+        anyTopicRules = any.toArray(new Rule[any.size()]);
+    }
+
+    private static Rule compile(String rule) {
+        int eq = rule.lastIndexOf('=');
+        if (eq <= 0 || eq == rule.length() - 1) {
+            throw invalid(rule, "Expected rules in the form selector=tier");
+        }
+        String selector = rule.substring(0, eq).trim();
+        String tier = rule.substring(eq + 1).trim().toLowerCase();
+
+        Route route;
+        if (FLAG.equals(tier)) {
+            route = null;
+        } else {
+            try {
+                route = Route.valueOf(tier.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw invalid(rule, "Unknown tier " + tier + ", expected marklogic, hive, both or flag");
+            }
+        }
+
+        int gt = selector.indexOf('>');
+        if (gt < 0) {
+            return new Rule(selector, null, 0, route);
+        }
+        int dot = selector.lastIndexOf('.', gt);
+        if (dot <= 0 || dot == gt - 1) {
+            throw invalid(rule, "Expected age conditions in the form topic.field>age");
+        }
+        String age = selector.substring(gt + 1).trim();
+        long unit;
+        if (age.endsWith("d")) {
+            unit = DAY_MS;
+        } else if (age.endsWith("h")) {
+            unit = DAY_MS / 24;
+        } else {
+            throw invalid(rule, "Expected age in days (d) or hours (h)");
+        }
+        try {
+            long maxAgeMs = Long.parseLong(age.substring(0, age.length() - 1).trim()) * unit;
+            return new Rule(selector.substring(0, dot).trim(), selector.substring(dot + 1, gt).trim(), maxAgeMs, route);
+        } catch (NumberFormatException e) {
+            throw invalid(rule, "Invalid age " + age);
+        }
+    }
+
+    private static ConfigException invalid(String rule, String message) {
+        return new ConfigException(MarkLogicSinkConfig.TIERING_RULES, rule, message);
+    }
+
+    /**
+     * Route a record.
+     * @param topic the record topic
+     * @param value the record value
+     * @param hiveFlag the "hive" flag of the record
+     * @return the tiers to write the record to
+     */
+    public Route route(String topic, Map<?, ?> value, boolean hiveFlag) {
+        Rule[] rules = topicRules.get(topic);
+        if (rules == null) {
+            rules = anyTopicRules;
+        }
+        if (rules.length > 0) {
+            long now = System.currentTimeMillis();
+            for (Rule rule : rules) {
+                if (rule.matches(value, now)) {
+                    return rule.route != null ? rule.route : flagRoute(hiveFlag);
+                }
+            }
+        }
+        return flagRoute(hiveFlag);
+    }
+
+    /**
+     * Route a record with a Struct value.
+     * @param topic the record topic
+     * @param value the record value
+     * @param hiveFlag the "hive" flag of the record
+     * @return the tiers to write the record to
+     */
+    public Route route(String topic, Struct value, boolean hiveFlag) {
+        Rule[] rules = topicRules.get(topic);
+        if (rules == null) {
+            rules = anyTopicRules;
+        }
+        if (rules.length > 0) {
+            long now = System.currentTimeMillis();
+            for (Rule rule : rules) {
+                if (rule.matches(value, now)) {
+                    return rule.route != null ? rule.route : flagRoute(hiveFlag);
+                }
+            }
+        }
+        return flagRoute(hiveFlag);
+    }
+
+    private static Route flagRoute(boolean hiveFlag) {
+        return hiveFlag ? Route.HIVE : Route.MARKLOGIC;
+    }
+
+    private static class Rule {
+
+        private final String topic;
+        // Null if the rule matches all records of the topic
+        private final String field;
+        private final long maxAgeMs;
+        // Null to use the "hive" flag
+        private final Route route;
+
+        // The field name as found in the records, records of a topic use the same case
+        private volatile String key;
+
+        private Rule(String topic, String field, long maxAgeMs, Route route) {
+            this.topic = topic;
+            this.field = field;
+            this.maxAgeMs = maxAgeMs;
+            this.route = route;
+            this.key = field;
+        }
+
+        private boolean matches(Map<?, ?> value, long now) {
+            if (field == null) {
+                return true;
+            }
+            Object v = value.get(key);
+            if (v == null) {
+                for (Map.Entry<?, ?> entry : value.entrySet()) {
+                    String name = String.valueOf(entry.getKey());
+                    if (field.equalsIgnoreCase(name)) {
+                        key = name;
+                        v = entry.getValue();
+                        break;
+                    }
+                }
+            }
+            long time = epochMillis(v);
+            return time != Long.MIN_VALUE && time < now - maxAgeMs;
+        }
+
+        private boolean matches(Struct value, long now) {
+            if (field == null) {
+                return true;
+            }
+            Field f = value.schema().field(key);
+            if (f == null) {
+                for (Field candidate : value.schema().fields()) {
+                    if (field.equalsIgnoreCase(candidate.name())) {
+                        key = candidate.name();
+                        f = candidate;
+                        break;
+                    }
+                }
+            }
+            long time = f == null ? Long.MIN_VALUE : epochMillis(value.get(f));
+            return time != Long.MIN_VALUE && time < now - maxAgeMs;
+        }
+    }
+
+    /**
+     * Parse a date value without allocating.
+     * @param v epoch milliseconds, a Date, or a string starting with an ISO date "yyyy-MM-dd"
+     * @return the epoch milliseconds at the start of the date (UTC), Long.MIN_VALUE if not a date
+     */
+    static long epochMillis(Object v) {
+        if (v instanceof Number) {
+            return ((Number) v).longValue();
+        }
+        if (v instanceof java.util.Date) {
+            return ((java.util.Date) v).getTime();
+        }
+        if (!(v instanceof CharSequence)) {
+            return Long.MIN_VALUE;
+        }
+        CharSequence s = (CharSequence) v;
+        if (s.length() < 10 || s.charAt(4) != '-' || s.charAt(7) != '-') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 7);
+        int day = digits(s, 8, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return Long.MIN_VALUE;
+        }
+        return epochDay(year, month, day) * DAY_MS;
+    }
+
+    private static int digits(CharSequence s, int start, int end) {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
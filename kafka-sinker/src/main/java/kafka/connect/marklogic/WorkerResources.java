@@ -0,0 +1,222 @@
+package kafka.connect.marklogic;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resources shared by the sink tasks of a worker: database clients, Hive streaming connections, and threads.
+ * A resource is created by the first task acquiring it, and closed once the last task released it,
+ * so that more tasks add throughput without adding connections and idle threads. A resource is created outside
+ * the lock of the resources, the tasks acquiring it meanwhile wait for it, not the tasks acquiring other resources.
+ * Thread safe.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public final class WorkerResources {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerResources.class);
+
+    private static final String SCHEDULER = "scheduler";
+    private static final String EXECUTOR = "executor";
+
+    // Resource key to the resource and its reference count
+    private static final Map<String, Shared<?>> resources = new HashMap<>();
+
+    private WorkerResources() {
+    }
+
+    /**
+     * A task's reference to a shared resource, close it to release the resource.
+     * @param <T> the resource type
+     */
+    public static final class Lease<T> implements Closeable {
+
+        private final String key;
+        private final T resource;
+        private boolean closed = false;
+
+        private Lease(String key, T resource) {
+            this.key = key;
+            this.resource = resource;
+        }
+
+        /**
+         * @return the shared resource
+         */
+        public T get() {
+            return resource;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(key);
+        }
+    }
+
+    private static final class Shared<T> {
+
+        // Completed once created by the first task acquiring it
+        private final CompletableFuture<T> resource = new CompletableFuture<>();
+        private final Consumer<? super T> closer;
+        private int references = 0;
+
+        private Shared(Consumer<? super T> closer) {
+            this.closer = closer;
+        }
+    }
+
+    /**
+     * Acquire a shared resource, create it if no task holds it.
+     * @param key the resource key, resources created from the same settings have the same key
+     * @param factory creates the resource
+     * @param closer closes the resource once released by all the tasks
+     * @return the lease of the resource
+     * @throws RuntimeException the failure of the factory, also thrown to the tasks waiting for the resource
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Lease<T> acquire(String key, Supplier<? extends T> factory, Consumer<? super T> closer) {
+        Shared<T> shared;
+        boolean create = false;
+        synchronized (WorkerResources.class) {
+            shared = (Shared<T>) resources.get(key);
+            if (shared == null) {
+                shared = new Shared<T>(closer);
+                resources.put(key, shared);
+                create = true;
+            }
+            shared.references++;
+        }
+
+        if (create) {
+            // Outside the lock, creating may connect to remote services
+            try {
+                shared.resource.complete(factory.get());
+                logger.info("Created worker resource {}", key);
+            } catch (RuntimeException | Error e) {
+                synchronized (WorkerResources.class) {
+                    resources.remove(key, shared);
+                }
+                shared.resource.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return new Lease<>(key, shared.resource.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void release(String key) {
+        Shared<?> shared;
+        synchronized (WorkerResources.class) {
+            shared = resources.get(key);
+            if (shared == null || --shared.references > 0) {
+                return;
+            }
+            resources.remove(key);
+        }
+        // Outside the lock, closing may wait for the threads of the resource
+        logger.info("Closing worker resource {}", key);
+        close(shared);
+    }
+
+    private static <T> void close(Shared<T> shared) {
+        try {
+            shared.closer.accept(shared.resource.getNow(null));
+        } catch (RuntimeException e) {
+            logger.error("Failed to close worker resource", e);
+        }
+    }
+
+    /**
+     * The scheduler of the periodic tasks, eg heartbeats. Scheduled tasks should not block,
+     * they hand blocking work to {@link #executor()}.
+     * @return the lease of the shared scheduler
+     */
+    public static Lease<ScheduledExecutorService> scheduler() {
+        return acquire(SCHEDULER, () -> {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                    Math.max(2, Runtime.getRuntime().availableProcessors() / 2), daemonThreads("sink-scheduler"));
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }, ExecutorService::shutdownNow);
+    }
+
+    /**
+     * The executor of the blocking work, eg flushes. Threads are created on demand and end when idle for a minute.
+     * @return the lease of the shared executor
+     */
+    public static Lease<ExecutorService> executor() {
+        return acquire(EXECUTOR, () -> new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), daemonThreads("sink-worker")), ExecutorService::shutdownNow);
+    }
+
+    /**
+     * Run a task periodically on the executor, a run is skipped while the previous one is still running.
+     * @param scheduler the scheduler
+     * @param executor the executor running the task
+     * @param task the task
+     * @param periodMs the period in milliseconds
+     * @return the future of the schedule, cancel it to stop running the task
+     */
+    public static ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, final ExecutorService executor,
+            final Runnable task, long periodMs) {
+        final AtomicBoolean running = new AtomicBoolean();
+        return scheduler.scheduleWithFixedDelay(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Scheduled task failed", e);
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Executor closed
+                running.set(false);
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
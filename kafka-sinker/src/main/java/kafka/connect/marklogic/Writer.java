@@ -2,7 +2,11 @@ package kafka.connect.marklogic;
 
 import java.io.Closeable;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.connect.sink.SinkRecord;
 
 /**
@@ -13,7 +17,8 @@ import org.apache.kafka.connect.sink.SinkRecord;
 public interface Writer extends Closeable {
 	
     /**
-     * Write records.
+     * Write records. A writer reconnects a failed backend on its own, RetriableException only makes the task
+     * retry the same records after the backoff, the writer is not rebuilt.
      * @param records the records to write
      */
 	void write(final Collection<SinkRecord> records);
@@ -22,4 +27,36 @@ public interface Writer extends Closeable {
 	 * Flush.
 	 */
 	void flush();
+
+	/**
+	 * Get the offsets that are safe to commit, i.e. all records before them are durably written.
+	 * By default flush and commit the current offsets.
+	 * @param currentOffsets the current offsets of the task
+	 * @return the offsets to commit
+	 */
+	default Map<TopicPartition, OffsetAndMetadata> preCommit(final Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+	    flush();
+	    return currentOffsets;
+	}
+
+	/**
+	 * @return the number of records written but not yet durable, used to pause consumption
+	 */
+	default long bufferedRecords() {
+	    return 0;
+	}
+
+	/**
+	 * @return the bytes of records written but not yet durable, used to pause consumption
+	 */
+	default long bufferedBytes() {
+	    return 0;
+	}
+
+	/**
+	 * @return the partitions having records written but not yet durable
+	 */
+	default Collection<TopicPartition> bufferedPartitions() {
+	    return Collections.emptyList();
+	}
 }
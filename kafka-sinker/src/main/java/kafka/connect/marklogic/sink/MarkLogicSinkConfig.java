@@ -1,13 +1,16 @@
 package kafka.connect.marklogic.sink;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import kafka.connect.marklogic.DefaultHiveStreamingFactory;
 import kafka.connect.marklogic.MarkLogicBufferedWriter;
 
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigDef.Importance;
 import org.apache.kafka.common.config.ConfigDef.Type;
+import org.apache.kafka.common.config.ConfigException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +26,97 @@ public class MarkLogicSinkConfig extends AbstractConfig {
     public static final String HIVE_THRIFT_URL = "hive.thrift.url";
     private static final String HIVE_THRIFT_URL_DOC = "Hive Thrift url";
 
+    public static final String HIVE_TOPIC_TABLES = "hive.topic.tables";
+    private static final String HIVE_TOPIC_TABLES_DEFAULT = "position:position,instrument:instrument,transaction:transaction";
+    private static final String HIVE_TOPIC_TABLES_DOC = "Comma separated topic:table pairs, mapping each Kafka topic to the Hive table it is written to";
+
+    public static final String HIVE_WRITERS_PER_TABLE = "hive.writers.per.table";
+    private static final int HIVE_WRITERS_PER_TABLE_DEFAULT = 1;
+    private static final String HIVE_WRITERS_PER_TABLE_DOC = "Number of parallel Hive streaming writers per table, each with its own connection and transaction batch";
+
+    public static final String HIVE_LINGER_MS = "hive.linger.ms";
+    private static final int HIVE_LINGER_MS_DEFAULT = 1000;
+    private static final String HIVE_LINGER_MS_DOC = "The maximum time in milliseconds a Hive transaction stays open after its first record before it is committed";
+
+    public static final String HIVE_MAX_BATCH_RECORDS = "hive.max.batch.records";
+    private static final int HIVE_MAX_BATCH_RECORDS_DEFAULT = 1000;
+    private static final String HIVE_MAX_BATCH_RECORDS_DOC = "The number of records that triggers a Hive transaction commit";
+
+    public static final String HIVE_MIN_BATCH_RECORDS = "hive.min.batch.records";
+    private static final int HIVE_MIN_BATCH_RECORDS_DEFAULT = 100;
+    private static final String HIVE_MIN_BATCH_RECORDS_DOC = "The min records per Hive transaction commit when sized to the incoming rate,"
+            + " the commits are sized between min and max batch records to commit about once per linger";
+
+    public static final String HIVE_TXNS_PER_BATCH_MIN = "hive.txns.per.batch.min";
+    private static final int HIVE_TXNS_PER_BATCH_MIN_DEFAULT = 10;
+    private static final String HIVE_TXNS_PER_BATCH_MIN_DOC = "The min transactions of a Hive transaction batch";
+
+    public static final String HIVE_TXNS_PER_BATCH_MAX = "hive.txns.per.batch.max";
+    private static final int HIVE_TXNS_PER_BATCH_MAX_DEFAULT = 100;
+    private static final String HIVE_TXNS_PER_BATCH_MAX_DOC = "The max transactions of a Hive transaction batch,"
+            + " a batch is sized for about a minute of commits";
+
+    public static final String HIVE_WRITE_MODE = "hive.write.mode";
+    public static final String HIVE_WRITE_MODE_APPEND = "append";
+    public static final String HIVE_WRITE_MODE_UPSERT = "upsert";
+    private static final String HIVE_WRITE_MODE_DEFAULT = HIVE_WRITE_MODE_APPEND;
+    private static final String HIVE_WRITE_MODE_DOC = "append to stream the records to the Hive tables, upsert to stream them to"
+            + " the {table}_staging tables and MERGE them into the tables on their primary key";
+
+    public static final String HIVE_JDBC_URL = "hive.jdbc.url";
+    private static final String HIVE_JDBC_URL_DEFAULT = "jdbc:hive2://localhost:10000/default";
+    private static final String HIVE_JDBC_URL_DOC = "HiveServer2 JDBC url the upsert merges run on";
+
+    public static final String HIVE_JDBC_USER = "hive.jdbc.user";
+    private static final String HIVE_JDBC_USER_DEFAULT = "";
+    private static final String HIVE_JDBC_USER_DOC = "HiveServer2 JDBC user";
+
+    public static final String HIVE_JDBC_PASSWORD = "hive.jdbc.password";
+    private static final String HIVE_JDBC_PASSWORD_DEFAULT = "";
+    private static final String HIVE_JDBC_PASSWORD_DOC = "HiveServer2 JDBC password";
+
+    public static final String HIVE_MERGE_INTERVAL_MS = "hive.merge.interval.ms";
+    private static final long HIVE_MERGE_INTERVAL_MS_DEFAULT = 300000;
+    private static final String HIVE_MERGE_INTERVAL_MS_DOC = "The interval in milliseconds between the upsert merges of a table";
+
+    public static final String HIVE_MERGE_RECORDS = "hive.merge.records";
+    private static final long HIVE_MERGE_RECORDS_DEFAULT = 1000000;
+    private static final String HIVE_MERGE_RECORDS_DOC = "The records committed to a staging table that trigger its merge before the interval";
+
+    public static final String HIVE_MAX_BATCH_BYTES = "hive.max.batch.bytes";
+    private static final long HIVE_MAX_BATCH_BYTES_DEFAULT = 16 * 1024 * 1024;
+    private static final String HIVE_MAX_BATCH_BYTES_DOC = "The size in bytes of written records that triggers a Hive transaction commit";
+
+    public static final String HIVE_PARTITION_FIELDS = "hive.partition.fields";
+    private static final String HIVE_PARTITION_FIELDS_DEFAULT = "";
+    private static final String HIVE_PARTITION_FIELDS_DOC = "Comma separated table:field pairs for the partitioned Hive tables, the date part of the record field is the partition value";
+
+    public static final String HIVE_PARTITION_IDLE_MS = "hive.partition.idle.ms";
+    private static final long HIVE_PARTITION_IDLE_MS_DEFAULT = 5 * 60 * 1000;
+    private static final String HIVE_PARTITION_IDLE_MS_DOC = "The writers of a Hive partition are closed when no record came for this many milliseconds";
+
+    public static final String HIVE_PARTITION_MAX_OPEN = "hive.partition.max.open";
+    private static final int HIVE_PARTITION_MAX_OPEN_DEFAULT = 32;
+    private static final String HIVE_PARTITION_MAX_OPEN_DOC = "The max number of partitions per Hive table having open writers, the least recently used are closed first";
+
+    public static final String HIVE_STREAMING_FACTORY = "hive.streaming.factory";
+    private static final String HIVE_STREAMING_FACTORY_DEFAULT = DefaultHiveStreamingFactory.class.getCanonicalName();
+    private static final String HIVE_STREAMING_FACTORY_DOC = "Class name of the factory creating Hive streaming connections and transaction batches";
+
+    public static final String TIERING_RULES = "tiering.rules";
+    private static final String TIERING_RULES_DEFAULT = "";
+    private static final String TIERING_RULES_DOC = "Comma separated selector=tier rules routing records to marklogic, hive, both or flag (the record hive flag), "
+            + "a selector is a topic or * optionally followed by .field>age, eg transaction.businessdate>90d=hive. "
+            + "The first matching rule wins, records matched by no rule use their hive flag";
+
+    public static final String TABLE_KEY_FIELDS = "table.key.fields";
+    private static final String TABLE_KEY_FIELDS_DEFAULT = "position:UniqueId,instrument:InstrumentId,transaction:UniqueId";
+    private static final String TABLE_KEY_FIELDS_DOC = "Comma separated topic:field pairs, the primary key field of each topic's records";
+
+    public static final String DEDUP_RECORDS_PER_PARTITION = "dedup.records.per.partition";
+    private static final int DEDUP_RECORDS_PER_PARTITION_DEFAULT = 50000;
+    private static final String DEDUP_RECORDS_PER_PARTITION_DOC = "Number of recently written records remembered per partition, a redelivered record with the same url and content is not written again. 0 to disable";
+
     public static final String CONNECTION_HOST = "ml.connection.host";
 	private static final String CONNECTION_HOST_DOC = "ml application server hostname";
 
@@ -42,29 +136,135 @@ public class MarkLogicSinkConfig extends AbstractConfig {
 	private static final int BATCH_SIZE_DEFAULT = 1000;
 	private static final String BATCH_SIZE_DOC = "ml batch size";
 
+    public static final String THREADS_PER_HOST = "ml.threads.per.host";
+    private static final int THREADS_PER_HOST_DEFAULT = 3;
+    private static final String THREADS_PER_HOST_DOC = "The MarkLogic batch writer threads per host having forests of the database";
+
+    public static final String FOREST_REFRESH_MS = "ml.forest.refresh.ms";
+    private static final long FOREST_REFRESH_MS_DEFAULT = 60 * 1000;
+    private static final String FOREST_REFRESH_MS_DOC = "The interval in milliseconds to read the forest configuration of the database again, to write to hosts joining the cluster";
+
 	public static final String WRITER_IMPL = "ml.writer.impl";
 	private static final String WRITER_IMPL_DEFAULT = MarkLogicBufferedWriter.class.getCanonicalName();
 	private static final String WRITER_IMPL_DOC = "ml writer implementation class name";
 
 	public static final String MAX_RETRIES = "max.retries";
     private static final int MAX_RETRIES_DEFAULT = 100;
-    private static final String MAX_RETRIES_DOC =  "The maximum number of times to retry on errors/exception before failing the task.";
+    private static final String MAX_RETRIES_DOC =  "The maximum number of times to retry on errors/exception before failing the task. Hive writes are retried with a doubling backoff until Hive is back, records being spilled meanwhile.";
 
 	public static final String RETRY_BACKOFF_MS = "retry.backoff.ms";
     private static final int RETRY_BACKOFF_MS_DEFAULT = 10000;
 	private static final String RETRY_BACKOFF_MS_DOC = "The time in milliseconds to wait following an error/exception before a retry attempt is made.";
 
+    public static final String RETRY_BACKOFF_MAX_MS = "retry.backoff.max.ms";
+    private static final long RETRY_BACKOFF_MAX_MS_DEFAULT = 5 * 60 * 1000;
+    private static final String RETRY_BACKOFF_MAX_MS_DOC = "The max time in milliseconds to wait between retries of a failed MarkLogic batch, the wait doubles from retry.backoff.ms up to it";
+
+    public static final String CIRCUIT_BREAKER_FAILURES = "circuit.breaker.failures";
+    private static final int CIRCUIT_BREAKER_FAILURES_DEFAULT = 5;
+    private static final String CIRCUIT_BREAKER_FAILURES_DOC = "The consecutive failed batch writes to a MarkLogic host opening its circuit breaker, the retries of the host then wait";
+
+    public static final String CIRCUIT_BREAKER_OPEN_MS = "circuit.breaker.open.ms";
+    private static final long CIRCUIT_BREAKER_OPEN_MS_DEFAULT = 30 * 1000;
+    private static final String CIRCUIT_BREAKER_OPEN_MS_DOC = "The time in milliseconds a circuit breaker stays open before a single retry probes the host";
+
+    public static final String BUFFER_HIGH_WATERMARK_RECORDS = "buffer.high.watermark.records";
+    private static final long BUFFER_HIGH_WATERMARK_RECORDS_DEFAULT = 100000;
+    private static final String BUFFER_HIGH_WATERMARK_RECORDS_DOC = "Pause consuming the buffered partitions when the writer buffers this many records";
+
+    public static final String BUFFER_LOW_WATERMARK_RECORDS = "buffer.low.watermark.records";
+    private static final long BUFFER_LOW_WATERMARK_RECORDS_DEFAULT = 20000;
+    private static final String BUFFER_LOW_WATERMARK_RECORDS_DOC = "Resume consuming the paused partitions when the writer buffers no more than this many records";
+
+    public static final String BUFFER_HIGH_WATERMARK_BYTES = "buffer.high.watermark.bytes";
+    private static final long BUFFER_HIGH_WATERMARK_BYTES_DEFAULT = 512L * 1024 * 1024;
+    private static final String BUFFER_HIGH_WATERMARK_BYTES_DOC = "Pause consuming the buffered partitions when the writer buffers this many bytes";
+
+    public static final String BUFFER_LOW_WATERMARK_BYTES = "buffer.low.watermark.bytes";
+    private static final long BUFFER_LOW_WATERMARK_BYTES_DEFAULT = 128L * 1024 * 1024;
+    private static final String BUFFER_LOW_WATERMARK_BYTES_DOC = "Resume consuming the paused partitions when the writer buffers no more than this many bytes";
+
+    public static final String SPILL_DIR = "spill.dir";
+    private static final String SPILL_DIR_DEFAULT = "";
+    private static final String SPILL_DIR_DOC = "Directory of the spill logs, records for a stalled tier are spilled there and replayed once it recovers. Spilling is disabled if empty";
+
+    public static final String SPILL_SEGMENT_BYTES = "spill.segment.bytes";
+    private static final int SPILL_SEGMENT_BYTES_DEFAULT = 64 * 1024 * 1024;
+    private static final String SPILL_SEGMENT_BYTES_DOC = "Size in bytes of each memory-mapped spill log segment file";
+
+    public static final String HIVE_BULK_PATH = "hive.bulk.path";
+    private static final String HIVE_BULK_PATH_DEFAULT = "/tmp/hive-bulk";
+    private static final String HIVE_BULK_PATH_DOC = "Local or HDFS path of the ORC files written by HiveBulkWriter, the {table}_bulk tables are created under it";
+
+    public static final String HIVE_BULK_TEMP_DIR = "hive.bulk.temp.dir";
+    private static final String HIVE_BULK_TEMP_DIR_DEFAULT = "";
+    private static final String HIVE_BULK_TEMP_DIR_DOC = "Local directory of the sorted runs spilled by HiveBulkWriter, the system temp dir if empty";
+
+    public static final String HIVE_BULK_BUFFER_BYTES = "hive.bulk.buffer.bytes";
+    private static final long HIVE_BULK_BUFFER_BYTES_DEFAULT = 256L * 1024 * 1024;
+    private static final String HIVE_BULK_BUFFER_BYTES_DOC = "Estimated memory in bytes of the rows HiveBulkWriter sorts before spilling them to a run, split between the tables";
+
+    public static final String HIVE_BULK_BUCKETS = "hive.bulk.buckets";
+    private static final int HIVE_BULK_BUCKETS_DEFAULT = 0;
+    private static final String HIVE_BULK_BUCKETS_DOC = "Number of buckets (ORC files) of each bulk load, 0 to use the bucket count of the Hive table";
+
+    public static final String HIVE_BULK_IDLE_MS = "hive.bulk.idle.ms";
+    private static final long HIVE_BULK_IDLE_MS_DEFAULT = 60000;
+    private static final String HIVE_BULK_IDLE_MS_DOC = "HiveBulkWriter finishes and registers the current load when no record came for this many milliseconds";
+
+    public static final String HIVE_BULK_LOAD_RECORDS = "hive.bulk.load.records";
+    private static final long HIVE_BULK_LOAD_RECORDS_DEFAULT = 10000000;
+    private static final String HIVE_BULK_LOAD_RECORDS_DOC = "HiveBulkWriter finishes and registers the current load at the next commit once it has this many records";
+
 	public static ConfigDef CONFIG_DEF = new ConfigDef()
             .define(HIVE_THRIFT_URL, Type.STRING, Importance.HIGH, HIVE_THRIFT_URL_DOC)
+            .define(HIVE_TOPIC_TABLES, Type.LIST, HIVE_TOPIC_TABLES_DEFAULT, Importance.MEDIUM, HIVE_TOPIC_TABLES_DOC)
+            .define(HIVE_WRITERS_PER_TABLE, Type.INT, HIVE_WRITERS_PER_TABLE_DEFAULT, Importance.MEDIUM, HIVE_WRITERS_PER_TABLE_DOC)
+            .define(HIVE_LINGER_MS, Type.INT, HIVE_LINGER_MS_DEFAULT, Importance.MEDIUM, HIVE_LINGER_MS_DOC)
+            .define(HIVE_MAX_BATCH_RECORDS, Type.INT, HIVE_MAX_BATCH_RECORDS_DEFAULT, Importance.MEDIUM, HIVE_MAX_BATCH_RECORDS_DOC)
+            .define(HIVE_MIN_BATCH_RECORDS, Type.INT, HIVE_MIN_BATCH_RECORDS_DEFAULT, Importance.LOW, HIVE_MIN_BATCH_RECORDS_DOC)
+            .define(HIVE_TXNS_PER_BATCH_MIN, Type.INT, HIVE_TXNS_PER_BATCH_MIN_DEFAULT, Importance.LOW, HIVE_TXNS_PER_BATCH_MIN_DOC)
+            .define(HIVE_TXNS_PER_BATCH_MAX, Type.INT, HIVE_TXNS_PER_BATCH_MAX_DEFAULT, Importance.LOW, HIVE_TXNS_PER_BATCH_MAX_DOC)
+            .define(HIVE_WRITE_MODE, Type.STRING, HIVE_WRITE_MODE_DEFAULT, Importance.MEDIUM, HIVE_WRITE_MODE_DOC)
+            .define(HIVE_JDBC_URL, Type.STRING, HIVE_JDBC_URL_DEFAULT, Importance.MEDIUM, HIVE_JDBC_URL_DOC)
+            .define(HIVE_JDBC_USER, Type.STRING, HIVE_JDBC_USER_DEFAULT, Importance.LOW, HIVE_JDBC_USER_DOC)
+            .define(HIVE_JDBC_PASSWORD, Type.STRING, HIVE_JDBC_PASSWORD_DEFAULT, Importance.LOW, HIVE_JDBC_PASSWORD_DOC)
+            .define(HIVE_MERGE_INTERVAL_MS, Type.LONG, HIVE_MERGE_INTERVAL_MS_DEFAULT, Importance.LOW, HIVE_MERGE_INTERVAL_MS_DOC)
+            .define(HIVE_MERGE_RECORDS, Type.LONG, HIVE_MERGE_RECORDS_DEFAULT, Importance.LOW, HIVE_MERGE_RECORDS_DOC)
+            .define(HIVE_MAX_BATCH_BYTES, Type.LONG, HIVE_MAX_BATCH_BYTES_DEFAULT, Importance.MEDIUM, HIVE_MAX_BATCH_BYTES_DOC)
+            .define(HIVE_PARTITION_FIELDS, Type.LIST, HIVE_PARTITION_FIELDS_DEFAULT, Importance.MEDIUM, HIVE_PARTITION_FIELDS_DOC)
+            .define(HIVE_PARTITION_IDLE_MS, Type.LONG, HIVE_PARTITION_IDLE_MS_DEFAULT, Importance.LOW, HIVE_PARTITION_IDLE_MS_DOC)
+            .define(HIVE_PARTITION_MAX_OPEN, Type.INT, HIVE_PARTITION_MAX_OPEN_DEFAULT, Importance.LOW, HIVE_PARTITION_MAX_OPEN_DOC)
+            .define(HIVE_STREAMING_FACTORY, Type.STRING, HIVE_STREAMING_FACTORY_DEFAULT, Importance.LOW, HIVE_STREAMING_FACTORY_DOC)
+            .define(TIERING_RULES, Type.LIST, TIERING_RULES_DEFAULT, Importance.MEDIUM, TIERING_RULES_DOC)
+            .define(TABLE_KEY_FIELDS, Type.LIST, TABLE_KEY_FIELDS_DEFAULT, Importance.MEDIUM, TABLE_KEY_FIELDS_DOC)
+            .define(DEDUP_RECORDS_PER_PARTITION, Type.INT, DEDUP_RECORDS_PER_PARTITION_DEFAULT, Importance.LOW, DEDUP_RECORDS_PER_PARTITION_DOC)
 			.define(CONNECTION_HOST, Type.STRING, Importance.HIGH, CONNECTION_HOST_DOC)
 			.define(CONNECTION_PORT, Type.INT, Importance.HIGH, CONNECTION_PORT_DOC)
 			.define(CONNECTION_USER, Type.STRING, Importance.HIGH, CONNECTION_USER_DOC)
 			.define(CONNECTION_PASSWORD, Type.STRING, Importance.LOW, CONNECTION_PASSWORD_DOC)
             .define(CONNECTION_DB, Type.STRING, Importance.HIGH, CONNECTION_DB_DOC)
 			.define(BATCH_SIZE, Type.INT, BATCH_SIZE_DEFAULT, Importance.MEDIUM, BATCH_SIZE_DOC)
+            .define(THREADS_PER_HOST, Type.INT, THREADS_PER_HOST_DEFAULT, Importance.MEDIUM, THREADS_PER_HOST_DOC)
+            .define(FOREST_REFRESH_MS, Type.LONG, FOREST_REFRESH_MS_DEFAULT, Importance.LOW, FOREST_REFRESH_MS_DOC)
 			.define(MAX_RETRIES, Type.INT, MAX_RETRIES_DEFAULT, Importance.MEDIUM, MAX_RETRIES_DOC)
 			.define(RETRY_BACKOFF_MS, Type.INT, RETRY_BACKOFF_MS_DEFAULT, Importance.MEDIUM, RETRY_BACKOFF_MS_DOC)
-			.define(WRITER_IMPL, Type.STRING, WRITER_IMPL_DEFAULT, Importance.MEDIUM, WRITER_IMPL_DOC);
+            .define(RETRY_BACKOFF_MAX_MS, Type.LONG, RETRY_BACKOFF_MAX_MS_DEFAULT, Importance.LOW, RETRY_BACKOFF_MAX_MS_DOC)
+            .define(CIRCUIT_BREAKER_FAILURES, Type.INT, CIRCUIT_BREAKER_FAILURES_DEFAULT, Importance.LOW, CIRCUIT_BREAKER_FAILURES_DOC)
+            .define(CIRCUIT_BREAKER_OPEN_MS, Type.LONG, CIRCUIT_BREAKER_OPEN_MS_DEFAULT, Importance.LOW, CIRCUIT_BREAKER_OPEN_MS_DOC)
+			.define(WRITER_IMPL, Type.STRING, WRITER_IMPL_DEFAULT, Importance.MEDIUM, WRITER_IMPL_DOC)
+            .define(BUFFER_HIGH_WATERMARK_RECORDS, Type.LONG, BUFFER_HIGH_WATERMARK_RECORDS_DEFAULT, Importance.MEDIUM, BUFFER_HIGH_WATERMARK_RECORDS_DOC)
+            .define(BUFFER_LOW_WATERMARK_RECORDS, Type.LONG, BUFFER_LOW_WATERMARK_RECORDS_DEFAULT, Importance.MEDIUM, BUFFER_LOW_WATERMARK_RECORDS_DOC)
+            .define(BUFFER_HIGH_WATERMARK_BYTES, Type.LONG, BUFFER_HIGH_WATERMARK_BYTES_DEFAULT, Importance.MEDIUM, BUFFER_HIGH_WATERMARK_BYTES_DOC)
+            .define(BUFFER_LOW_WATERMARK_BYTES, Type.LONG, BUFFER_LOW_WATERMARK_BYTES_DEFAULT, Importance.MEDIUM, BUFFER_LOW_WATERMARK_BYTES_DOC)
+            .define(SPILL_DIR, Type.STRING, SPILL_DIR_DEFAULT, Importance.LOW, SPILL_DIR_DOC)
+            .define(SPILL_SEGMENT_BYTES, Type.INT, SPILL_SEGMENT_BYTES_DEFAULT, Importance.LOW, SPILL_SEGMENT_BYTES_DOC)
+            .define(HIVE_BULK_PATH, Type.STRING, HIVE_BULK_PATH_DEFAULT, Importance.LOW, HIVE_BULK_PATH_DOC)
+            .define(HIVE_BULK_TEMP_DIR, Type.STRING, HIVE_BULK_TEMP_DIR_DEFAULT, Importance.LOW, HIVE_BULK_TEMP_DIR_DOC)
+            .define(HIVE_BULK_BUFFER_BYTES, Type.LONG, HIVE_BULK_BUFFER_BYTES_DEFAULT, Importance.LOW, HIVE_BULK_BUFFER_BYTES_DOC)
+            .define(HIVE_BULK_BUCKETS, Type.INT, HIVE_BULK_BUCKETS_DEFAULT, Importance.LOW, HIVE_BULK_BUCKETS_DOC)
+            .define(HIVE_BULK_IDLE_MS, Type.LONG, HIVE_BULK_IDLE_MS_DEFAULT, Importance.LOW, HIVE_BULK_IDLE_MS_DOC)
+            .define(HIVE_BULK_LOAD_RECORDS, Type.LONG, HIVE_BULK_LOAD_RECORDS_DEFAULT, Importance.LOW, HIVE_BULK_LOAD_RECORDS_DOC);
 
 	public MarkLogicSinkConfig(final Map<?, ?> originals) {
 
@@ -72,4 +272,21 @@ public class MarkLogicSinkConfig extends AbstractConfig {
 		logger.info("Original Configs {}", originals);
 	}
 
+    /**
+     * Parse a list config of "key:value" entries into a map, keeping the configured order.
+     * @param key the config key
+     * @return the parsed map
+     */
+    public Map<String, String> getMap(final String key) {
+        final Map<String, String> map = new LinkedHashMap<>();
+        for (String entry : getList(key)) {
+            final int index = entry.indexOf(':');
+            if (index <= 0 || index == entry.length() - 1) {
+                throw new ConfigException(key, entry, "Expected entries in the form key:value");
+            }
+            map.put(entry.substring(0, index).trim(), entry.substring(index + 1).trim());
+        }
+        return map;
+    }
+
 }
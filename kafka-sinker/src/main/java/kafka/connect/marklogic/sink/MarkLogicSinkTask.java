@@ -3,7 +3,9 @@ package kafka.connect.marklogic.sink;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import kafka.connect.marklogic.MarkLogicWriter;
 import kafka.connect.marklogic.Writer;
@@ -30,12 +32,18 @@ public class MarkLogicSinkTask extends SinkTask {
     private Map<String, String> config;
     private int maxRetires;
     private int remainingRetries;
+    private long highWatermarkRecords;
+    private long lowWatermarkRecords;
+    private long highWatermarkBytes;
+    private long lowWatermarkBytes;
+    private final Set<TopicPartition> paused = new HashSet<>();
 
     @Override
     public void put(final Collection<SinkRecord> records) {
 
         if (records.isEmpty()) {
             logger.debug("Empty record collection to process");
+            applyBackpressure();
             return;
         }
 
@@ -50,14 +58,44 @@ public class MarkLogicSinkTask extends SinkTask {
             if (maxRetires > 0 && remainingRetries == 0) {
                 throw new ConnectException("Retries exhausted, ending the task. Manual restart is required.");
             }else{
+                // Not rebuilt, the writer reconnects its failed tier on its own and keeps the buffered records
                 logger.warn("Setting the task timeout to {} ms upon RetriableException", timeout);
-                initWriter(config);
                 context.timeout(timeout);
                 remainingRetries--;
                 throw e;
             }
         }
         this.remainingRetries = maxRetires;
+        applyBackpressure();
+    }
+
+    /**
+     * Pause the partitions having buffered records when the writer buffers more than the high watermark,
+     * resume them once it drains below the low watermark. put() is still called while paused.
+     */
+    private void applyBackpressure() {
+        final long records = writer.bufferedRecords();
+        final long bytes = writer.bufferedBytes();
+
+        if (paused.isEmpty()) {
+            if (records >= highWatermarkRecords || bytes >= highWatermarkBytes) {
+                final Set<TopicPartition> assignment = context.assignment();
+                for (TopicPartition tp : writer.bufferedPartitions()) {
+                    if (assignment.contains(tp)) {
+                        paused.add(tp);
+                    }
+                }
+                if (!paused.isEmpty()) {
+                    logger.warn("Writer buffers {} records, {} bytes, pause partitions {}", records, bytes, paused);
+                    context.pause(paused.toArray(new TopicPartition[paused.size()]));
+                }
+            }
+        } else if (records <= lowWatermarkRecords && bytes <= lowWatermarkBytes) {
+            paused.retainAll(context.assignment());
+            logger.info("Writer buffers {} records, {} bytes, resume partitions {}", records, bytes, paused);
+            context.resume(paused.toArray(new TopicPartition[paused.size()]));
+            paused.clear();
+        }
     }
 
     @Override
@@ -68,6 +106,13 @@ public class MarkLogicSinkTask extends SinkTask {
         this.timeout = Integer.valueOf(config.get(MarkLogicSinkConfig.RETRY_BACKOFF_MS));
         this.maxRetires = Integer.valueOf(config.get(MarkLogicSinkConfig.MAX_RETRIES));
         this.remainingRetries = maxRetires;
+
+        final MarkLogicSinkConfig sinkConfig = new MarkLogicSinkConfig(config);
+        this.highWatermarkRecords = sinkConfig.getLong(MarkLogicSinkConfig.BUFFER_HIGH_WATERMARK_RECORDS);
+        this.lowWatermarkRecords = sinkConfig.getLong(MarkLogicSinkConfig.BUFFER_LOW_WATERMARK_RECORDS);
+        this.highWatermarkBytes = sinkConfig.getLong(MarkLogicSinkConfig.BUFFER_HIGH_WATERMARK_BYTES);
+        this.lowWatermarkBytes = sinkConfig.getLong(MarkLogicSinkConfig.BUFFER_LOW_WATERMARK_BYTES);
+
         initWriter(config);
     }
     
@@ -99,6 +144,12 @@ public class MarkLogicSinkTask extends SinkTask {
             }
         }
     }
+    @Override
+    public void close(final Collection<TopicPartition> partitions) {
+        // Revoked partitions are no longer paused by this task
+        paused.removeAll(partitions);
+    }
+
     @Override
     public void stop() {
         logger.info("task stop called!");
@@ -106,11 +157,12 @@ public class MarkLogicSinkTask extends SinkTask {
     }
 
     @Override
-    public void flush(final Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+    public Map<TopicPartition, OffsetAndMetadata> preCommit(final Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
 
-        this.writer.flush();
-        currentOffsets.forEach((k, v) -> logger.info("Flush - Topic {}, Partition {}, Offset {}, Metadata {}",
+        final Map<TopicPartition, OffsetAndMetadata> offsets = this.writer.preCommit(currentOffsets);
+        offsets.forEach((k, v) -> logger.info("Commit - Topic {}, Partition {}, Offset {}, Metadata {}",
                 k.topic(), k.partition(), v.offset(), v.metadata()));
+        return offsets;
     }
 
     public String version() {
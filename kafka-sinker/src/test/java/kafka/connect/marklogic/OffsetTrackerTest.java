@@ -0,0 +1,194 @@
+package kafka.connect.marklogic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Test;
+
+import kafka.connect.marklogic.TieringRules.Route;
+
+/**
+ * Unit tests of {@link OffsetTracker}.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class OffsetTrackerTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("transaction", 0);
+    private static final Map<TopicPartition, OffsetAndMetadata> CURRENT =
+            Collections.singletonMap(PARTITION, new OffsetAndMetadata(0));
+
+    private static EncodedRecord record(long offset, Route route) {
+        return record(offset, route, "{\"id\":" + offset + "}");
+    }
+
+    private static EncodedRecord record(long offset, Route route, String json) {
+        SinkRecord r = new SinkRecord(PARTITION.topic(), PARTITION.partition(), null, null, null, null, offset);
+        return new EncodedRecord(r, json.getBytes(StandardCharsets.UTF_8), "id" + offset,
+                "/transaction/" + offset + ".json", route, null);
+    }
+
+    private static long committable(OffsetTracker tracker) {
+        OffsetAndMetadata offset = tracker.committableOffsets(CURRENT).get(PARTITION);
+        return offset == null ? -1 : offset.offset();
+    }
+
+    @Test
+    public void testCommittableIsLowestInFlight() {
+        OffsetTracker tracker = new OffsetTracker();
+        EncodedRecord first = record(10, Route.MARKLOGIC);
+        EncodedRecord second = record(11, Route.MARKLOGIC);
+        tracker.track(first);
+        tracker.track(second);
+        assertEquals(10, committable(tracker));
+
+        tracker.complete(second);
+        assertEquals(10, committable(tracker));
+        tracker.complete(first);
+        assertEquals(12, committable(tracker));
+        assertEquals(0, tracker.bufferedRecords());
+        assertEquals(0, tracker.bufferedBytes());
+        assertTrue(tracker.bufferedPartitions().isEmpty());
+    }
+
+    @Test
+    public void testNothingTracked() {
+        assertTrue(new OffsetTracker().committableOffsets(CURRENT).isEmpty());
+    }
+
+    @Test
+    public void testBothTiersInFlightUntilBothWrote() {
+        OffsetTracker tracker = new OffsetTracker(100);
+        EncodedRecord record = record(5, Route.BOTH);
+        tracker.track(record);
+        assertEquals(2, tracker.bufferedRecords());
+        assertEquals(2L * record.getJson().length, tracker.bufferedBytes());
+
+        tracker.complete(record);
+        assertEquals(1, tracker.bufferedRecords());
+        assertEquals(5, committable(tracker));
+        assertEquals(Arrays.asList(PARTITION), tracker.bufferedPartitions());
+
+        tracker.complete(record);
+        assertEquals(0, tracker.bufferedRecords());
+        assertEquals(6, committable(tracker));
+    }
+
+    @Test
+    public void testBothTiersNotWrittenUntilBothWrote() {
+        OffsetTracker tracker = new OffsetTracker(100);
+        EncodedRecord record = record(5, Route.BOTH);
+        tracker.track(record);
+
+        // MarkLogic wrote it, Hive did not: a redelivered record must still reach Hive
+        tracker.complete(record);
+        assertFalse(tracker.isWritten(record(5, Route.BOTH)));
+
+        tracker.complete(record);
+        assertTrue(tracker.isWritten(record(5, Route.BOTH)));
+    }
+
+    @Test
+    public void testDroppedNotWritten() {
+        OffsetTracker tracker = new OffsetTracker(100);
+        EncodedRecord record = record(7, Route.HIVE);
+        tracker.track(record);
+        tracker.drop(record);
+        assertEquals(8, committable(tracker));
+        assertEquals(0, tracker.bufferedRecords());
+        assertFalse(tracker.isWritten(record(7, Route.HIVE)));
+    }
+
+    @Test
+    public void testDroppedByOneTierNotWritten() {
+        OffsetTracker tracker = new OffsetTracker(100);
+        EncodedRecord record = record(7, Route.BOTH);
+        tracker.track(record);
+        tracker.drop(record);
+        tracker.complete(record);
+        assertEquals(8, committable(tracker));
+        assertFalse(tracker.isWritten(record(7, Route.BOTH)));
+    }
+
+    @Test
+    public void testWrittenMatchesContentAndRoute() {
+        OffsetTracker tracker = new OffsetTracker(100);
+        EncodedRecord record = record(1, Route.MARKLOGIC);
+        tracker.track(record);
+        tracker.complete(record);
+
+        assertTrue(tracker.isWritten(record(1, Route.MARKLOGIC)));
+        assertFalse(tracker.isWritten(record(1, Route.MARKLOGIC, "{\"id\":1,\"amount\":2}")));
+        assertFalse(tracker.isWritten(record(1, Route.BOTH)));
+    }
+
+    @Test
+    public void testRecentWritesBounded() {
+        OffsetTracker tracker = new OffsetTracker(2);
+        for (long offset = 0; offset < 3; offset++) {
+            EncodedRecord record = record(offset, Route.MARKLOGIC);
+            tracker.track(record);
+            tracker.complete(record);
+        }
+        assertFalse(tracker.isWritten(record(0, Route.MARKLOGIC)));
+        assertTrue(tracker.isWritten(record(1, Route.MARKLOGIC)));
+        assertTrue(tracker.isWritten(record(2, Route.MARKLOGIC)));
+    }
+
+    @Test
+    public void testDedupDisabled() {
+        OffsetTracker tracker = new OffsetTracker();
+        EncodedRecord record = record(1, Route.MARKLOGIC);
+        tracker.track(record);
+        tracker.complete(record);
+        assertFalse(tracker.isWritten(record(1, Route.MARKLOGIC)));
+    }
+
+    @Test
+    public void testTrackedTwiceCountedOnce() {
+        OffsetTracker tracker = new OffsetTracker();
+        EncodedRecord record = record(3, Route.MARKLOGIC);
+        tracker.track(record);
+        tracker.track(record);
+        assertEquals(1, tracker.bufferedRecords());
+        tracker.complete(record);
+        tracker.complete(record);
+        assertEquals(0, tracker.bufferedRecords());
+        assertEquals(4, committable(tracker));
+    }
+
+    @Test
+    public void testSkipped() {
+        OffsetTracker tracker = new OffsetTracker(100);
+        EncodedRecord pending = record(1, Route.MARKLOGIC);
+        tracker.track(pending);
+        tracker.skip(record(2, Route.MARKLOGIC).getRecord());
+        assertEquals(1, committable(tracker));
+        tracker.complete(pending);
+        assertEquals(3, committable(tracker));
+        assertFalse(tracker.isWritten(record(2, Route.MARKLOGIC)));
+    }
+
+    @Test
+    public void testSpilledNotBuffered() {
+        OffsetTracker tracker = new OffsetTracker();
+        EncodedRecord record = record(1, Route.HIVE);
+        tracker.track(record);
+        tracker.spilled(record);
+        assertEquals(0, tracker.bufferedRecords());
+        assertEquals(0, tracker.bufferedBytes());
+        assertEquals(1, committable(tracker));
+        tracker.unspilled(record);
+        assertEquals(1, tracker.bufferedRecords());
+        assertEquals(record.getJson().length, tracker.bufferedBytes());
+    }
+}
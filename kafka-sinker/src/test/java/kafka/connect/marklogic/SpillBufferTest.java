@@ -0,0 +1,176 @@
+package kafka.connect.marklogic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import kafka.connect.marklogic.TieringRules.Route;
+
+/**
+ * Unit tests of {@link SpillBuffer}.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class SpillBufferTest {
+
+    private static final long TIMEOUT_MS = 10 * 1000;
+
+    // The offsets written to the tier, in order
+    private final List<Long> written = new ArrayList<>();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final OffsetTracker offsetTracker = new OffsetTracker();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executor;
+    private File dir;
+    private SpillBuffer spill;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = Executors.newCachedThreadPool();
+        dir = Files.createTempDirectory("spill-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (spill != null) {
+            spill.close();
+        }
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Create the spill buffer, replaying while the tier has less than 2 records in flight.
+     */
+    private void create(long probeIntervalMs) throws Exception {
+        spill = new SpillBuffer("Test", dir.getPath(), 1024 * 1024, new SpillBuffer.Tier() {
+
+            @Override
+            public void write(EncodedRecord record) {
+                synchronized (written) {
+                    written.add(record.getRecord().kafkaOffset());
+                }
+                inFlight.incrementAndGet();
+            }
+
+            @Override
+            public long inFlight() {
+                return inFlight.get();
+            }
+        }, offsetTracker, 2, probeIntervalMs, scheduler, executor);
+    }
+
+    private void add(long offset) {
+        SinkRecord r = new SinkRecord("position", 0, null, null, null, null, offset);
+        EncodedRecord record = new EncodedRecord(r, ("{\"id\":" + offset + "}").getBytes(StandardCharsets.UTF_8),
+                "id" + offset, "/position/" + offset + ".json", Route.MARKLOGIC, null);
+        offsetTracker.track(record);
+        spill.add(record);
+    }
+
+    private List<Long> written() {
+        synchronized (written) {
+            return new ArrayList<>(written);
+        }
+    }
+
+    private void awaitWritten(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (written().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // Give a replay going too far the time to show up
+        Thread.sleep(50);
+        assertEquals(count, written().size());
+    }
+
+    /**
+     * The tier wrote its records in flight.
+     */
+    private void tierWrote() {
+        inFlight.set(0);
+        spill.recover();
+    }
+
+    @Test
+    public void testWrittenDirectlyWhenNotStalled() throws Exception {
+        create(TIMEOUT_MS);
+        add(0);
+        assertEquals(Arrays.asList(0L), written());
+        assertEquals(0, spill.spilled());
+    }
+
+    @Test
+    public void testStalledSpilled() throws Exception {
+        create(TIMEOUT_MS);
+        spill.stall();
+        add(0);
+        add(1);
+        assertEquals(0, written().size());
+        assertEquals(2, spill.spilled());
+        // Spilled records are not buffered
+        assertEquals(0, offsetTracker.bufferedRecords());
+    }
+
+    @Test
+    public void testStalledProbed() throws Exception {
+        create(200);
+        spill.stall();
+        add(0);
+        add(1);
+        add(2);
+        // A single record per probe interval
+        awaitWritten(1);
+        awaitWritten(2);
+        assertEquals(Arrays.asList(0L, 1L), written());
+    }
+
+    @Test
+    public void testRecoveredReplayedInOrder() throws Exception {
+        create(TIMEOUT_MS);
+        spill.stall();
+        for (long offset = 0; offset < 5; offset++) {
+            add(offset);
+        }
+
+        // Replayed while the tier has room, then as it writes its records in flight
+        tierWrote();
+        awaitWritten(2);
+        tierWrote();
+        awaitWritten(4);
+        tierWrote();
+        awaitWritten(5);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), written());
+        assertEquals(0, spill.spilled());
+
+        // Drained, new records are written directly
+        add(5);
+        assertEquals(6, written().size());
+    }
+}
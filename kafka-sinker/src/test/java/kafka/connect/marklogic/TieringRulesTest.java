@@ -0,0 +1,156 @@
+package kafka.connect.marklogic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.junit.Test;
+
+import kafka.connect.marklogic.TieringRules.Route;
+
+/**
+ * Unit tests of {@link TieringRules}.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class TieringRulesTest {
+
+    private static final long DAY_MS = 24L * 3600 * 1000;
+
+    private static Map<String, Object> value(String field, Object date) {
+        Map<String, Object> value = new HashMap<>();
+        value.put("id", 1);
+        value.put(field, date);
+        return value;
+    }
+
+    private static String daysAgo(int days) {
+        return LocalDate.now().minusDays(days).toString();
+    }
+
+    @Test
+    public void testEpochMillisOfIsoDate() {
+        assertEquals(0, TieringRules.epochMillis("1970-01-01"));
+        assertEquals(LocalDate.of(2017, 1, 31).toEpochDay() * DAY_MS, TieringRules.epochMillis("2017-01-31"));
+        // Only the date prefix is read
+        assertEquals(LocalDate.of(2017, 1, 31).toEpochDay() * DAY_MS,
+                TieringRules.epochMillis("2017-01-31T23:59:59.999Z"));
+        assertEquals(LocalDate.of(2017, 1, 31).toEpochDay() * DAY_MS,
+                TieringRules.epochMillis(new StringBuilder("2017-01-31 10:00")));
+    }
+
+    @Test
+    public void testEpochMillisMatchesCalendar() {
+        // Leap years, century years, month ends and dates before the epoch
+        for (LocalDate date = LocalDate.of(1599, 12, 1); date.isBefore(LocalDate.of(2101, 3, 1));
+                date = date.plusDays(13)) {
+            assertEquals(date.toString(), date.toEpochDay() * DAY_MS, TieringRules.epochMillis(date.toString()));
+        }
+        for (String date : Arrays.asList("1900-02-28", "1900-03-01", "2000-02-29", "2000-03-01", "1969-12-31",
+                "2016-12-31", "2017-01-01")) {
+            assertEquals(date, LocalDate.parse(date).toEpochDay() * DAY_MS, TieringRules.epochMillis(date));
+        }
+    }
+
+    @Test
+    public void testEpochMillisOfNumberAndDate() {
+        assertEquals(1485820800000L, TieringRules.epochMillis(1485820800000L));
+        assertEquals(42, TieringRules.epochMillis(42));
+        assertEquals(1485820800000L, TieringRules.epochMillis(new Date(1485820800000L)));
+    }
+
+    @Test
+    public void testEpochMillisOfNonDates() {
+        for (Object value : Arrays.<Object>asList(null, true, "", "2017-01", "2017/01/31", "17-01-31",
+                "abcd-01-31", "2017-00-10", "2017-13-01", "2017-01-00", "2017-01-32", "2017-1a-01")) {
+            assertEquals(String.valueOf(value), Long.MIN_VALUE, TieringRules.epochMillis(value));
+        }
+    }
+
+    @Test
+    public void testNoRulesUseFlag() {
+        TieringRules rules = new TieringRules(Collections.<String>emptyList());
+        assertSame(Route.HIVE, rules.route("transaction", value("businessdate", daysAgo(0)), true));
+        assertSame(Route.MARKLOGIC, rules.route("transaction", value("businessdate", daysAgo(0)), false));
+    }
+
+    @Test
+    public void testTopicRules() {
+        TieringRules rules = new TieringRules(Arrays.asList("position=both", " instrument = MarkLogic "));
+        assertSame(Route.BOTH, rules.route("position", value("businessdate", daysAgo(0)), false));
+        assertSame(Route.MARKLOGIC, rules.route("instrument", value("businessdate", daysAgo(0)), true));
+        // Matched by no rule
+        assertSame(Route.HIVE, rules.route("transaction", value("businessdate", daysAgo(0)), true));
+    }
+
+    @Test
+    public void testAgeRules() {
+        TieringRules rules = new TieringRules(Arrays.asList("transaction.businessdate>90d=hive", "transaction=both"));
+        assertSame(Route.HIVE, rules.route("transaction", value("businessdate", daysAgo(91)), false));
+        assertSame(Route.BOTH, rules.route("transaction", value("businessdate", daysAgo(89)), false));
+        // Field name matched ignoring case
+        assertSame(Route.HIVE, rules.route("transaction", value("BusinessDate", daysAgo(91)), false));
+        assertSame(Route.HIVE, rules.route("transaction",
+                value("businessdate", System.currentTimeMillis() - 91 * DAY_MS), false));
+        // Missing or invalid dates do not match the age condition
+        assertSame(Route.BOTH, rules.route("transaction", value("tradedate", daysAgo(91)), false));
+        assertSame(Route.BOTH, rules.route("transaction", value("businessdate", "yesterday"), false));
+    }
+
+    @Test
+    public void testAgeInHours() {
+        TieringRules rules = new TieringRules(Collections.singletonList("transaction.timestamp>2h=hive"));
+        long now = System.currentTimeMillis();
+        assertSame(Route.HIVE, rules.route("transaction", value("timestamp", now - 3 * 3600 * 1000), false));
+        assertSame(Route.MARKLOGIC, rules.route("transaction", value("timestamp", now - 3600 * 1000), false));
+    }
+
+    @Test
+    public void testAnyTopicRulesFollowTopicRules() {
+        TieringRules rules = new TieringRules(Arrays.asList("*.businessdate>30d=hive", "position=flag", "*=both"));
+        // The position rule comes before the "*" rules
+        assertSame(Route.MARKLOGIC, rules.route("position", value("businessdate", daysAgo(60)), false));
+        assertSame(Route.HIVE, rules.route("position", value("businessdate", daysAgo(60)), true));
+        assertSame(Route.HIVE, rules.route("transaction", value("businessdate", daysAgo(60)), false));
+        assertSame(Route.BOTH, rules.route("transaction", value("businessdate", daysAgo(1)), false));
+    }
+
+    @Test
+    public void testRouteTiers() {
+        assertEquals(1, Route.MARKLOGIC.tiers());
+        assertEquals(1, Route.HIVE.tiers());
+        assertEquals(2, Route.BOTH.tiers());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testRuleWithoutTier() {
+        new TieringRules(Collections.singletonList("transaction"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testUnknownTier() {
+        new TieringRules(Collections.singletonList("transaction=tape"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testAgeWithoutField() {
+        new TieringRules(Collections.singletonList("transaction>90d=hive"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testUnknownAgeUnit() {
+        new TieringRules(Collections.singletonList("transaction.businessdate>3w=hive"));
+    }
+
+    @Test(expected = ConfigException.class)
+    public void testInvalidAge() {
+        new TieringRules(Collections.singletonList("transaction.businessdate>ninetyd=hive"));
+    }
+}
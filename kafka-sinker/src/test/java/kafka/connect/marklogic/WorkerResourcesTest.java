@@ -0,0 +1,98 @@
+package kafka.connect.marklogic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link WorkerResources}.
+ * @author TCSCODER
+ * @version 1.0
+ */
+public class WorkerResourcesTest {
+
+    @Test
+    public void testSharedUntilLastRelease() {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        WorkerResources.Lease<Object> first = WorkerResources.acquire("test-shared", () -> {
+            created.incrementAndGet();
+            return new Object();
+        }, r -> closed.incrementAndGet());
+        WorkerResources.Lease<Object> second = WorkerResources.acquire("test-shared", Object::new,
+                r -> closed.incrementAndGet());
+        assertSame(first.get(), second.get());
+        assertEquals(1, created.get());
+
+        first.close();
+        first.close();
+        assertEquals(0, closed.get());
+        second.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testCreatedOutsideTheLock() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<WorkerResources.Lease<Object>> slow = executor.submit(() -> WorkerResources.acquire("test-slow",
+                    () -> {
+                        creating.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new Object();
+                    }, r -> { }));
+            assertTrue(creating.await(10, TimeUnit.SECONDS));
+            Future<WorkerResources.Lease<Object>> waiting = executor.submit(() -> WorkerResources.acquire("test-slow",
+                    () -> {
+                        throw new IllegalStateException("Created twice");
+                    }, r -> { }));
+
+            // Another resource is not blocked by the slow one
+            WorkerResources.Lease<Object> other = WorkerResources.acquire("test-other", Object::new, r -> { });
+            other.close();
+            assertFalse(waiting.isDone());
+
+            release.countDown();
+            WorkerResources.Lease<Object> first = slow.get(10, TimeUnit.SECONDS);
+            WorkerResources.Lease<Object> second = waiting.get(10, TimeUnit.SECONDS);
+            assertSame(first.get(), second.get());
+            first.close();
+            second.close();
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedCreationNotKept() {
+        try {
+            WorkerResources.acquire("test-failed", () -> {
+                throw new IllegalStateException("Failed");
+            }, r -> { });
+            fail("Expected the failure of the factory");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed", e.getMessage());
+        }
+        WorkerResources.Lease<String> lease = WorkerResources.acquire("test-failed", () -> "created", r -> { });
+        assertEquals("created", lease.get());
+        lease.close();
+    }
+}
@@ -2,6 +2,8 @@ package com.topcoder.demo;
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.sql.DataSource;
 
@@ -25,6 +27,9 @@ public class DataSourceConfig {
     @Value("${marklogic.password}")
     private String marklogicPassword;
 
+    @Value("${marklogic.max.connections:20}")
+    private int marklogicMaxConnections;
+
     @Value("${hive.jdbc.url}")
     private String hiveJdbcUrl;
 
@@ -39,7 +44,9 @@ public class DataSourceConfig {
         CredentialsProvider credsProvider = new BasicCredentialsProvider();
         credsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(marklogicUsername, marklogicPassword));
 
-        CloseableHttpClient httpclient = HttpClients.custom().setDefaultCredentialsProvider(credsProvider).build();
+        // Open query cursors hold their connection between pages
+        CloseableHttpClient httpclient = HttpClients.custom().setDefaultCredentialsProvider(credsProvider)
+                .setMaxConnPerRoute(marklogicMaxConnections).setMaxConnTotal(marklogicMaxConnections).build();
         return httpclient;
     }
 
@@ -55,6 +62,12 @@ public class DataSourceConfig {
         return ds;
     }
 
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService queryExecutor() {
+        // Runs the backend queries of a request concurrently, one thread per running query
+        return Executors.newCachedThreadPool();
+    }
+
     @Bean
     public Properties columnsProperties() throws IOException {
         Properties props = new Properties();
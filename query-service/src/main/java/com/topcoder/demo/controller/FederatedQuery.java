@@ -0,0 +1,584 @@
+package com.topcoder.demo.controller;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A SQL query run across the tiers: SELECT ... FROM table [WHERE ...] [ORDER BY ...] [LIMIT n].
+ * The clauses are kept as written, so that the query of each tier is the query with an extra condition.
+ * The WHERE conditions on a date column give the range of dates the query reads, to skip the tiers out of the range.
+ * Immutable.
+ */
+public class FederatedQuery {
+
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}.*");
+
+    // Clauses not supported across the tiers
+    private static final Set<String> UNSUPPORTED = new HashSet<>(Arrays.asList("GROUP", "HAVING", "UNION",
+            "INTERSECT", "EXCEPT", "MINUS", "JOIN", "WINDOW", "OFFSET", "CLUSTER", "DISTRIBUTE", "SORT", "LATERAL"));
+    // Aggregates, whose rows of both tiers can not be merged
+    private static final Set<String> AGGREGATES = new HashSet<>(Arrays.asList("COUNT", "SUM", "MIN", "MAX", "AVG",
+            "STDDEV", "STDDEV_POP", "STDDEV_SAMP", "VARIANCE", "VAR_POP", "VAR_SAMP", "COLLECT_SET", "COLLECT_LIST",
+            "PERCENTILE", "PERCENTILE_APPROX", "GROUP_CONCAT"));
+
+    /**
+     * A column the rows are sorted by.
+     */
+    public static class Order {
+
+        private final String column;
+        private final boolean descending;
+
+        private Order(String column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+
+        /**
+         * @return the column name, without qualifier
+         */
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * @return whether the order is descending
+         */
+        public boolean isDescending() {
+            return descending;
+        }
+    }
+
+    /**
+     * The range of values of a column a query reads, compared as ISO dates: a date and time is after its date.
+     */
+    public static class Range {
+
+        private String lower;
+        private String upper;
+        private boolean upperInclusive;
+
+        /**
+         * @param boundary an ISO date, or date and time
+         * @return whether the range is before the boundary
+         */
+        public boolean isBefore(String boundary) {
+            if (upper == null) {
+                return false;
+            }
+            int c = upper.compareTo(boundary);
+            return c < 0 || (c == 0 && !upperInclusive);
+        }
+
+        /**
+         * @param boundary an ISO date, or date and time
+         * @return whether the range is at or after the boundary
+         */
+        public boolean isFrom(String boundary) {
+            return lower != null && lower.compareTo(boundary) >= 0;
+        }
+
+        private void lower(String value) {
+            if (lower == null || value.compareTo(lower) > 0) {
+                lower = value;
+            }
+        }
+
+        private void upper(String value, boolean inclusive) {
+            int c = upper == null ? -1 : value.compareTo(upper);
+            if (c < 0) {
+                upper = value;
+                upperInclusive = inclusive;
+            } else if (c == 0) {
+                upperInclusive &= inclusive;
+            }
+        }
+    }
+
+    /**
+     * A token of the query, with its position.
+     */
+    private static class Token {
+
+        private final String text;
+        private final int start;
+        private final int end;
+        private final int depth;
+
+        private Token(String text, int start, int end, int depth) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+        }
+
+        private boolean is(String keyword) {
+            return text.equalsIgnoreCase(keyword);
+        }
+
+        private boolean isString() {
+            return text.startsWith("'");
+        }
+
+        private boolean isWord() {
+            char c = text.charAt(0);
+            return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '`' || c == '"';
+        }
+
+        /**
+         * @return the string literal or identifier, unquoted
+         */
+        private String value() {
+            char c = text.charAt(0);
+            if (c == '\'' || c == '`' || c == '"') {
+                String quote = String.valueOf(c);
+                return text.substring(1, text.length() - 1).replace(quote + quote, quote);
+            }
+            return text;
+        }
+    }
+
+    private final String projection;
+    private final String from;
+    private final String table;
+    private final String where;
+    private final String orderBy;
+    private final long limit;
+    private final boolean mergeable;
+    // The where conditions joined by AND, as tokens
+    private final List<List<Token>> conditions;
+    // Null if an order is not a column
+    private final List<Order> orders;
+
+    private FederatedQuery(String sql, List<Token> tokens) {
+        int fromIndex = find(tokens, 1, "FROM");
+        if (!tokens.get(0).is("SELECT") || fromIndex < 0) {
+            throw new IllegalArgumentException("Only SELECT ... FROM queries can be federated");
+        }
+        for (Token token : tokens) {
+            if (token.depth == 0 && (UNSUPPORTED.contains(token.text.toUpperCase()) || token.text.equals(";"))) {
+                throw new IllegalArgumentException(token.text + " is not supported across the tiers");
+            }
+        }
+        int whereIndex = find(tokens, fromIndex, "WHERE");
+        int orderIndex = find(tokens, fromIndex, "ORDER");
+        int limitIndex = find(tokens, fromIndex, "LIMIT");
+        int end = tokens.size();
+
+        // Select list
+        boolean mergeable = !tokens.get(1).is("DISTINCT");
+        for (int i = 1; i < fromIndex; i++) {
+            if (AGGREGATES.contains(tokens.get(i).text.toUpperCase()) && i + 1 < fromIndex
+                    && tokens.get(i + 1).text.equals("(")) {
+                mergeable = false;
+            }
+        }
+        this.mergeable = mergeable;
+        this.projection = text(sql, tokens, 1, fromIndex);
+
+        // From a single table, with an optional alias
+        int fromEnd = first(whereIndex, orderIndex, limitIndex, end);
+        List<Token> fromTokens = tokens.subList(fromIndex + 1, fromEnd);
+        int names = 0;
+        for (Token token : fromTokens) {
+            if (!token.isWord()) {
+                throw new IllegalArgumentException("Only queries of a single table can be federated");
+            }
+            if (!token.is("AS")) {
+                names++;
+            }
+        }
+        if (names < 1 || names > 2) {
+            throw new IllegalArgumentException("Only queries of a single table can be federated");
+        }
+        this.from = text(sql, tokens, fromIndex + 1, fromEnd);
+        this.table = unqualified(fromTokens.get(0).value());
+
+        // Where
+        if (whereIndex >= 0) {
+            int whereEnd = first(orderIndex, limitIndex, end);
+            this.where = text(sql, tokens, whereIndex + 1, whereEnd);
+            this.conditions = conditions(tokens.subList(whereIndex + 1, whereEnd));
+        } else {
+            this.where = null;
+            this.conditions = new ArrayList<>();
+        }
+
+        // Order by
+        if (orderIndex >= 0) {
+            if (orderIndex + 1 >= end || !tokens.get(orderIndex + 1).is("BY")) {
+                throw new IllegalArgumentException("ORDER should be followed by BY");
+            }
+            int orderEnd = first(limitIndex, end);
+            this.orderBy = text(sql, tokens, orderIndex + 2, orderEnd);
+            this.orders = orders(tokens.subList(orderIndex + 2, orderEnd));
+        } else {
+            this.orderBy = null;
+            this.orders = new ArrayList<>();
+        }
+
+        // Limit
+        if (limitIndex >= 0) {
+            if (limitIndex != end - 2 || !tokens.get(limitIndex + 1).text.matches("\\d+")) {
+                throw new IllegalArgumentException("LIMIT should be followed by a number, and end the query");
+            }
+            this.limit = Long.parseLong(tokens.get(limitIndex + 1).text);
+        } else {
+            this.limit = -1;
+        }
+    }
+
+    /**
+     * Parse a query.
+     * @param sql the query
+     * @return the query
+     * @throws IllegalArgumentException if the query can not be run across the tiers
+     */
+    public static FederatedQuery parse(String sql) {
+        sql = sql.trim();
+        if (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1);
+        }
+        List<Token> tokens = tokenize(sql);
+        if (tokens.size() < 4) {
+            throw new IllegalArgumentException("Only SELECT ... FROM queries can be federated");
+        }
+        return new FederatedQuery(sql, tokens);
+    }
+
+    /**
+     * @return the queried table, without database
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return the LIMIT of the query, -1 if none
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return whether the rows of the tiers can be merged, false for aggregates and distinct rows
+     */
+    public boolean isMergeable() {
+        return mergeable;
+    }
+
+    /**
+     * @return whether the query has an ORDER BY
+     */
+    public boolean isSorted() {
+        return orderBy != null;
+    }
+
+    /**
+     * @return the ORDER BY columns, null if an order is not a column
+     */
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    /**
+     * The query with an extra condition and another limit.
+     * @param condition the condition ANDed to the WHERE conditions, null if none
+     * @param limit the limit, -1 if none
+     * @return the query
+     */
+    public String toSql(String condition, long limit) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(projection).append(" FROM ").append(from);
+        if (where != null && condition != null) {
+            sql.append(" WHERE (").append(where).append(") AND ").append(condition);
+        } else if (where != null) {
+            sql.append(" WHERE ").append(where);
+        } else if (condition != null) {
+            sql.append(" WHERE ").append(condition);
+        }
+        if (orderBy != null) {
+            sql.append(" ORDER BY ").append(orderBy);
+        }
+        if (limit >= 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * The range of dates of a column the query reads, from its WHERE conditions =, &lt;, &lt;=, &gt;, &gt;= and
+     * BETWEEN with an ISO date string. Conditions under OR or NOT are ignored.
+     * @param column the column, matched ignoring case and qualifier
+     * @return the range, unbounded if none
+     */
+    public Range range(String column) {
+        Range range = new Range();
+        for (List<Token> condition : conditions) {
+            List<Token> t = new ArrayList<>();
+            for (Token token : condition) {
+                // DATE '2018-01-01' is the string
+                if (!token.is("DATE") && !token.is("TIMESTAMP")) {
+                    t.add(token);
+                }
+            }
+            if (t.size() == 3 && isColumn(t.get(0), column) && isDate(t.get(2))) {
+                bound(range, t.get(1).text, t.get(2).value());
+            } else if (t.size() == 3 && isDate(t.get(0)) && isColumn(t.get(2), column)) {
+                bound(range, flip(t.get(1).text), t.get(0).value());
+            } else if (t.size() == 5 && isColumn(t.get(0), column) && t.get(1).is("BETWEEN") && isDate(t.get(2))
+                    && t.get(3).is("AND") && isDate(t.get(4))) {
+                range.lower(t.get(2).value());
+                range.upper(t.get(4).value(), true);
+            }
+        }
+        return range;
+    }
+
+    private static void bound(Range range, String op, String value) {
+        switch (op) {
+            case "=":
+                range.lower(value);
+                range.upper(value, true);
+                break;
+            case ">":
+            case ">=":
+                range.lower(value);
+                break;
+            case "<":
+                range.upper(value, false);
+                break;
+            case "<=":
+                range.upper(value, true);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String flip(String op) {
+        switch (op) {
+            case "<":
+                return ">";
+            case "<=":
+                return ">=";
+            case ">":
+                return "<";
+            case ">=":
+                return "<=";
+            default:
+                return op;
+        }
+    }
+
+    private static boolean isColumn(Token token, String column) {
+        return token.isWord() && unqualified(token.value()).equalsIgnoreCase(column);
+    }
+
+    private static boolean isDate(Token token) {
+        return token.isString() && DATE.matcher(token.value()).matches();
+    }
+
+    /**
+     * Compare rows of the tiers in the query order, numbers as numbers, other values as strings, nulls first.
+     * @param a a row
+     * @param b another row
+     * @param columns the index of the order columns in the rows
+     * @return the comparison
+     */
+    public int compare(String[] a, String[] b, int[] columns) {
+        for (int i = 0; i < columns.length; i++) {
+            int c = compare(a[columns[i]], b[columns[i]]);
+            if (c != 0) {
+                return orders.get(i).isDescending() ? -c : c;
+            }
+        }
+        return 0;
+    }
+
+    private static int compare(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        if (isNumber(a) && isNumber(b)) {
+            return new BigDecimal(a).compareTo(new BigDecimal(b));
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * @return whether the value is a decimal number, with an optional exponent
+     */
+    private static boolean isNumber(String s) {
+        int i = 0;
+        int n = s.length();
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        boolean dot = false;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                i++;
+            }
+            int exponent = i;
+            while (i < n && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == exponent) {
+                return false;
+            }
+        }
+        return i == n;
+    }
+
+    /**
+     * Split the WHERE conditions joined by AND, the whole WHERE if it has an OR.
+     */
+    private static List<List<Token>> conditions(List<Token> tokens) {
+        List<List<Token>> conditions = new ArrayList<>();
+        for (Token token : tokens) {
+            if (token.depth == 0 && token.is("OR")) {
+                return conditions;
+            }
+        }
+        List<Token> condition = new ArrayList<>();
+        boolean between = false;
+        for (Token token : tokens) {
+            if (token.depth == 0 && token.is("AND") && !between) {
+                conditions.add(condition);
+                condition = new ArrayList<>();
+                continue;
+            }
+            if (token.depth == 0 && token.is("BETWEEN")) {
+                between = true;
+            } else if (token.depth == 0 && token.is("AND")) {
+                between = false;
+            }
+            condition.add(token);
+        }
+        conditions.add(condition);
+        return conditions;
+    }
+
+    /**
+     * @return the ORDER BY columns, null if an order is not a column
+     */
+    private static List<Order> orders(List<Token> tokens) {
+        List<Order> orders = new ArrayList<>();
+        List<Token> item = new ArrayList<>();
+        for (int i = 0; i <= tokens.size(); i++) {
+            if (i < tokens.size() && !tokens.get(i).text.equals(",")) {
+                item.add(tokens.get(i));
+                continue;
+            }
+            if (item.isEmpty() || !item.get(0).isWord() || item.get(0).text.matches("\\d+")) {
+                return null;
+            }
+            boolean descending = false;
+            for (int j = 1; j < item.size(); j++) {
+                if (item.get(j).is("DESC")) {
+                    descending = true;
+                } else if (!item.get(j).is("ASC")) {
+                    // NULLS FIRST/LAST, or an expression
+                    return null;
+                }
+            }
+            orders.add(new Order(unqualified(item.get(0).value()), descending));
+            item.clear();
+        }
+        return orders;
+    }
+
+    private static String unqualified(String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static int find(List<Token> tokens, int from, String keyword) {
+        for (int i = from; i < tokens.size(); i++) {
+            if (tokens.get(i).depth == 0 && tokens.get(i).is(keyword)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int first(int... indexes) {
+        for (int index : indexes) {
+            if (index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static String text(String sql, List<Token> tokens, int from, int to) {
+        if (from >= to) {
+            throw new IllegalArgumentException("Empty clause in the query");
+        }
+        return sql.substring(tokens.get(from).start, tokens.get(to - 1).end);
+    }
+
+    private static List<Token> tokenize(String sql) {
+        List<Token> tokens = new ArrayList<>();
+        int depth = 0;
+        int i = 0;
+        int n = sql.length();
+        while (i < n) {
+            char c = sql.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (c == '\'' || c == '"' || c == '`') {
+                // Quoted, a doubled quote is escaped
+                i++;
+                while (i < n && (sql.charAt(i) != c || (i + 1 < n && sql.charAt(i + 1) == c))) {
+                    i += sql.charAt(i) == c ? 2 : 1;
+                }
+                if (i >= n) {
+                    throw new IllegalArgumentException("Unterminated quote in the query");
+                }
+                i++;
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+                        || sql.charAt(i) == '$' || sql.charAt(i) == '.')) {
+                    i++;
+                }
+            } else if ((c == '<' || c == '>' || c == '!') && i + 1 < n
+                    && (sql.charAt(i + 1) == '=' || (c == '<' && sql.charAt(i + 1) == '>'))) {
+                i += 2;
+            } else {
+                i++;
+            }
+            String text = sql.substring(start, i);
+            if (text.equals(")")) {
+                depth--;
+            }
+            tokens.add(new Token(text, start, i, depth));
+            if (text.equals("(")) {
+                depth++;
+            }
+        }
+        return tokens;
+    }
+}
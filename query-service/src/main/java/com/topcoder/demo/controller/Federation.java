@@ -0,0 +1,162 @@
+package com.topcoder.demo.controller;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Plan the queries of a SQL query run across the tiers, from where the rows of each table are.
+ * Each entry of the tiers config is one of:
+ * <ul>
+ * <li>"table.column=boundary": the rows whose date column is before the boundary are in Hive, the others in MarkLogic.
+ * The boundary is an ISO date like "2018-01-01". An age before now is rejected: rows routed by age stay where they
+ * were written as they age, so they don't split at a boundary moving with the clock.</li>
+ * <li>"table=marklogic" or "table=hive": all the rows are in the tier, eg a table written to both tiers.</li>
+ * </ul>
+ * A tier is skipped when the WHERE conditions on the boundary column rule it out, otherwise each tier is queried
+ * for its side of the boundary, so that a row is read once. The rows of the other tables are read from both tiers.
+ * Thread safe.
+ */
+@Component
+public class Federation {
+
+    /**
+     * Where the rows of a table are.
+     */
+    private static class Tiering {
+
+        // Null if the table is in a single tier
+        private final String column;
+        private final String boundary;
+        // Null if the table is split at the boundary
+        private final String tier;
+
+        private Tiering(String column, String boundary, String tier) {
+            this.column = column;
+            this.boundary = boundary;
+            this.tier = tier;
+        }
+    }
+
+    /**
+     * The queries of the tiers.
+     */
+    public static class Plan {
+
+        private final FederatedQuery query;
+        private final String markLogicCondition;
+        private final String hiveCondition;
+        private final boolean markLogic;
+        private final boolean hive;
+
+        private Plan(FederatedQuery query, boolean markLogic, boolean hive, String markLogicCondition,
+                String hiveCondition) {
+            this.query = query;
+            this.markLogic = markLogic;
+            this.hive = hive;
+            this.markLogicCondition = markLogicCondition;
+            this.hiveCondition = hiveCondition;
+        }
+
+        /**
+         * @return the query
+         */
+        public FederatedQuery getQuery() {
+            return query;
+        }
+
+        /**
+         * @return the MarkLogic query, null if MarkLogic is skipped
+         */
+        public String getMarkLogicSql() {
+            return markLogic ? query.toSql(markLogicCondition, query.getLimit()) : null;
+        }
+
+        /**
+         * @param limit the max rows to read, -1 for no limit
+         * @return the Hive query, null if Hive is skipped
+         */
+        public String getHiveSql(long limit) {
+            return hive ? query.toSql(hiveCondition, limit) : null;
+        }
+    }
+
+    // Lower case table name to its tiering
+    private final Map<String, Tiering> tables = new HashMap<>();
+
+    public Federation(@Value("${query.federation.tiers:}") String tiers) {
+        for (String entry : tiers.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Invalid query.federation.tiers entry: " + entry);
+            }
+            String key = entry.substring(0, eq).trim().toLowerCase();
+            String value = entry.substring(eq + 1).trim().toLowerCase();
+            int dot = key.indexOf('.');
+            if (dot < 0) {
+                if (!"marklogic".equals(value) && !"hive".equals(value)) {
+                    throw new IllegalArgumentException("Invalid tier of " + key + ", should be marklogic or hive: "
+                            + value);
+                }
+                tables.put(key, new Tiering(null, null, value));
+                continue;
+            }
+            String table = key.substring(0, dot);
+            String column = key.substring(dot + 1);
+            try {
+                tables.put(table, new Tiering(column, LocalDate.parse(value).toString(), null));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid boundary of " + key
+                        + ", should be an ISO date where the rows split between the tiers: " + value, e);
+            }
+        }
+    }
+
+    /**
+     * Plan the queries of a SQL query.
+     * @param sql the query
+     * @return the plan
+     * @throws IllegalArgumentException if the query can not be run across the tiers
+     */
+    public Plan plan(String sql) {
+        FederatedQuery query = FederatedQuery.parse(sql);
+        Tiering tiering = tables.get(query.getTable().toLowerCase());
+
+        boolean markLogic = true;
+        boolean hive = true;
+        String markLogicCondition = null;
+        String hiveCondition = null;
+        if (tiering != null && tiering.tier != null) {
+            markLogic = "marklogic".equals(tiering.tier);
+            hive = !markLogic;
+        } else if (tiering != null) {
+            String boundary = tiering.boundary;
+            FederatedQuery.Range range = query.range(tiering.column);
+            markLogic = !range.isBefore(boundary);
+            hive = !range.isFrom(boundary);
+            if (markLogic && hive) {
+                // Each tier reads its side of the boundary, a Hive partition column prunes the partitions
+                markLogicCondition = tiering.column + " >= '" + boundary + "'";
+                hiveCondition = tiering.column + " < '" + boundary + "'";
+            }
+        }
+
+        if (markLogic && hive) {
+            if (!query.isMergeable()) {
+                throw new IllegalArgumentException(
+                        "Aggregates and DISTINCT can not be merged across the tiers, restrict the query to a tier");
+            }
+            if (query.isSorted() && query.getOrders() == null) {
+                throw new IllegalArgumentException("Only ORDER BY columns can be merged across the tiers");
+            }
+        }
+        return new Plan(query, markLogic, hive, markLogicCondition, hiveCondition);
+    }
+}
@@ -0,0 +1,117 @@
+package com.topcoder.demo.controller;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Output of a tier queried while another tier is written to the response. The bytes are buffered in memory,
+ * then in a temp file past the memory threshold, until handed off to the response: the buffered bytes are copied
+ * to it, and the next writes go straight to it.
+ * Thread safe, written by the querying thread and handed off by the responding thread.
+ */
+public class HandoffBuffer extends OutputStream {
+    private final static Logger logger = LoggerFactory.getLogger(HandoffBuffer.class);
+
+    private final int memoryBytes;
+    private final File dir;
+
+    private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    // Null until the memory is full
+    private File file;
+    private OutputStream fileOutput;
+    // Null until handed off
+    private OutputStream target;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param memoryBytes the bytes buffered in memory before spilling to a temp file
+     * @param dir the directory of the temp file, null for the system temp dir
+     */
+    public HandoffBuffer(int memoryBytes, File dir) {
+        this.memoryBytes = memoryBytes;
+        this.dir = dir;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Query output closed");
+        }
+        if (target != null) {
+            target.write(b, off, len);
+        } else if (fileOutput == null && memory.size() + len <= memoryBytes) {
+            memory.write(b, off, len);
+        } else {
+            if (fileOutput == null) {
+                file = File.createTempFile("query-", ".spill", dir);
+                fileOutput = new BufferedOutputStream(new FileOutputStream(file), 65536);
+                logger.info("Query output over {} bytes, spilled to {}", memoryBytes, file);
+            }
+            fileOutput.write(b, off, len);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (target != null) {
+            target.flush();
+        }
+    }
+
+    /**
+     * Write the buffered bytes to the response, and the next writes straight to it.
+     * @param output the response output
+     * @throws IOException if failed to write
+     */
+    public synchronized void handoff(OutputStream output) throws IOException {
+        memory.writeTo(output);
+        memory.reset();
+        if (fileOutput != null) {
+            fileOutput.close();
+            fileOutput = null;
+            Files.copy(file.toPath(), output);
+            delete();
+        }
+        target = output;
+    }
+
+    private void delete() {
+        if (file != null) {
+            if (!file.delete()) {
+                logger.warn("Failed to delete query spill file {}", file);
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Drop the buffered bytes, the next writes fail.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (fileOutput != null) {
+            try {
+                fileOutput.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close query spill file", e);
+            }
+            fileOutput = null;
+        }
+        delete();
+    }
+}
@@ -0,0 +1,643 @@
+package com.topcoder.demo.controller;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache of the encoded /query responses, keyed by the normalized query text and the format.
+ * The least recently used responses are evicted once the cached bytes exceed the max, and a response expires
+ * after its time to live. Large responses are kept in temp files instead of the heap.
+ * Identical queries arriving while one runs read its response as it is written instead of querying the backends
+ * again, so they get the same response, cached or not. Once the response grows past the max entry bytes it will not
+ * be cached, and the queries arriving later run on their own.
+ * Hits, misses and coalesced queries are exposed over JMX.
+ * Thread safe.
+ */
+@Component
+@ManagedResource(objectName = "com.topcoder.demo:type=QueryCache", description = "Query result cache")
+public class QueryCache {
+    private final static Logger logger = LoggerFactory.getLogger(QueryCache.class);
+
+    /**
+     * Writes a response.
+     */
+    public interface Loader {
+
+        /**
+         * Write the response.
+         * @param output the output
+         * @return whether the response can be cached, false if a backend failed
+         * @throws IOException if failed to write
+         * @throws SQLException if failed to query
+         */
+        boolean load(OutputStream output) throws IOException, SQLException;
+    }
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final int fileThresholdBytes;
+    private final long ttlMs;
+    private final File dir;
+
+    // Access ordered, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    // Queries running for the key, with the response being written
+    private final ConcurrentMap<String, Spool> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public QueryCache(@Value("${query.cache.enabled:true}") boolean enabled,
+            @Value("${query.cache.max.bytes:268435456}") long maxBytes,
+            @Value("${query.cache.max.entry.bytes:67108864}") long maxEntryBytes,
+            @Value("${query.cache.file.threshold.bytes:1048576}") int fileThresholdBytes,
+            @Value("${query.cache.ttl.ms:60000}") long ttlMs,
+            @Value("${query.cache.dir:}") String dir) {
+        this.enabled = enabled && maxBytes > 0;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.fileThresholdBytes = fileThresholdBytes;
+        this.ttlMs = ttlMs;
+        this.dir = dir.isEmpty() ? null : new File(dir);
+    }
+
+    /**
+     * @param format the output format
+     * @param queries the query texts, may be null
+     * @return the cache key of the queries
+     */
+    public static String key(String format, String... queries) {
+        StringBuilder key = new StringBuilder(format.toLowerCase());
+        for (String query : queries) {
+            key.append('\u0000');
+            if (query != null) {
+                normalize(query, key);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Trim the query and collapse its whitespace runs, except in quoted literals.
+     */
+    private static void normalize(String query, StringBuilder key) {
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && key.length() > 0 && key.charAt(key.length() - 1) != '\u0000') {
+                key.append(' ');
+            }
+            space = false;
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            key.append(c);
+        }
+    }
+
+    /**
+     * Write the response of a key, from the cache, or from the loader while caching it.
+     * @param key the cache key
+     * @param ttlMs the time to live of a new entry, negative for the default, 0 to bypass the cache
+     * @param output the response output
+     * @param loader writes the response
+     * @throws IOException if failed to write
+     * @throws SQLException if failed to query
+     */
+    public void get(String key, long ttlMs, OutputStream output, Loader loader) throws IOException, SQLException {
+        if (!enabled || ttlMs == 0) {
+            loader.load(output);
+            return;
+        }
+        Entry entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            write(entry, output);
+            return;
+        }
+
+        Spool mine = new Spool();
+        Spool running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            if (running.attach()) {
+                coalesced.incrementAndGet();
+                running.readTo(output);
+                return;
+            }
+            // Not cached, past the max entry bytes, or just completed
+            entry = lookup(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                write(entry, output);
+            } else {
+                misses.incrementAndGet();
+                loader.load(output);
+            }
+            return;
+        }
+
+        misses.incrementAndGet();
+        Tee tee = new Tee(output, mine);
+        boolean cacheable = false;
+        Exception failure = null;
+        try {
+            cacheable = loader.load(tee);
+        } catch (IOException | SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            entry = mine.finish(cacheable, expires(ttlMs < 0 ? this.ttlMs : ttlMs), failure);
+            if (entry != null) {
+                put(key, entry);
+            }
+            inFlight.remove(key, mine);
+        }
+        // The response failed while read by the same queries
+        tee.rethrow();
+    }
+
+    /**
+     * @return the expiry time of an entry created now, a time to live too large to add never expires
+     */
+    private static long expires(long ttlMs) {
+        long now = System.currentTimeMillis();
+        return ttlMs > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMs;
+    }
+
+    /**
+     * Write a retained entry, and release it.
+     */
+    private static void write(Entry entry, OutputStream output) throws IOException {
+        try {
+            entry.writeTo(output);
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * @return the live entry of the key, retained, null if none
+     */
+    private synchronized Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            remove(key);
+            return null;
+        }
+        return entry.retain() ? entry : null;
+    }
+
+    private void put(String key, Entry entry) {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.size;
+                evicted.add(previous);
+            }
+            bytes += entry.size;
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            long now = System.currentTimeMillis();
+            while (it.hasNext() && bytes > maxBytes) {
+                Map.Entry<String, Entry> eldest = it.next();
+                if (eldest.getValue() == entry) {
+                    continue;
+                }
+                it.remove();
+                bytes -= eldest.getValue().size;
+                evicted.add(eldest.getValue());
+                if (eldest.getValue().expires > now) {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        for (Entry e : evicted) {
+            e.evict();
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.size;
+            entry.evict();
+        }
+    }
+
+    @ManagedAttribute(description = "Queries answered from the cache")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Queries sent to the backends")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute(description = "Queries that waited for the same running query")
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    @ManagedAttribute(description = "Live entries evicted to stay under the max bytes")
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @ManagedAttribute(description = "Cached responses")
+    public synchronized int getEntries() {
+        return entries.size();
+    }
+
+    @ManagedAttribute(description = "Bytes of the cached responses")
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Drop all the cached responses.
+     */
+    @ManagedOperation(description = "Drop all the cached responses")
+    @PreDestroy
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.evict();
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * A cached response, in memory or in a temp file. An evicted entry is deleted once no request reads it.
+     */
+    private static class Entry {
+
+        private final byte[] data;
+        private final File file;
+        private final long size;
+        private final long expires;
+        private int readers = 0;
+        private boolean evicted = false;
+
+        private Entry(byte[] data, File file, long size, long expires) {
+            this.data = data;
+            this.file = file;
+            this.size = size;
+            this.expires = expires;
+        }
+
+        private synchronized boolean retain() {
+            if (evicted) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        private synchronized void release() {
+            readers--;
+            delete();
+        }
+
+        private synchronized void evict() {
+            evicted = true;
+            delete();
+        }
+
+        private void delete() {
+            if (evicted && readers == 0 && file != null && file.exists() && !file.delete()) {
+                logger.warn("Failed to delete query cache file {}", file);
+            }
+        }
+
+        private void writeTo(OutputStream output) throws IOException {
+            if (data != null) {
+                output.write(data);
+            } else {
+                Files.copy(file.toPath(), output);
+            }
+        }
+    }
+
+    /**
+     * A response being written by a query, read meanwhile by the identical queries attached to it. Held in memory,
+     * then in a temp file, and given up past the max entry bytes unless read. Becomes the cached entry once complete.
+     */
+    private class Spool extends OutputStream {
+
+        private byte[] memory = new byte[8192];
+        private File file;
+        private OutputStream fileOutput;
+        private long size = 0;
+        // The bytes the readers can read, written through to the file
+        private long visible = 0;
+        private int readers = 0;
+        // Whether a query can still attach, false once the response can not be cached
+        private boolean joinable = true;
+        private boolean abandoned = false;
+        private boolean done = false;
+        private Exception failure;
+        // The cached entry owning the file once complete, null if not cached
+        private Entry entry;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (abandoned || failure != null) {
+                return;
+            }
+            size += len;
+            if (size > maxEntryBytes) {
+                joinable = false;
+                if (readers == 0) {
+                    abandon();
+                    return;
+                }
+            }
+            try {
+                if (fileOutput == null && size <= fileThresholdBytes) {
+                    int length = (int) size - len;
+                    if (size > memory.length) {
+                        memory = Arrays.copyOf(memory, (int) Math.min(fileThresholdBytes,
+                                Math.max(size, memory.length * 2L)));
+                    }
+                    System.arraycopy(b, off, memory, length, len);
+                    visible = size;
+                    notifyAll();
+                    return;
+                }
+                if (fileOutput == null) {
+                    file = File.createTempFile("query-cache-", ".bin", dir);
+                    fileOutput = new BufferedOutputStream(new FileOutputStream(file), 65536);
+                    fileOutput.write(memory, 0, (int) visible);
+                    fileOutput.flush();
+                    memory = null;
+                }
+                fileOutput.write(b, off, len);
+                if (readers > 0 && size - visible >= 65536) {
+                    fileOutput.flush();
+                    visible = size;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                // The response is not cached, the client of the query still gets it
+                logger.warn("Failed to write query cache file", e);
+                failure = e;
+                joinable = false;
+                closeOutput();
+                if (readers == 0) {
+                    abandon();
+                }
+                notifyAll();
+            }
+        }
+
+        /**
+         * @return whether a reader is attached
+         */
+        private synchronized boolean isRead() {
+            return readers > 0;
+        }
+
+        /**
+         * Attach a reader, unless the response can no longer be cached.
+         * @return whether attached
+         */
+        private synchronized boolean attach() {
+            if (!joinable || done) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        private synchronized void detach() {
+            readers--;
+            if (entry != null) {
+                entry.release();
+            } else if (readers == 0 && (done || failure != null)) {
+                abandon();
+            }
+        }
+
+        /**
+         * Write the response to an attached reader as it is written, and detach.
+         * @param output the output of the reader
+         * @throws IOException if failed to write, or the query failed
+         * @throws SQLException if the query failed to query
+         */
+        private void readTo(OutputStream output) throws IOException, SQLException {
+            byte[] chunk = new byte[65536];
+            long position = 0;
+            RandomAccessFile input = null;
+            try {
+                while (true) {
+                    int length;
+                    File source;
+                    synchronized (this) {
+                        while (position >= visible && !done && failure == null) {
+                            wait();
+                        }
+                        if (position >= visible) {
+                            break;
+                        }
+                        length = (int) Math.min(chunk.length, visible - position);
+                        source = file;
+                        if (source == null) {
+                            System.arraycopy(memory, (int) position, chunk, 0, length);
+                        }
+                    }
+                    if (source != null) {
+                        // Kept until the readers are detached
+                        if (input == null) {
+                            input = new RandomAccessFile(source, "r");
+                        }
+                        input.seek(position);
+                        input.readFully(chunk, 0, length);
+                    }
+                    output.write(chunk, 0, length);
+                    position += length;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading the same query");
+            } finally {
+                if (input != null) {
+                    input.close();
+                }
+                detach();
+            }
+            Exception error = getFailure();
+            if (error instanceof SQLException) {
+                throw new SQLException(error.getMessage(), error);
+            } else if (error != null) {
+                throw new IOException("The same query failed", error);
+            }
+        }
+
+        private synchronized Exception getFailure() {
+            return failure;
+        }
+
+        /**
+         * Complete the response.
+         * @param cacheable whether the response can be cached
+         * @param expires the expiry time of the entry
+         * @param failure the failure of the query, null if none
+         * @return the entry of the response, retained for the attached readers, null if not cached
+         */
+        private synchronized Entry finish(boolean cacheable, long expires, Exception failure) {
+            done = true;
+            joinable = false;
+            if (this.failure == null) {
+                this.failure = failure;
+            }
+            notifyAll();
+            if (abandoned) {
+                return null;
+            }
+            if (fileOutput != null && this.failure == null) {
+                try {
+                    fileOutput.close();
+                    fileOutput = null;
+                    visible = size;
+                } catch (IOException e) {
+                    logger.warn("Failed to write query cache file", e);
+                    this.failure = e;
+                }
+            }
+            closeOutput();
+            if (cacheable && this.failure == null && size <= maxEntryBytes) {
+                entry = new Entry(file == null ? Arrays.copyOf(memory, (int) size) : null, file, size, expires);
+                for (int i = 0; i < readers; i++) {
+                    entry.retain();
+                }
+            } else if (readers == 0) {
+                abandon();
+            }
+            return entry;
+        }
+
+        private void closeOutput() {
+            if (fileOutput != null) {
+                try {
+                    fileOutput.close();
+                } catch (IOException e) {
+                    // Deleted anyway
+                }
+                fileOutput = null;
+            }
+        }
+
+        /**
+         * Give up the response, no reader is attached.
+         */
+        private void abandon() {
+            abandoned = true;
+            memory = null;
+            closeOutput();
+            if (file != null) {
+                if (!file.delete()) {
+                    logger.warn("Failed to delete query cache file {}", file);
+                }
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Writes to the spool and the response. Once the response fails, eg its client left, the query goes on for the
+     * readers of the spool, and the failure is thrown when none is left.
+     */
+    private static class Tee extends OutputStream {
+
+        private final OutputStream output;
+        private final Spool spool;
+        private IOException failure;
+
+        private Tee(OutputStream output, Spool spool) {
+            this.output = output;
+            this.spool = spool;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            spool.write(b, off, len);
+            if (failure == null) {
+                try {
+                    output.write(b, off, len);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null && !spool.isRead()) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (failure == null) {
+                output.flush();
+            }
+        }
+
+        /**
+         * @throws IOException the failure of the response, if any
+         */
+        private void rethrow() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.topcoder.demo.controller;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -12,13 +14,15 @@ import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.servlet.http.HttpServletResponse;
 import javax.sql.DataSource;
 
 import org.apache.commons.fileupload.MultipartStream;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.text.StringEscapeUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
@@ -37,6 +41,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.topcoder.demo.controller.QueryCursor.HiveRows;
+import com.topcoder.demo.controller.QueryCursor.MarkLogicRows;
 
 @Controller
 public class QueryController {
@@ -56,9 +62,37 @@ public class QueryController {
     @Autowired
     private Properties columnsProperties;
 
+    @Autowired
+    private ExecutorService queryExecutor;
+
+    @Autowired
+    private QueryCache queryCache;
+
+    @Autowired
+    private QueryCursors queryCursors;
+
+    @Autowired
+    private Federation federation;
+
+    @Value("${query.output.buffer.bytes:65536}")
+    private int outputBufferBytes;
+
+    @Value("${query.spill.threshold.bytes:16777216}")
+    private int spillThresholdBytes;
+
+    @Value("${query.spill.dir:}")
+    private String spillDir;
+
+    @Value("${query.hive.fetch.size:1000}")
+    private int hiveFetchSize;
+
+    @Value("${query.page.max.rows:10000}")
+    private int pageMaxRows;
+
     @GetMapping(path = "/query", produces = { MediaType.APPLICATION_JSON_UTF8_VALUE, MediaType.APPLICATION_XML_VALUE })
     public void queryData(@RequestParam(required = false) String xquery, @RequestParam(required = false) String sql,
-            @RequestParam(required = false, defaultValue = "json") String format, HttpServletResponse response)
+            @RequestParam(required = false, defaultValue = "json") String format,
+            @RequestParam(required = false, defaultValue = "-1") long cacheTtlMs, HttpServletResponse response)
             throws IOException, SQLException {
 
         if (StringUtils.isBlank(xquery) && StringUtils.isBlank(sql)) {
@@ -72,128 +106,586 @@ public class QueryController {
             return;
         }
 
-        OutputStream output = response.getOutputStream();
-        if (outputJson) {
-            response.setHeader("Content-Type", "application/json");
-            output.write("{".getBytes());
-        } else {
-            response.setHeader("Content-Type", "application/xml");
-            output.write("<response>".getBytes());
-        }
+        response.setHeader("Content-Type", outputJson ? "application/json;charset=UTF-8" : "application/xml;charset=UTF-8");
+        // Repeated queries are answered from the cache, identical running ones share their response
+        queryCache.get(QueryCache.key(format, xquery, sql), cacheTtlMs, response.getOutputStream(),
+                out -> writeResponse(out, outputJson, xquery, sql));
+    }
 
-        queryMarkLogic(output, outputJson, xquery, sql);
+    /**
+     * Write the response of the queries.
+     * @return whether all the backend queries succeeded
+     */
+    private boolean writeResponse(OutputStream out, boolean outputJson, String xquery, String sql)
+            throws IOException, SQLException {
+        RowEncoder output = new RowEncoder(out, outputJson, outputBufferBytes);
+        output.writeAscii(outputJson ? "{" : "<response>");
+
+        // Hive is queried meanwhile, its rows are buffered until the MarkLogic rows are written
+        Future<Boolean> hive = null;
+        HandoffBuffer hiveBuffer = null;
         if (!StringUtils.isBlank(sql)) {
-            if (outputJson) {
-                output.write(",".getBytes());
+            hiveBuffer = new HandoffBuffer(spillThresholdBytes, spillDir.isEmpty() ? null : new File(spillDir));
+            final RowEncoder hiveOutput = new RowEncoder(hiveBuffer, outputJson, outputBufferBytes);
+            hive = queryExecutor.submit(() -> {
+                boolean ok = queryHive(hiveOutput, sql);
+                hiveOutput.flush();
+                return ok;
+            });
+        }
+
+        boolean ok;
+        try {
+            ok = queryMarkLogic(output, xquery, sql);
+            if (hive != null) {
+                if (outputJson) {
+                    output.writeAscii(",");
+                }
+                // The Hive rows buffered so far, then the next ones as they come
+                hiveBuffer.handoff(output);
+                ok &= await(hive);
+            }
+        } finally {
+            if (hive != null) {
+                hive.cancel(true);
+                hiveBuffer.close();
             }
-            queryHive(output, outputJson, sql);
         }
 
         if (outputJson) {
-            output.write("}".getBytes());
+            output.writeAscii("}");
         } else {
-            output.write("</response>".getBytes());
+            output.writeAscii("</response>");
         }
         output.flush();
+        return ok;
     }
 
-    private void queryHive(OutputStream output, boolean outputJson, String sql) throws SQLException, IOException {
-        try (Connection conn = hiveDataSource.getConnection(); Statement stmt = conn.createStatement();) {
-            long timestamp = System.currentTimeMillis();
+    private static <T> T await(Future<T> query) throws IOException, SQLException {
+        try {
+            return query.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the query");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
 
-            if (outputJson) {
-                output.write("\"hive\":".getBytes());
-            } else {
-                output.write("<hive>".getBytes());
+    /**
+     * Query a page of the rows of each tier. The first page runs the queries, the next pages are read with the
+     * continuation token of the previous page, null on the last page. A page lost with its connection is read again
+     * with its own token.
+     */
+    @GetMapping(path = "/query/page", produces = { MediaType.APPLICATION_JSON_UTF8_VALUE, MediaType.APPLICATION_XML_VALUE })
+    public void queryPage(@RequestParam(required = false) String xquery, @RequestParam(required = false) String sql,
+            @RequestParam(required = false, defaultValue = "json") String format,
+            @RequestParam(required = false, defaultValue = "1000") int limit,
+            @RequestParam(required = false) String cursor, HttpServletResponse response)
+            throws IOException, SQLException {
+
+        boolean first = StringUtils.isBlank(cursor);
+        QueryCursor queryCursor;
+        if (!first) {
+            queryCursor = queryCursors.take(cursor);
+            if (queryCursor == null) {
+                response.sendError(404, "Unknown or expired cursor");
+                return;
+            }
+        } else {
+            if (StringUtils.isBlank(xquery) && StringUtils.isBlank(sql)) {
+                response.sendError(400, "Either xquery or sql should be present");
+                return;
+            }
+            boolean outputJson = "json".equalsIgnoreCase(format);
+            if (!outputJson && !"xml".equalsIgnoreCase(format)) {
+                response.sendError(400, "Only xml/json format are supported");
+                return;
+            }
+            queryCursor = queryCursors.open(outputJson);
+            if (queryCursor == null) {
+                response.sendError(503, "Too many open cursors");
+                return;
             }
+        }
 
-            ResultSet rs = null;
+        boolean outputJson = queryCursor.isJson();
+        boolean park = true;
+        try {
+            byte[] page;
             try {
-                rs = stmt.executeQuery(sql);
-                logger.info("Query Hive get response in " + (System.currentTimeMillis() - timestamp) + "ms");
-                timestamp = System.currentTimeMillis();
-            } catch (SQLException e) {
-                logger.error("Failed to query hive", e);
-                if (outputJson) {
-                    output.write("{\"error\":\"Failed to query hive\"}".getBytes());
+                if (!first && !cursor.equals(QueryCursors.token(queryCursor.getId(), queryCursor.getPage()))) {
+                    page = queryCursor.getLastPage();
                 } else {
-                    output.write("<error>Failed to query hive</error>".getBytes());
+                    if (first) {
+                        openCursor(queryCursor, xquery, sql);
+                    }
+                    page = writePage(queryCursor, Math.max(1, Math.min(limit, pageMaxRows)));
+                    if (!queryCursor.hasMore()) {
+                        // The last page can still be read again until the cursor expires
+                        queryCursor.close();
+                    }
+                }
+            } catch (IOException | SQLException | RuntimeException e) {
+                // The results can't be read further, the previous page can still be read again
+                queryCursor.close();
+                throw e;
+            }
+            response.setHeader("Content-Type", outputJson ? "application/json;charset=UTF-8" : "application/xml;charset=UTF-8");
+            try {
+                response.getOutputStream().write(page);
+                response.getOutputStream().flush();
+            } catch (IOException e) {
+                if (first) {
+                    // The client never got the token, the page can't be read again
+                    queryCursor.close();
+                    park = false;
                 }
+                // Otherwise the cursor is parked with its results open, the page is read again with its token
+                throw e;
+            }
+        } finally {
+            if (park && queryCursor.getLastPage() != null) {
+                queryCursors.park(queryCursor);
+            }
+        }
+    }
+
+    /**
+     * Run the queries of the cursor, Hive meanwhile MarkLogic.
+     */
+    private void openCursor(QueryCursor cursor, String xquery, String sql) throws IOException, SQLException {
+        Future<HiveRows> hive = null;
+        if (!StringUtils.isBlank(sql)) {
+            hive = queryExecutor.submit(() -> openHive(sql));
+        }
+        try {
+            cursor.setMarkLogic(openMarkLogic(xquery, sql));
+        } finally {
+            if (hive != null) {
+                // Kept by the cursor even if MarkLogic failed, to be closed with it
+                cursor.setHive(await(hive));
             }
+        }
+    }
 
-            if (rs != null) {
+    /**
+     * Write the next page of the cursor, and keep it.
+     * @param limit the max number of rows of each tier
+     * @return the page
+     */
+    private byte[] writePage(QueryCursor cursor, int limit) throws IOException, SQLException {
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        RowEncoder output = new RowEncoder(page, cursor.isJson(), outputBufferBytes);
+        boolean outputJson = output.isJson();
+        output.writeAscii(outputJson ? "{\"marklogic\":" : "<response><marklogic>");
+        if (cursor.isMarkLogicFailed()) {
+            writeError(output, "Failed to query marklogic");
+        } else {
+            writeMarkLogicRows(output, cursor.getMarkLogic(), limit);
+        }
+        if (cursor.isHiveQueried()) {
+            output.writeAscii(outputJson ? ",\"hive\":" : "</marklogic><hive>");
+            if (cursor.isHiveFailed()) {
+                writeError(output, "Failed to query hive");
+            } else {
+                writeHiveRows(output, cursor.getHive(), limit);
+            }
+            output.writeAscii(outputJson ? "" : "</hive>");
+        } else {
+            output.writeAscii(outputJson ? "" : "</marklogic>");
+        }
 
-                ResultSetMetaData metadata = rs.getMetaData();
-                int count = metadata.getColumnCount();
-                String[] columnNames = new String[count];
-                for (int i = 1; i <= count; i++) {
-                    columnNames[i - 1] = metadata.getColumnName(i);
-                    String[] split = columnNames[i - 1].split("\\.");
-                    columnNames[i - 1] = split[split.length - 1];
-                    columnNames[i - 1] = columnsProperties.getProperty(columnNames[i - 1], columnNames[i - 1]);
-                    columnNames[i - 1] = outputJson ? StringEscapeUtils.escapeJson(columnNames[i - 1])
-                            : StringEscapeUtils.escapeXml10(columnNames[i - 1]);
-                }
+        // The token of the page after this one
+        String next = cursor.hasMore() ? QueryCursors.token(cursor.getId(), cursor.getPage() + 1) : null;
+        if (outputJson) {
+            output.writeAscii(",\"cursor\":");
+            output.writeAscii(next == null ? "null" : "\"" + next + "\"");
+            output.writeAscii("}");
+        } else {
+            output.writeAscii(next == null ? "<cursor/>" : "<cursor>" + next + "</cursor>");
+            output.writeAscii("</response>");
+        }
+        output.flush();
+        cursor.paged(page.toByteArray());
+        return cursor.getLastPage();
+    }
 
-                if (outputJson) {
-                    output.write("[".getBytes());
-                }
-                boolean firstRow = true;
+    /**
+     * Run a SQL query across the tiers, as one stream of rows. The tiers ruled out by the query are skipped,
+     * and each tier is queried for its own rows. The rows are merged in the query order if any, otherwise the
+     * MarkLogic rows come first, and Hive is only queried for the rows left to reach the query limit.
+     */
+    @GetMapping(path = "/query/federated", produces = { MediaType.APPLICATION_JSON_UTF8_VALUE, MediaType.APPLICATION_XML_VALUE })
+    public void queryFederated(@RequestParam(required = false) String sql,
+            @RequestParam(required = false, defaultValue = "json") String format, HttpServletResponse response)
+            throws IOException, SQLException {
 
-                long rowCount = 0;
-                // Iterate each result row
-                while (rs.next()) {
-                    if (outputJson) {
-                        if (firstRow) {
-                            firstRow = false;
-                        } else {
-                            output.write(",".getBytes());
-                        }
-                    } else {
-                        output.write("<row>".getBytes());
-                    }
+        if (StringUtils.isBlank(sql)) {
+            response.sendError(400, "sql should be present");
+            return;
+        }
 
-                    if (outputJson) {
-                        output.write("{".getBytes());
-                        for (int i = 1; i <= count; i++) {
-                            String value = StringEscapeUtils.escapeJson(rs.getString(i));
-                            if (value != null) {
-                                value = "\"" + value + "\"";
-                            }
-                            output.write(("\"" + columnNames[i - 1] + "\":" + value).getBytes());
-                            if (i != count) {
-                                output.write(",".getBytes());
-                            }
-                        }
-                        output.write("}".getBytes());
-                    } else {
-                        for (int i = 1; i <= count; i++) {
-                            String value = StringEscapeUtils.escapeXml10(rs.getString(i));
-                            output.write(("<" + columnNames[i - 1] + ">" + value + "</" + columnNames[i - 1] + ">")
-                                    .getBytes());
-                        }
+        boolean outputJson = "json".equalsIgnoreCase(format);
+        if (!outputJson && !"xml".equalsIgnoreCase(format)) {
+            response.sendError(400, "Only xml/json format are supported");
+            return;
+        }
+
+        Federation.Plan plan;
+        try {
+            plan = federation.plan(sql);
+        } catch (IllegalArgumentException e) {
+            response.sendError(400, e.getMessage());
+            return;
+        }
+        FederatedQuery query = plan.getQuery();
+        long limit = query.getLimit();
+        String markLogicSql = plan.getMarkLogicSql();
+        // Unsorted, Hive may not be needed once MarkLogic reached the limit
+        boolean lazyHive = markLogicSql != null && !query.isSorted() && limit >= 0;
+
+        Future<HiveRows> hive = null;
+        MarkLogicRows markLogic = null;
+        HiveRows hiveRows = null;
+        try {
+            if (!lazyHive && plan.getHiveSql(limit) != null) {
+                String hiveSql = plan.getHiveSql(limit);
+                hive = queryExecutor.submit(() -> openHive(hiveSql));
+            }
+            if (markLogicSql != null) {
+                markLogic = openMarkLogic(null, markLogicSql);
+            }
+            if (hive != null) {
+                hiveRows = await(hive);
+                hive = null;
+            }
+            if ((markLogicSql != null && markLogic == null) || (plan.getHiveSql(limit) != null && !lazyHive
+                    && hiveRows == null)) {
+                response.sendError(502, markLogicSql != null && markLogic == null ? "Failed to query marklogic"
+                        : "Failed to query hive");
+                return;
+            }
+
+            // The columns of the first tier, the rows of the other tier are aligned on them by name
+            String[] columns = markLogic != null ? markLogicColumns(markLogic) : new String[0];
+            if (columns.length == 0 && hiveRows != null) {
+                columns = hiveRows.columns;
+            }
+            int[] orderColumns = null;
+            if (markLogic != null && hiveRows != null && query.isSorted()) {
+                orderColumns = new int[query.getOrders().size()];
+                for (int i = 0; i < orderColumns.length; i++) {
+                    orderColumns[i] = indexOf(columns, query.getOrders().get(i).getColumn());
+                    if (orderColumns[i] < 0) {
+                        response.sendError(400, "ORDER BY " + query.getOrders().get(i).getColumn()
+                                + " should be selected to merge the tiers");
+                        return;
                     }
+                }
+            }
+
+            response.setHeader("Content-Type", outputJson ? "application/json;charset=UTF-8" : "application/xml;charset=UTF-8");
+            RowEncoder output = new RowEncoder(response.getOutputStream(), outputJson, outputBufferBytes);
+            output.writeAscii(outputJson ? "{\"rows\":" : "<response><rows>");
+            output.columns(columns);
+            output.startRows();
 
-                    if (!outputJson) {
-                        output.write("</row>".getBytes());
+            long timestamp = System.currentTimeMillis();
+            int[] markLogicMapping = markLogic != null ? mapping(columns, markLogicColumns(markLogic)) : null;
+            int[] hiveMapping = hiveRows != null ? mapping(columns, hiveRows.columns) : null;
+            String[] a = markLogic != null ? nextMarkLogicRow(markLogic, markLogicMapping) : null;
+            String[] b = hiveRows != null ? nextHiveRow(hiveRows, hiveMapping) : null;
+            long rowCount = 0;
+            String error = null;
+            while (limit < 0 || rowCount < limit) {
+                if (a == null && lazyHive && plan.getHiveSql(limit) != null) {
+                    // MarkLogic is short of the limit
+                    lazyHive = false;
+                    hiveRows = openHive(plan.getHiveSql(limit - rowCount));
+                    if (hiveRows == null) {
+                        error = "Failed to query hive";
+                        break;
+                    }
+                    if (columns.length == 0) {
+                        // No MarkLogic row
+                        columns = hiveRows.columns;
+                        output.columns(columns);
                     }
-                    rowCount++;
+                    hiveMapping = mapping(columns, hiveRows.columns);
+                    b = nextHiveRow(hiveRows, hiveMapping);
+                }
+                if (a == null && b == null) {
+                    break;
+                }
+                boolean first = b == null || (a != null && (orderColumns == null || query.compare(a, b, orderColumns) <= 0));
+                String[] row = first ? a : b;
+                output.startRow();
+                for (int i = 0; i < row.length; i++) {
+                    output.cell(i, row[i]);
+                }
+                output.endRow();
+                rowCount++;
+                if (first) {
+                    a = nextMarkLogicRow(markLogic, markLogicMapping);
+                } else {
+                    b = nextHiveRow(hiveRows, hiveMapping);
                 }
+            }
+            output.endRows();
 
-                if (outputJson) {
-                    output.write("]".getBytes());
+            // The tiers actually queried
+            if (outputJson) {
+                output.writeAscii(",\"tiers\":[");
+                output.writeAscii(markLogic != null ? "\"marklogic\"" : "");
+                output.writeAscii(hiveRows != null ? (markLogic != null ? ",\"hive\"" : "\"hive\"") : "");
+                output.writeAscii("]");
+                output.writeAscii(error != null ? ",\"error\":\"" + error + "\"}" : "}");
+            } else {
+                output.writeAscii("</rows><tiers>");
+                output.writeAscii(markLogic != null ? "<tier>marklogic</tier>" : "");
+                output.writeAscii(hiveRows != null ? "<tier>hive</tier>" : "");
+                output.writeAscii("</tiers>");
+                output.writeAscii(error != null ? "<error>" + error + "</error></response>" : "</response>");
+            }
+            output.flush();
+            logger.info("Query federated transfer {} records from {} in {} ms", rowCount,
+                    markLogic != null && hiveRows != null ? "marklogic and hive" : markLogic != null ? "marklogic"
+                            : hiveRows != null ? "hive" : "no tier", System.currentTimeMillis() - timestamp);
+        } finally {
+            if (hive != null) {
+                // Opened meanwhile MarkLogic failed
+                hiveRows = await(hive);
+            }
+            if (markLogic != null) {
+                markLogic.close();
+            }
+            if (hiveRows != null) {
+                hiveRows.close();
+            }
+        }
+    }
+
+    /**
+     * Read the header-array part of a MarkLogic SQL response.
+     * @return the columns, empty if there is no row
+     */
+    private static String[] markLogicColumns(MarkLogicRows rows) throws IOException {
+        while (rows.columns == null && rows.more) {
+            Map<String, String> partHeaders = parseHeaders(rows.parts.readHeaders());
+            byte[] partBytes = readBodyData(rows.parts);
+            rows.more = rows.parts.readBoundary();
+            if (!"header-array".equalsIgnoreCase(partHeaders.get("X-Primitive"))) {
+                throw new IOException("MarkLogic SQL response should start with the columns");
+            }
+            String[] headerArray = MAPPER.readValue(partBytes, String[].class);
+            for (int i = 0; i < headerArray.length; i++) {
+                String[] split = headerArray[i].split("\\.");
+                headerArray[i] = split[split.length - 1];
+            }
+            rows.columns = headerArray;
+        }
+        return rows.columns == null ? new String[0] : rows.columns;
+    }
+
+    /**
+     * @param mapping the index of each output column in the tier columns, -1 if absent
+     * @return the next row of a MarkLogic SQL response, in the output columns, null if none
+     */
+    private static String[] nextMarkLogicRow(MarkLogicRows rows, int[] mapping) throws IOException {
+        while (rows.more) {
+            Map<String, String> partHeaders = parseHeaders(rows.parts.readHeaders());
+            byte[] partBytes = readBodyData(rows.parts);
+            rows.more = rows.parts.readBoundary();
+            if ("row-array".equalsIgnoreCase(partHeaders.get("X-Primitive"))) {
+                String[] row = MAPPER.readValue(partBytes, String[].class);
+                String[] aligned = new String[mapping.length];
+                for (int i = 0; i < mapping.length; i++) {
+                    aligned[i] = mapping[i] >= 0 && mapping[i] < row.length ? row[mapping[i]] : null;
                 }
+                return aligned;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param mapping the index of each output column in the tier columns, -1 if absent
+     * @return the next row of a Hive result set, in the output columns, null if none
+     */
+    private static String[] nextHiveRow(HiveRows rows, int[] mapping) throws SQLException {
+        if (!rows.more) {
+            return null;
+        }
+        String[] row = new String[mapping.length];
+        for (int i = 0; i < mapping.length; i++) {
+            row[i] = mapping[i] >= 0 ? rows.rows.getString(mapping[i] + 1) : null;
+        }
+        rows.more = rows.rows.next();
+        return row;
+    }
+
+    /**
+     * @return the index of each output column in the tier columns, matched ignoring case, -1 if absent
+     */
+    private static int[] mapping(String[] columns, String[] tierColumns) {
+        int[] mapping = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            // Same position first, the tiers run the same select list
+            mapping[i] = i < tierColumns.length && columns[i].equalsIgnoreCase(tierColumns[i]) ? i
+                    : indexOf(tierColumns, columns[i]);
+        }
+        return mapping;
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean queryHive(RowEncoder output, String sql) throws SQLException, IOException {
+        boolean outputJson = output.isJson();
+        if (outputJson) {
+            output.writeAscii("\"hive\":");
+        } else {
+            output.writeAscii("<hive>");
+        }
+
+        boolean ok;
+        try (HiveRows rows = openHive(sql)) {
+            ok = rows != null;
+            if (ok) {
+                long timestamp = System.currentTimeMillis();
+                long rowCount = writeHiveRows(output, rows, Long.MAX_VALUE);
                 logger.info("Query Hive transfer {} records in {} ms", rowCount, System.currentTimeMillis() - timestamp);
+            } else {
+                writeError(output, "Failed to query hive");
+            }
+        }
+
+        if (!outputJson) {
+            output.writeAscii("</hive>");
+        }
+        return ok;
+    }
+
+    /**
+     * Run the Hive query, its rows are fetched by batches of the fetch size as they are read.
+     * @return the rows, null if the query failed
+     */
+    private HiveRows openHive(String sql) throws SQLException {
+        Connection conn = hiveDataSource.getConnection();
+        Statement stmt = null;
+        HiveRows rows = null;
+        try {
+            stmt = conn.createStatement();
+            if (hiveFetchSize > 0) {
+                stmt.setFetchSize(hiveFetchSize);
             }
+            long timestamp = System.currentTimeMillis();
 
-            if (!outputJson) {
-                output.write("</hive>".getBytes());
+            ResultSet rs;
+            try {
+                rs = stmt.executeQuery(sql);
+                logger.info("Query Hive get response in " + (System.currentTimeMillis() - timestamp) + "ms");
+            } catch (SQLException e) {
+                logger.error("Failed to query hive", e);
+                return null;
+            }
+
+            ResultSetMetaData metadata = rs.getMetaData();
+            int count = metadata.getColumnCount();
+            String[] columnNames = new String[count];
+            for (int i = 1; i <= count; i++) {
+                String[] split = metadata.getColumnName(i).split("\\.");
+                columnNames[i - 1] = columnsProperties.getProperty(split[split.length - 1], split[split.length - 1]);
+            }
+            rows = new HiveRows(conn, stmt, rs, columnNames, rs.next());
+            return rows;
+        } finally {
+            if (rows == null) {
+                if (stmt != null) {
+                    stmt.close();
+                }
+                conn.close();
             }
         }
     }
 
-    private void queryMarkLogic(OutputStream output, boolean outputJson, String xquery, String sql) throws IOException {
+    /**
+     * Write the next Hive rows as the rows of the tier.
+     * @param limit the max number of rows
+     * @return the number of rows written
+     */
+    private static long writeHiveRows(RowEncoder output, HiveRows rows, long limit) throws SQLException, IOException {
+        // Column names are encoded once for all the rows
+        output.columns(rows.columns);
+
+        output.startRows();
+
+        long rowCount = 0;
+        int count = rows.columns.length;
+        ResultSet rs = rows.rows;
+        // Iterate each result row
+        while (rows.more && rowCount < limit) {
+            output.startRow();
+            for (int i = 1; i <= count; i++) {
+                output.cell(i - 1, rs.getString(i));
+            }
+            output.endRow();
+            rowCount++;
+            rows.more = rs.next();
+        }
+
+        output.endRows();
+        return rowCount;
+    }
+
+    private boolean queryMarkLogic(RowEncoder output, String xquery, String sql) throws IOException {
+        boolean outputJson = output.isJson();
+        if (outputJson) {
+            output.writeAscii("\"marklogic\":");
+        } else {
+            output.writeAscii("<marklogic>");
+        }
+
+        boolean ok;
+        try (MarkLogicRows rows = openMarkLogic(xquery, sql)) {
+            ok = rows != null;
+            if (ok) {
+                long timestamp = System.currentTimeMillis();
+                long rowCount = writeMarkLogicRows(output, rows, Long.MAX_VALUE);
+                logger.info("Query MarkLogic transfer {} records in {} ms", rowCount, System.currentTimeMillis() - timestamp);
+            } else {
+                writeError(output, "Failed to query marklogic");
+            }
+        }
+
+        if (!outputJson) {
+            output.writeAscii("</marklogic>");
+        }
+        return ok;
+    }
 
+    /**
+     * Run the MarkLogic query, its parts are read from the response as they are written.
+     * @return the rows, null if the query failed
+     */
+    private MarkLogicRows openMarkLogic(String xquery, String sql) throws IOException {
         String adhocXquery = !StringUtils.isBlank(xquery) ? xquery
                 : "xquery version \"1.0-ml\";xdmp:sql(\"" + sql + "\")";
 
@@ -202,170 +694,145 @@ public class QueryController {
         post.setHeader("Accept", "multipart/mixed; boundary=BOUNDARY");
         post.setEntity(new StringEntity("xquery=" + adhocXquery));
 
-        if (outputJson) {
-            output.write("\"marklogic\":".getBytes());
-        } else {
-            output.write("<marklogic>".getBytes());
-        }
-
         long timestamp = System.currentTimeMillis();
-        try (CloseableHttpResponse mlresponse = markLogicClient.execute(post)) {
+        CloseableHttpResponse mlresponse = markLogicClient.execute(post);
+        MarkLogicRows rows = null;
+        try {
             logger.info("Query MarkLogic get response in " + (System.currentTimeMillis() - timestamp) + "ms");
-            timestamp = System.currentTimeMillis();
 
             HttpEntity entity = mlresponse.getEntity();
+            int status = mlresponse.getStatusLine().getStatusCode();
+            if (status != 200) {
+                logger.error("Failed to query marklogic:\n" + EntityUtils.toString(entity));
+                return null;
+            }
 
-            try {
-                int status = mlresponse.getStatusLine().getStatusCode();
-                if (status != 200) {
-                    logger.error("Failed to query marklogic:\n" + EntityUtils.toString(entity));
+            // Parse multipart stream
+            MultipartStream multipartStream = new MultipartStream(entity.getContent(), "BOUNDARY".getBytes(), 10000, null);
+            rows = new MarkLogicRows(mlresponse, multipartStream, multipartStream.skipPreamble());
+            return rows;
+        } finally {
+            if (rows == null) {
+                mlresponse.close();
+            }
+        }
+    }
+
+    /**
+     * Write the next MarkLogic parts as the rows of the tier.
+     * @param limit the max number of rows
+     * @return the number of rows written
+     */
+    private static long writeMarkLogicRows(RowEncoder output, MarkLogicRows rows, long limit) throws IOException {
+        boolean outputJson = output.isJson();
+        MultipartStream multipartStream = rows.parts;
+        if (rows.columns != null) {
+            // Read by a previous page
+            output.columns(rows.columns);
+        }
+
+        output.startRows();
+
+        long rowCount = 0;
+
+        // Iterate each part
+        while (rows.more && rowCount < limit) {
+            Map<String, String> partHeaders = parseHeaders(multipartStream.readHeaders());
+
+            String partType = partHeaders.get("Content-Type");
+            String partPrimitive = partHeaders.get("X-Primitive");
+
+            boolean dataRow = !isJSONType(partType) || !"header-array".equalsIgnoreCase(partPrimitive);
+            boolean cells = isJSONType(partType) && "row-array".equalsIgnoreCase(partPrimitive);
+            if (dataRow) {
+                rowCount++;
+                if (!cells) {
+                    output.startRawRow();
+                }
+            }
+
+            byte[] partBytes = readBodyData(multipartStream);
+
+            if (isJSONType(partType)) {
+                // Handle json part
+
+                if ("header-array".equalsIgnoreCase(partPrimitive)) {
+                    // This represents table header columns
+                    String[] headerArray = MAPPER.readValue(partBytes, String[].class);
+                    for (int i = 0; i < headerArray.length; i++) {
+                        String[] split = headerArray[i].split("\\.");
+                        headerArray[i] = split[split.length - 1];
+                    }
+                    // Column names are encoded once for all the rows
+                    output.columns(headerArray);
+                    rows.columns = headerArray;
+                } else if ("row-array".equalsIgnoreCase(partPrimitive)) {
+                    // This represents table row values
+                    String[] rowArray = MAPPER.readValue(partBytes, String[].class);
+                    output.startRow();
+                    for (int i = 0; i < output.columnCount(); i++) {
+                        output.cell(i, rowArray[i]);
+                    }
+                    output.endRow();
+                } else {
+                    // Other primitive of json part
                     if (outputJson) {
-                        output.write("{\"error\":\"Failed to query marklogic\"}".getBytes());
+                        output.write(partBytes);
                     } else {
-                        output.write("<error>Failed to query marklogic</error>".getBytes());
+                        output.write(jsonToXml(partBytes));
                     }
+                }
+            } else if (isXMLType(partType)) {
+                // Handle xml part
+                if (outputJson) {
+                    output.write(xmlToJson(partBytes));
                 } else {
-                    try (InputStream is = entity.getContent()) {
-                        // Parse multipart stream
-                        MultipartStream multipartStream = new MultipartStream(is, "BOUNDARY".getBytes(), 10000, null);
-
-                        if (outputJson) {
-                            output.write("[".getBytes());
-                        }
-
-                        long rowCount = 0;
-                        boolean firstRow = true;
-                        String[] headerArray = null;
-
-                        // Iterate each part
-                        boolean nextPart = multipartStream.skipPreamble();
-                        while (nextPart) {
-                            Map<String, String> partHeaders = parseHeaders(multipartStream.readHeaders());
-
-                            String partType = partHeaders.get("Content-Type");
-                            String partPrimitive = partHeaders.get("X-Primitive");
-
-                            boolean dataRow = !isJSONType(partType) || !"header-array".equalsIgnoreCase(partPrimitive);
-                            if (dataRow) {
-                                rowCount++;
-                                if (outputJson) {
-                                    if (firstRow) {
-                                        firstRow = false;
-                                    } else {
-                                        output.write(",".getBytes());
-                                    }
-                                } else {
-                                    output.write("<row>".getBytes());
-                                }
-                            }
-
-                            byte[] partBytes = readBodyData(multipartStream);
-
-                            if (isJSONType(partType)) {
-                                // Handle json part
-
-                                if ("header-array".equalsIgnoreCase(partPrimitive)) {
-                                    // This represents table header columns
-                                    headerArray = MAPPER.readValue(partBytes, String[].class);
-                                    for (int i = 0; i < headerArray.length; i++) {
-                                        String[] split = headerArray[i].split("\\.");
-                                        headerArray[i] = split[split.length - 1];
-                                        if (outputJson) {
-                                            headerArray[i] = StringEscapeUtils.escapeJson(headerArray[i]);
-                                        } else {
-                                            headerArray[i] = StringEscapeUtils.escapeXml10(headerArray[i]);
-                                        }
-                                    }
-                                } else if ("row-array".equalsIgnoreCase(partPrimitive)) {
-                                    // This represents table row values
-                                    String[] rowArray = MAPPER.readValue(partBytes, String[].class);
-
-                                    if (outputJson) {
-                                        output.write("{".getBytes());
-                                        for (int i = 0; i < headerArray.length; i++) {
-                                            String value = StringEscapeUtils.escapeJson(rowArray[i]);
-                                            if (value != null) {
-                                                value = "\"" + value + "\"";
-                                            }
-                                            output.write(("\"" + headerArray[i] + "\":" + value).getBytes());
-                                            if (i != headerArray.length - 1) {
-                                                output.write(",".getBytes());
-                                            }
-                                        }
-                                        output.write("}".getBytes());
-                                    } else {
-                                        for (int i = 0; i < headerArray.length; i++) {
-                                            String value = StringEscapeUtils.escapeXml10(rowArray[i]);
-                                            output.write(
-                                                    ("<" + headerArray[i] + ">" + value + "</" + headerArray[i] + ">")
-                                                            .getBytes());
-                                        }
-                                    }
-                                } else {
-                                    // Other primitive of json part
-                                    if (outputJson) {
-                                        output.write(partBytes);
-                                    } else {
-                                        output.write(jsonToXml(partBytes));
-                                    }
-                                }
-                            } else if (isXMLType(partType)) {
-                                // Handle xml part
-                                if (outputJson) {
-                                    output.write(xmlToJson(partBytes));
-                                } else {
-                                    output.write(partBytes);
-                                }
-                            } else {
-                                // Handle unknown part type
-                                if (outputJson) {
-                                    output.write(("\"" + StringEscapeUtils.escapeJson(new String(partBytes)) + "\"")
-                                            .getBytes());
-                                } else {
-                                    output.write(StringEscapeUtils.escapeXml10(new String(partBytes)).getBytes());
-                                }
-                            }
-
-                            if (dataRow && !outputJson) {
-                                output.write("</row>".getBytes());
-                            }
-
-                            output.flush();
-                            nextPart = multipartStream.readBoundary();
-                        }
-
-                        if (outputJson) {
-                            output.write("]".getBytes());
-                        }
-
-                        logger.info("Query MarkLogic transfer {} records in {} ms", rowCount, System.currentTimeMillis() - timestamp);
-                    }
+                    output.write(partBytes);
                 }
-
-                if (!outputJson) {
-                    output.write("</marklogic>".getBytes());
+            } else {
+                // Handle unknown part type
+                if (outputJson) {
+                    output.writeAscii("\"");
+                    output.writeEscaped(new String(partBytes, StandardCharsets.UTF_8));
+                    output.writeAscii("\"");
+                } else {
+                    output.writeEscaped(new String(partBytes, StandardCharsets.UTF_8));
                 }
+            }
 
-            } finally {
-                EntityUtils.consume(entity);
+            if (dataRow && !cells) {
+                output.endRawRow();
             }
+
+            rows.more = multipartStream.readBoundary();
+        }
+
+        output.endRows();
+        return rowCount;
+    }
+
+    private static void writeError(RowEncoder output, String message) throws IOException {
+        if (output.isJson()) {
+            output.writeAscii("{\"error\":\"" + message + "\"}");
+        } else {
+            output.writeAscii("<error>" + message + "</error>");
         }
     }
 
     private static byte[] jsonToXml(byte[] json) {
-        String jsonStr = new String(json).trim();
+        String jsonStr = new String(json, StandardCharsets.UTF_8).trim();
         if (jsonStr.startsWith("[")) {
             jsonStr = "{\"array\":" + jsonStr + "}";
         } else if (!jsonStr.startsWith("{")) {
             jsonStr = "{\"data\":" + jsonStr + "}";
         }
         JSONObject jsonObj = new JSONObject(jsonStr);
-        return XML.toString(jsonObj).getBytes();
+        return XML.toString(jsonObj).getBytes(StandardCharsets.UTF_8);
     }
 
     private static byte[] xmlToJson(byte[] xml) {
-        JSONObject json = XML.toJSONObject(new String(xml).trim());
-        return json.toString().getBytes();
+        JSONObject json = XML.toJSONObject(new String(xml, StandardCharsets.UTF_8).trim());
+        return json.toString().getBytes(StandardCharsets.UTF_8);
     }
 
     private static boolean isJSONType(String mimeType) {
@@ -0,0 +1,232 @@
+package com.topcoder.demo.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.fileupload.MultipartStream;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The open results of a paged query, read a page at a time. The MarkLogic response and the Hive result set stay
+ * open between the pages: their unread rows wait in the backends, so a page only holds its own rows.
+ * The last page written is kept, so that a page lost with its connection can be read again.
+ * Used by one request at a time.
+ */
+public class QueryCursor implements Closeable {
+    private final static Logger logger = LoggerFactory.getLogger(QueryCursor.class);
+
+    /**
+     * The rows of a MarkLogic response, read part by part.
+     */
+    static class MarkLogicRows implements Closeable {
+
+        private final CloseableHttpResponse response;
+        final MultipartStream parts;
+        // Whether a part is left to read
+        boolean more;
+        // The header-array columns, null until read
+        String[] columns;
+
+        MarkLogicRows(CloseableHttpResponse response, MultipartStream parts, boolean more) {
+            this.response = response;
+            this.parts = parts;
+            this.more = more;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!more) {
+                // Read to the end, the connection can be reused
+                EntityUtils.consume(response.getEntity());
+            }
+            // Otherwise the connection is dropped, which stops the MarkLogic query
+            response.close();
+            more = false;
+        }
+    }
+
+    /**
+     * The rows of a Hive result set.
+     */
+    static class HiveRows implements Closeable {
+
+        private final Connection connection;
+        private final Statement statement;
+        final ResultSet rows;
+        final String[] columns;
+        // Whether the result set is on a row left to read
+        boolean more;
+
+        HiveRows(Connection connection, Statement statement, ResultSet rows, String[] columns, boolean more) {
+            this.connection = connection;
+            this.statement = statement;
+            this.rows = rows;
+            this.columns = columns;
+            this.more = more;
+        }
+
+        @Override
+        public void close() throws IOException {
+            more = false;
+            try {
+                try {
+                    rows.close();
+                    statement.close();
+                } finally {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                throw new IOException("Failed to close the Hive result set", e);
+            }
+        }
+    }
+
+    private final boolean json;
+    private final Runnable onClose;
+
+    // Null if the tier is not queried or failed
+    private MarkLogicRows markLogic;
+    private HiveRows hive;
+    private boolean markLogicFailed = false;
+    private boolean hiveFailed = false;
+
+    private String id;
+    // The number of the next page, from 1
+    private long page = 1;
+    private byte[] lastPage;
+    private volatile long lastUsed = System.currentTimeMillis();
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param json whether the pages are JSON, otherwise XML
+     * @param onClose called once when the backend results are closed
+     */
+    QueryCursor(boolean json, Runnable onClose) {
+        this.json = json;
+        this.onClose = onClose;
+    }
+
+    /**
+     * @return whether the pages are JSON
+     */
+    public boolean isJson() {
+        return json;
+    }
+
+    MarkLogicRows getMarkLogic() {
+        return markLogic;
+    }
+
+    void setMarkLogic(MarkLogicRows markLogic) {
+        this.markLogic = markLogic;
+        this.markLogicFailed = markLogic == null;
+    }
+
+    boolean isMarkLogicFailed() {
+        return markLogicFailed;
+    }
+
+    HiveRows getHive() {
+        return hive;
+    }
+
+    void setHive(HiveRows hive) {
+        this.hive = hive;
+        this.hiveFailed = hive == null;
+    }
+
+    boolean isHiveQueried() {
+        return hive != null || hiveFailed;
+    }
+
+    boolean isHiveFailed() {
+        return hiveFailed;
+    }
+
+    /**
+     * @return whether a tier has rows left to read
+     */
+    public boolean hasMore() {
+        return (markLogic != null && markLogic.more) || (hive != null && hive.more);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the number of the next page, from 1
+     */
+    long getPage() {
+        return page;
+    }
+
+    /**
+     * @return the last page written, null if none
+     */
+    byte[] getLastPage() {
+        return lastPage;
+    }
+
+    /**
+     * Keep the page written, the next page follows it.
+     * @param bytes the page
+     */
+    void paged(byte[] bytes) {
+        lastPage = bytes;
+        page++;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * @return whether the backend results are closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the backend results, the last page can still be read again.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (markLogic != null) {
+                markLogic.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close the MarkLogic cursor", e);
+        }
+        try {
+            if (hive != null) {
+                hive.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close the Hive cursor", e);
+        }
+        onClose.run();
+    }
+}
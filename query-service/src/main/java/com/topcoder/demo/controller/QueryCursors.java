@@ -0,0 +1,163 @@
+package com.topcoder.demo.controller;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The cursors of the paged queries between their pages, found by their continuation token.
+ * A cursor idle for longer than the idle time is closed. The open cursors hold backend connections,
+ * so their number is bounded: when the max is reached, the cursor idle the longest whose next page was never read,
+ * eg its first page was lost before its client got the token, is closed to make room.
+ * Thread safe.
+ */
+@Component
+public class QueryCursors {
+    private final static Logger logger = LoggerFactory.getLogger(QueryCursors.class);
+
+    private final int maxCursors;
+    private final long idleMs;
+
+    private final SecureRandom random = new SecureRandom();
+    // The cursors between pages, a cursor reading a page is taken out
+    private final ConcurrentMap<String, QueryCursor> parked = new ConcurrentHashMap<>();
+    // The cursors with open backend results, parked or not
+    private final AtomicInteger open = new AtomicInteger();
+    private final ScheduledExecutorService sweeper;
+
+    public QueryCursors(@Value("${query.cursor.max:4}") int maxCursors,
+            @Value("${query.cursor.idle.ms:300000}") long idleMs) {
+        this.maxCursors = maxCursors;
+        this.idleMs = idleMs;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "query-cursor-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleMs / 4);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start a cursor, unless too many are open and none can be closed.
+     * @param json whether the pages are JSON
+     * @return the cursor, null if too many are open
+     */
+    public QueryCursor open(boolean json) {
+        while (open.incrementAndGet() > maxCursors) {
+            open.decrementAndGet();
+            if (!closeUnread()) {
+                return null;
+            }
+        }
+        QueryCursor cursor = new QueryCursor(json, open::decrementAndGet);
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        cursor.setId(Base64.getUrlEncoder().withoutPadding().encodeToString(id));
+        return cursor;
+    }
+
+    /**
+     * @param id the cursor id
+     * @param page the page number
+     * @return the continuation token of the page of the cursor
+     */
+    public static String token(String id, long page) {
+        return id + "." + page;
+    }
+
+    /**
+     * Take the cursor of a token out, until parked again.
+     * @param token the continuation token, of the next page or of the last page to read it again
+     * @return the cursor, null if the token is unknown, expired or in use
+     */
+    public QueryCursor take(String token) {
+        int dot = token.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        QueryCursor cursor = parked.remove(token.substring(0, dot));
+        if (cursor == null) {
+            return null;
+        }
+        long page;
+        try {
+            page = Long.parseLong(token.substring(dot + 1));
+        } catch (NumberFormatException e) {
+            page = -1;
+        }
+        boolean next = page == cursor.getPage();
+        if ((!next && page != cursor.getPage() - 1) || (next && cursor.isClosed())) {
+            // An older page, or past the last page, the cursor stays for its client
+            parked.putIfAbsent(cursor.getId(), cursor);
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Park a cursor until its next page.
+     * @param cursor the cursor
+     */
+    public void park(QueryCursor cursor) {
+        cursor.touch();
+        parked.put(cursor.getId(), cursor);
+    }
+
+    /**
+     * Close the parked cursor idle the longest among those with open results whose second page was never read.
+     * @return whether a cursor was closed
+     */
+    private boolean closeUnread() {
+        Map.Entry<String, QueryCursor> oldest = null;
+        for (Map.Entry<String, QueryCursor> entry : parked.entrySet()) {
+            QueryCursor cursor = entry.getValue();
+            if (cursor.getPage() == 2 && !cursor.isClosed()
+                    && (oldest == null || cursor.getLastUsed() < oldest.getValue().getLastUsed())) {
+                oldest = entry;
+            }
+        }
+        if (oldest == null || !parked.remove(oldest.getKey(), oldest.getValue())) {
+            return oldest != null;
+        }
+        logger.info("Closing query cursor {} to open another, its second page was never read", oldest.getKey());
+        oldest.getValue().close();
+        return true;
+    }
+
+    private void sweep() {
+        long expired = System.currentTimeMillis() - idleMs;
+        for (Map.Entry<String, QueryCursor> entry : parked.entrySet()) {
+            QueryCursor cursor = entry.getValue();
+            if (cursor.getLastUsed() < expired && parked.remove(entry.getKey(), cursor)) {
+                logger.info("Closing query cursor {} idle for over {} ms", entry.getKey(), idleMs);
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Close all the parked cursors.
+     */
+    @PreDestroy
+    public void close() {
+        sweeper.shutdownNow();
+        for (QueryCursor cursor : parked.values()) {
+            cursor.close();
+        }
+        parked.clear();
+    }
+}
@@ -0,0 +1,358 @@
+package com.topcoder.demo.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Buffered output of the query results, writing the rows as JSON objects or XML elements.
+ * Cell values are escaped and encoded to UTF-8 straight into a reusable buffer, and the column names are encoded
+ * once per result set, so a row costs no allocation. A null value is written as the JSON null literal,
+ * or an empty XML element.
+ * Not thread safe.
+ */
+public class RowEncoder extends OutputStream {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final boolean json;
+    private final byte[] buffer;
+    private int count = 0;
+
+    // Encoded once per result set, per column: JSON "name": with the separating comma, or XML <name>
+    private byte[][] names = new byte[0][];
+    // XML </name>, and <name/> for a null value
+    private byte[][] ends = new byte[0][];
+    private byte[][] empties = new byte[0][];
+    private boolean firstRow = true;
+
+    /**
+     * Constructor.
+     * @param out the response output
+     * @param json whether to write JSON, otherwise XML
+     * @param bufferSize the buffer size in bytes
+     */
+    public RowEncoder(OutputStream out, boolean json, int bufferSize) {
+        this.out = out;
+        this.json = json;
+        this.buffer = new byte[Math.max(1024, bufferSize)];
+    }
+
+    /**
+     * @return whether the output is JSON
+     */
+    public boolean isJson() {
+        return json;
+    }
+
+    /**
+     * Start a result set.
+     * @param columns the column names, as output
+     */
+    public void columns(String[] columns) {
+        names = new byte[columns.length][];
+        ends = new byte[columns.length][];
+        empties = new byte[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            if (json) {
+                names[i] = ((i == 0 ? "\"" : ",\"") + StringEscapeUtils.escapeJson(columns[i]) + "\":")
+                        .getBytes(StandardCharsets.UTF_8);
+            } else {
+                String name = StringEscapeUtils.escapeXml10(columns[i]);
+                names[i] = ("<" + name + ">").getBytes(StandardCharsets.UTF_8);
+                ends[i] = ("</" + name + ">").getBytes(StandardCharsets.UTF_8);
+                empties[i] = ("<" + name + "/>").getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Start the rows of a tier, a JSON array.
+     * @throws IOException if failed to write
+     */
+    public void startRows() throws IOException {
+        if (json) {
+            write('[');
+        }
+        firstRow = true;
+    }
+
+    /**
+     * End the rows of a tier.
+     * @throws IOException if failed to write
+     */
+    public void endRows() throws IOException {
+        if (json) {
+            write(']');
+        }
+    }
+
+    /**
+     * @return the number of columns of the result set
+     */
+    public int columnCount() {
+        return names.length;
+    }
+
+    /**
+     * Start a row.
+     * @throws IOException if failed to write
+     */
+    public void startRow() throws IOException {
+        if (json) {
+            if (!firstRow) {
+                write(',');
+            }
+            write('{');
+        } else {
+            writeAscii("<row>");
+        }
+        firstRow = false;
+    }
+
+    /**
+     * Write a cell of the current row, cells are written in column order.
+     * @param column the column index, from 0
+     * @param value the value, may be null
+     * @throws IOException if failed to write
+     */
+    public void cell(int column, String value) throws IOException {
+        if (json) {
+            write(names[column]);
+            if (value == null) {
+                writeAscii("null");
+            } else {
+                write('"');
+                writeJson(value);
+                write('"');
+            }
+        } else if (value == null) {
+            write(empties[column]);
+        } else {
+            write(names[column]);
+            writeXml(value);
+            write(ends[column]);
+        }
+    }
+
+    /**
+     * End the current row.
+     * @throws IOException if failed to write
+     */
+    public void endRow() throws IOException {
+        if (json) {
+            write('}');
+        } else {
+            writeAscii("</row>");
+        }
+    }
+
+    /**
+     * Start a row written as is, eg a JSON or XML part, instead of cells.
+     * @throws IOException if failed to write
+     */
+    public void startRawRow() throws IOException {
+        if (json) {
+            if (!firstRow) {
+                write(',');
+            }
+        } else {
+            writeAscii("<row>");
+        }
+        firstRow = false;
+    }
+
+    /**
+     * End a row written as is.
+     * @throws IOException if failed to write
+     */
+    public void endRawRow() throws IOException {
+        if (!json) {
+            writeAscii("</row>");
+        }
+    }
+
+    /**
+     * Write an ASCII string as is.
+     * @param s the string
+     * @throws IOException if failed to write
+     */
+    public void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    /**
+     * Write a string escaped for the output format.
+     * @param s the string
+     * @throws IOException if failed to write
+     */
+    public void writeEscaped(String s) throws IOException {
+        if (json) {
+            writeJson(s);
+        } else {
+            writeXml(s);
+        }
+    }
+
+    private void writeJson(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    write('\\');
+                    write('"');
+                    break;
+                case '\\':
+                    write('\\');
+                    write('\\');
+                    break;
+                case '/':
+                    // As escapeJson, keeps "</" out of the output
+                    write('\\');
+                    write('/');
+                    break;
+                case '\b':
+                    write('\\');
+                    write('b');
+                    break;
+                case '\f':
+                    write('\\');
+                    write('f');
+                    break;
+                case '\n':
+                    write('\\');
+                    write('n');
+                    break;
+                case '\r':
+                    write('\\');
+                    write('r');
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7f) {
+                        writeAscii("\\u00");
+                        write(HEX[c >> 4]);
+                        write(HEX[c & 0xf]);
+                    } else {
+                        i = writeUtf8(s, i, c);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void writeXml(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    writeAscii("&amp;");
+                    break;
+                case '<':
+                    writeAscii("&lt;");
+                    break;
+                case '>':
+                    writeAscii("&gt;");
+                    break;
+                case '"':
+                    writeAscii("&quot;");
+                    break;
+                case '\'':
+                    writeAscii("&apos;");
+                    break;
+                default:
+                    if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                        // Not allowed in XML 1.0, dropped as escapeXml10 does
+                    } else if ((c >= 0x7f && c <= 0x84) || (c >= 0x86 && c <= 0x9f)) {
+                        writeAscii("&#");
+                        writeAscii(Integer.toString(c));
+                        write(';');
+                    } else if (c == 0xfffe || c == 0xffff) {
+                        // Not allowed in XML 1.0
+                    } else {
+                        i = writeUtf8(s, i, c);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Write the character at the index as UTF-8, with its low surrogate if any.
+     * @return the index of the last character written
+     */
+    private int writeUtf8(String s, int i, char c) throws IOException {
+        if (c < 0x80) {
+            write(c);
+        } else if (c < 0x800) {
+            write(0xc0 | (c >> 6));
+            write(0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            write(0xf0 | (cp >> 18));
+            write(0x80 | ((cp >> 12) & 0x3f));
+            write(0x80 | ((cp >> 6) & 0x3f));
+            write(0x80 | (cp & 0x3f));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            // Unpaired surrogate
+            write('?');
+        } else {
+            write(0xe0 | (c >> 12));
+            write(0x80 | ((c >> 6) & 0x3f));
+            write(0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flush the buffer, the response output is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,169 @@
+package com.topcoder.demo.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link FederatedQuery}.
+ */
+public class FederatedQueryTest {
+
+    private static void assertRejected(String sql) {
+        try {
+            FederatedQuery.parse(sql);
+            fail("Expected rejected: " + sql);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testParse() {
+        FederatedQuery query = FederatedQuery.parse(
+                "select id, amount from db.transaction t where amount > 10 order by t.id desc, amount limit 50;");
+        assertEquals("transaction", query.getTable());
+        assertEquals(50, query.getLimit());
+        assertTrue(query.isMergeable());
+        assertTrue(query.isSorted());
+        List<FederatedQuery.Order> orders = query.getOrders();
+        assertEquals(2, orders.size());
+        assertEquals("id", orders.get(0).getColumn());
+        assertTrue(orders.get(0).isDescending());
+        assertEquals("amount", orders.get(1).getColumn());
+        assertFalse(orders.get(1).isDescending());
+    }
+
+    @Test
+    public void testParseWithoutOptionalClauses() {
+        FederatedQuery query = FederatedQuery.parse("SELECT * FROM `position`");
+        assertEquals("position", query.getTable());
+        assertEquals(-1, query.getLimit());
+        assertFalse(query.isSorted());
+        assertTrue(query.getOrders().isEmpty());
+    }
+
+    @Test
+    public void testKeywordsInLiteralsAndSubexpressions() {
+        FederatedQuery query = FederatedQuery.parse(
+                "SELECT id FROM transaction WHERE note = 'join; group by' AND id IN (SELECT id FROM t GROUP BY id)");
+        assertEquals("transaction", query.getTable());
+        assertEquals("SELECT id FROM transaction WHERE (note = 'join; group by' AND id IN (SELECT id FROM t GROUP BY id))"
+                + " AND x = 1", query.toSql("x = 1", -1));
+    }
+
+    @Test
+    public void testNotMergeable() {
+        assertFalse(FederatedQuery.parse("SELECT count(*) FROM transaction").isMergeable());
+        assertFalse(FederatedQuery.parse("SELECT DISTINCT id FROM transaction").isMergeable());
+        // A column named like an aggregate
+        assertTrue(FederatedQuery.parse("SELECT max FROM transaction").isMergeable());
+    }
+
+    @Test
+    public void testOrdersNotColumns() {
+        assertNull(FederatedQuery.parse("SELECT id FROM transaction ORDER BY 1").getOrders());
+        assertNull(FederatedQuery.parse("SELECT id FROM transaction ORDER BY abs(amount)").getOrders());
+        assertNull(FederatedQuery.parse("SELECT id FROM transaction ORDER BY id NULLS LAST").getOrders());
+    }
+
+    @Test
+    public void testRejected() {
+        assertRejected("UPDATE transaction SET amount = 0");
+        assertRejected("SELECT 1");
+        assertRejected("SELECT id FROM transaction GROUP BY id");
+        assertRejected("SELECT id FROM transaction UNION SELECT id FROM position");
+        assertRejected("SELECT id FROM transaction t JOIN position p ON t.id = p.id");
+        assertRejected("SELECT id FROM transaction, position");
+        assertRejected("SELECT id FROM transaction; DROP TABLE transaction");
+        assertRejected("SELECT id FROM transaction LIMIT 10 OFFSET 5");
+        assertRejected("SELECT id FROM transaction LIMIT ten");
+        assertRejected("SELECT id FROM transaction ORDER id");
+        assertRejected("SELECT id FROM transaction WHERE note = 'unterminated");
+        assertRejected("SELECT FROM transaction WHERE id = 1");
+    }
+
+    @Test
+    public void testToSql() {
+        FederatedQuery query = FederatedQuery.parse("SELECT  id ,amount FROM transaction WHERE a = 1 OR b = 2"
+                + " ORDER BY id LIMIT 10");
+        assertEquals("SELECT id ,amount FROM transaction WHERE a = 1 OR b = 2 ORDER BY id LIMIT 10",
+                query.toSql(null, 10));
+        assertEquals("SELECT id ,amount FROM transaction WHERE (a = 1 OR b = 2) AND d < '2018-01-01' ORDER BY id",
+                query.toSql("d < '2018-01-01'", -1));
+
+        query = FederatedQuery.parse("SELECT id FROM transaction");
+        assertEquals("SELECT id FROM transaction", query.toSql(null, -1));
+        assertEquals("SELECT id FROM transaction WHERE d >= '2018-01-01' LIMIT 5",
+                query.toSql("d >= '2018-01-01'", 5));
+    }
+
+    @Test
+    public void testRangeComparisons() {
+        FederatedQuery.Range range = FederatedQuery.parse(
+                "SELECT id FROM transaction WHERE t.businessdate >= '2018-02-01' AND BusinessDate < '2018-03-01'")
+                .range("businessdate");
+        assertTrue(range.isFrom("2018-01-01"));
+        assertTrue(range.isFrom("2018-02-01"));
+        assertFalse(range.isFrom("2018-02-02"));
+        assertTrue(range.isBefore("2018-03-01"));
+        assertFalse(range.isBefore("2018-02-28"));
+    }
+
+    @Test
+    public void testRangeEquals() {
+        FederatedQuery.Range range = FederatedQuery.parse(
+                "SELECT id FROM transaction WHERE businessdate = DATE '2018-02-01'").range("businessdate");
+        assertTrue(range.isFrom("2018-02-01"));
+        assertFalse(range.isBefore("2018-02-01"));
+        assertTrue(range.isBefore("2018-02-02"));
+    }
+
+    @Test
+    public void testRangeBetweenAndFlipped() {
+        FederatedQuery.Range range = FederatedQuery.parse("SELECT id FROM transaction"
+                + " WHERE businessdate BETWEEN '2018-01-01' AND '2018-01-31' AND amount > 10").range("businessdate");
+        assertTrue(range.isFrom("2018-01-01"));
+        assertTrue(range.isBefore("2018-02-01"));
+        assertFalse(range.isBefore("2018-01-31"));
+
+        range = FederatedQuery.parse("SELECT id FROM transaction WHERE '2018-01-01' > businessdate")
+                .range("businessdate");
+        assertTrue(range.isBefore("2018-01-01"));
+        assertFalse(range.isFrom("1970-01-01"));
+    }
+
+    @Test
+    public void testRangeUnbounded() {
+        // Conditions under OR, on other columns, or with non dates are ignored
+        for (String sql : new String[] { "SELECT id FROM transaction",
+                "SELECT id FROM transaction WHERE businessdate > '2018-01-01' OR amount > 10",
+                "SELECT id FROM transaction WHERE tradedate > '2018-01-01'",
+                "SELECT id FROM transaction WHERE businessdate > 'yesterday'" }) {
+            FederatedQuery.Range range = FederatedQuery.parse(sql).range("businessdate");
+            assertFalse(sql, range.isFrom("1970-01-01"));
+            assertFalse(sql, range.isBefore("9999-12-31"));
+        }
+    }
+
+    @Test
+    public void testCompare() {
+        FederatedQuery query = FederatedQuery.parse("SELECT id, name FROM transaction ORDER BY id DESC, name");
+        int[] columns = { 0, 1 };
+        // Numbers compared as numbers, descending
+        assertTrue(query.compare(new String[] { "10", "a" }, new String[] { "9", "a" }, columns) < 0);
+        assertTrue(query.compare(new String[] { "1e2", "a" }, new String[] { "99.5", "a" }, columns) < 0);
+        // Then strings, ascending
+        assertTrue(query.compare(new String[] { "1", "a" }, new String[] { "1", "b" }, columns) < 0);
+        assertEquals(0, query.compare(new String[] { "1", "a" }, new String[] { "1", "a" }, columns));
+        // Nulls first, reversed by DESC
+        assertTrue(query.compare(new String[] { null, "a" }, new String[] { "1", "a" }, columns) > 0);
+        assertTrue(query.compare(new String[] { "1", null }, new String[] { "1", "a" }, columns) < 0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.topcoder.demo.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link Federation}.
+ */
+public class FederationTest {
+
+    private final Federation federation = new Federation(
+            " transaction.BusinessDate=2018-01-01, instrument=marklogic, archive=HIVE,");
+
+    private void assertRejected(String sql) {
+        try {
+            federation.plan(sql);
+            fail("Expected rejected: " + sql);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static void assertInvalidTiers(String tiers) {
+        try {
+            new Federation(tiers);
+            fail("Expected invalid: " + tiers);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSplitAtBoundary() {
+        Federation.Plan plan = federation.plan("SELECT id FROM transaction WHERE amount > 10 LIMIT 100");
+        assertEquals("SELECT id FROM transaction WHERE (amount > 10) AND businessdate >= '2018-01-01' LIMIT 100",
+                plan.getMarkLogicSql());
+        assertEquals("SELECT id FROM transaction WHERE (amount > 10) AND businessdate < '2018-01-01' LIMIT 40",
+                plan.getHiveSql(40));
+    }
+
+    @Test
+    public void testTierPruned() {
+        Federation.Plan plan = federation.plan("SELECT id FROM transaction WHERE businessdate >= '2018-03-01'");
+        assertEquals("SELECT id FROM transaction WHERE businessdate >= '2018-03-01'", plan.getMarkLogicSql());
+        assertNull(plan.getHiveSql(-1));
+
+        plan = federation.plan("SELECT id FROM transaction WHERE businessdate < '2018-01-01'");
+        assertNull(plan.getMarkLogicSql());
+        assertEquals("SELECT id FROM transaction WHERE businessdate < '2018-01-01'", plan.getHiveSql(-1));
+
+        // The boundary day is in MarkLogic
+        plan = federation.plan("SELECT id FROM transaction WHERE businessdate <= '2018-01-01'");
+        assertEquals("SELECT id FROM transaction WHERE (businessdate <= '2018-01-01') AND businessdate >= '2018-01-01'",
+                plan.getMarkLogicSql());
+    }
+
+    @Test
+    public void testSingleTierTables() {
+        Federation.Plan plan = federation.plan("SELECT * FROM Instrument");
+        assertEquals("SELECT * FROM Instrument", plan.getMarkLogicSql());
+        assertNull(plan.getHiveSql(-1));
+
+        plan = federation.plan("SELECT count(*) FROM archive");
+        assertNull(plan.getMarkLogicSql());
+        assertEquals("SELECT count(*) FROM archive", plan.getHiveSql(-1));
+    }
+
+    @Test
+    public void testUnknownTableReadFromBothTiers() {
+        Federation.Plan plan = federation.plan("SELECT id FROM position ORDER BY id LIMIT 10");
+        assertEquals("SELECT id FROM position ORDER BY id LIMIT 10", plan.getMarkLogicSql());
+        assertEquals("SELECT id FROM position ORDER BY id LIMIT 10", plan.getHiveSql(10));
+    }
+
+    @Test
+    public void testNotMergeableAcrossTiers() {
+        assertRejected("SELECT count(*) FROM transaction");
+        assertRejected("SELECT DISTINCT id FROM position");
+        assertRejected("SELECT id FROM transaction ORDER BY abs(amount)");
+        // Fine in a single tier
+        federation.plan("SELECT count(*) FROM transaction WHERE businessdate >= '2018-01-01'");
+        federation.plan("SELECT id FROM instrument ORDER BY abs(price)");
+    }
+
+    @Test
+    public void testInvalidTiers() {
+        assertInvalidTiers("transaction");
+        assertInvalidTiers("=hive");
+        assertInvalidTiers("transaction=s3");
+        // Ages move with the clock, only fixed boundaries split the rows
+        assertInvalidTiers("transaction.businessdate=90d");
+        assertInvalidTiers("transaction.businessdate=2018-13-01");
+    }
+
+    @Test
+    public void testNoTiers() {
+        Federation.Plan plan = new Federation("").plan("SELECT id FROM transaction");
+        assertEquals("SELECT id FROM transaction", plan.getMarkLogicSql());
+        assertEquals("SELECT id FROM transaction", plan.getHiveSql(-1));
+    }
+}
@@ -0,0 +1,211 @@
+package com.topcoder.demo.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link QueryCache}.
+ */
+public class QueryCacheTest {
+
+    private File dir;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("query-cache-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private QueryCache cache(long maxBytes, long maxEntryBytes, int fileThresholdBytes) {
+        return new QueryCache(true, maxBytes, maxEntryBytes, fileThresholdBytes, 60000, dir.getPath());
+    }
+
+    /**
+     * Get a response of the given size, made of the key bytes.
+     */
+    private byte[] get(QueryCache cache, String key, long ttlMs, int size, boolean cacheable)
+            throws IOException, SQLException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        cache.get(key, ttlMs, output, out -> {
+            loads.incrementAndGet();
+            out.write(response(key, size));
+            return cacheable;
+        });
+        return output.toByteArray();
+    }
+
+    private byte[] get(QueryCache cache, String key, int size) throws IOException, SQLException {
+        return get(cache, key, -1, size, true);
+    }
+
+    private static byte[] response(String key, int size) {
+        byte[] response = new byte[size];
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < size; i++) {
+            response[i] = bytes[i % bytes.length];
+        }
+        return response;
+    }
+
+    @Test
+    public void testKeyNormalization() {
+        assertEquals(QueryCache.key("json", "SELECT * FROM t WHERE id = 1"),
+                QueryCache.key("JSON", "  SELECT *\n\tFROM t   WHERE id = 1 "));
+        // Whitespace in quoted literals is kept
+        assertFalse(QueryCache.key("json", "SELECT * FROM t WHERE name = 'a  b'").equals(
+                QueryCache.key("json", "SELECT * FROM t WHERE name = 'a b'")));
+        assertEquals(QueryCache.key("json", "SELECT * FROM t WHERE name = 'a  b' AND x = 1"),
+                QueryCache.key("json", "SELECT * FROM t WHERE name = 'a  b'  AND  x = 1"));
+        // Formats and queries are not mixed up
+        assertFalse(QueryCache.key("json", "SELECT 1").equals(QueryCache.key("xml", "SELECT 1")));
+        assertFalse(QueryCache.key("json", "a", "b").equals(QueryCache.key("json", "a b")));
+        assertFalse(QueryCache.key("json", "a", null).equals(QueryCache.key("json", null, "a")));
+        assertEquals(QueryCache.key("json", " a ", null), QueryCache.key("json", "a", null));
+    }
+
+    @Test
+    public void testHit() throws IOException, SQLException {
+        QueryCache cache = cache(1024, 1024, 1024);
+        assertArrayEquals(response("a", 100), get(cache, "a", 100));
+        assertArrayEquals(response("a", 100), get(cache, "a", 100));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEntries());
+        assertEquals(100, cache.getBytes());
+    }
+
+    @Test
+    public void testBypassed() throws IOException, SQLException {
+        QueryCache cache = cache(1024, 1024, 1024);
+        get(cache, "a", 0, 10, true);
+        get(cache, "a", 0, 10, true);
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.getEntries());
+
+        QueryCache disabled = new QueryCache(false, 1024, 1024, 1024, 60000, dir.getPath());
+        get(disabled, "a", 10);
+        get(disabled, "a", 10);
+        assertEquals(4, loads.get());
+        assertEquals(0, disabled.getEntries());
+    }
+
+    @Test
+    public void testNotCached() throws IOException, SQLException {
+        QueryCache cache = cache(1024, 100, 1024);
+        // A backend failed
+        get(cache, "a", -1, 10, false);
+        // Larger than the max entry bytes
+        assertArrayEquals(response("b", 101), get(cache, "b", 101));
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testFailedLoadNotCached() throws IOException, SQLException {
+        QueryCache cache = cache(1024, 1024, 1024);
+        try {
+            cache.get("a", -1, new ByteArrayOutputStream(), out -> {
+                out.write(new byte[10]);
+                throw new SQLException("failed");
+            });
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(0, cache.getEntries());
+        get(cache, "a", 10);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testExpired() throws IOException, SQLException, InterruptedException {
+        QueryCache cache = cache(1024, 1024, 1024);
+        get(cache, "a", 1, 10, true);
+        Thread.sleep(10);
+        get(cache, "a", 10);
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getEntries());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException, SQLException {
+        QueryCache cache = cache(100, 100, 1024);
+        get(cache, "a", 40);
+        get(cache, "b", 40);
+        // a is now more recently used than b
+        get(cache, "a", 40);
+        get(cache, "c", 40);
+        assertEquals(2, cache.getEntries());
+        assertEquals(80, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+
+        loads.set(0);
+        get(cache, "a", 40);
+        get(cache, "c", 40);
+        assertEquals(0, loads.get());
+        get(cache, "b", 40);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testEntryLargerThanOthersEvictsThem() throws IOException, SQLException {
+        QueryCache cache = cache(100, 100, 1024);
+        get(cache, "a", 30);
+        get(cache, "b", 30);
+        get(cache, "c", 90);
+        assertEquals(1, cache.getEntries());
+        assertEquals(90, cache.getBytes());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testFileEntries() throws IOException, SQLException {
+        QueryCache cache = cache(1 << 20, 1 << 20, 16);
+        assertArrayEquals(response("big", 200000), get(cache, "big", 200000));
+        assertEquals(1, dir.listFiles().length);
+        assertArrayEquals(response("big", 200000), get(cache, "big", 200000));
+        assertEquals(1, loads.get());
+        assertEquals(200000, cache.getBytes());
+
+        cache.clear();
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getBytes());
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void testEvictedFileDeleted() throws IOException, SQLException {
+        QueryCache cache = cache(300, 300, 16);
+        get(cache, "a", 200);
+        get(cache, "b", 200);
+        assertEquals(1, cache.getEntries());
+        assertEquals(1, dir.listFiles().length);
+    }
+}
@@ -0,0 +1,136 @@
+package com.topcoder.demo.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RowEncoder}.
+ */
+public class RowEncoderTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private String rows(boolean json, String[] columns, String[]... rows) throws IOException {
+        RowEncoder encoder = new RowEncoder(out, json, 0);
+        encoder.columns(columns);
+        encoder.startRows();
+        for (String[] row : rows) {
+            encoder.startRow();
+            for (int i = 0; i < row.length; i++) {
+                encoder.cell(i, row[i]);
+            }
+            encoder.endRow();
+        }
+        encoder.endRows();
+        encoder.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] escaped(boolean json, String value) throws IOException {
+        RowEncoder encoder = new RowEncoder(out, json, 0);
+        encoder.writeEscaped(value);
+        encoder.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testJsonRows() throws IOException {
+        assertEquals("[{\"id\":\"1\",\"name\":\"a\"},{\"id\":\"2\",\"name\":null}]",
+                rows(true, new String[] { "id", "name" }, new String[] { "1", "a" }, new String[] { "2", null }));
+    }
+
+    @Test
+    public void testXmlRows() throws IOException {
+        assertEquals("<row><id>1</id><name>a</name></row><row><id>2</id><name/></row>",
+                rows(false, new String[] { "id", "name" }, new String[] { "1", "a" }, new String[] { "2", null }));
+    }
+
+    @Test
+    public void testNoRows() throws IOException {
+        assertEquals("[]", rows(true, new String[] { "id" }));
+        out.reset();
+        assertEquals("", rows(false, new String[] { "id" }));
+    }
+
+    @Test
+    public void testColumnNamesEscaped() throws IOException {
+        assertEquals("[{\"a\\\"b\":\"1\"}]", rows(true, new String[] { "a\"b" }, new String[] { "1" }));
+        out.reset();
+        assertEquals("<row><a&amp;b>1</a&amp;b></row>", rows(false, new String[] { "a&b" }, new String[] { "1" }));
+    }
+
+    @Test
+    public void testJsonEscaping() throws IOException {
+        assertEquals("\\\"q\\\" \\\\ <\\/a> \\b\\f\\n\\r\\t \\u0001\\u001f\\u007f",
+                new String(escaped(true, "\"q\" \\ </a> \b\f\n\r\t \u0001\u001f\u007f"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testXmlEscaping() throws IOException {
+        // Tab, new line and carriage return are kept, the other C0 controls and U+FFFE, U+FFFF dropped,
+        // DEL and the C1 controls but U+0085 written as character references
+        assertEquals("&amp;&lt;&gt;&quot;&apos;\t\n\r&#127;&#128;\u0085&#159;\u00a0",
+                new String(escaped(false, "&<>\"'\t\n\r\u0000\u001f\u007f\u0080\u0085\u009f\u00a0\ufffe\uffff"),
+                        StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUtf8() throws IOException {
+        // 2, 3 and 4 bytes sequences
+        String value = "caf\u00e9 \u20ac \u4e2d \ud83d\ude00";
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), escaped(true, value));
+        out.reset();
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), escaped(false, value));
+    }
+
+    @Test
+    public void testUnpairedSurrogates() throws IOException {
+        assertEquals("a?b?", new String(escaped(true, "a\ud83db\ude00"), StandardCharsets.UTF_8));
+        out.reset();
+        assertEquals("?", new String(escaped(false, "\ud83d"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testValuesLargerThanBuffer() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append("\u00e9x\ud83d\ude00");
+        }
+        StringBuilder expected = new StringBuilder("[");
+        for (int row = 0; row < 3; row++) {
+            expected.append(row == 0 ? "{" : ",{").append("\"v\":\"").append(value).append("\"}");
+        }
+        expected.append(']');
+        assertEquals(expected.toString(), rows(true, new String[] { "v" }, new String[] { value.toString() },
+                new String[] { value.toString() }, new String[] { value.toString() }));
+    }
+
+    @Test
+    public void testRawRows() throws IOException {
+        RowEncoder encoder = new RowEncoder(out, true, 0);
+        encoder.startRows();
+        encoder.startRawRow();
+        encoder.writeAscii("{\"id\":1}");
+        encoder.endRawRow();
+        encoder.startRawRow();
+        encoder.writeAscii("{\"id\":2}");
+        encoder.endRawRow();
+        encoder.endRows();
+        encoder.flush();
+        assertEquals("[{\"id\":1},{\"id\":2}]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        out.reset();
+        encoder = new RowEncoder(out, false, 0);
+        encoder.startRawRow();
+        encoder.writeAscii("<id>1</id>");
+        encoder.endRawRow();
+        encoder.flush();
+        assertEquals("<row><id>1</id></row>", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+}